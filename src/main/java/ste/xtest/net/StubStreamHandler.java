@@ -22,13 +22,17 @@
 package ste.xtest.net;
 
 import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
 import java.net.URLStreamHandler;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import org.junit.rules.ExternalResource;
+import org.junit.rules.TestRule;
 import ste.xtest.net.sun.protocol.file.FileURLConnection;
 import ste.xtest.net.sun.protocol.http.HttpURLConnection;
 
@@ -42,7 +46,7 @@ public class StubStreamHandler extends URLStreamHandler {
 
     @Override
     protected URLConnection openConnection(URL url) throws IOException {
-        StubURLConnection stub = URLMap.get(url.toString());
+        StubURLConnection stub = URLMap.get(url.toString(), url);
 
         if (LOG.isLoggable(Level.INFO)) {
             LOG.info(
@@ -60,12 +64,46 @@ public class StubStreamHandler extends URLStreamHandler {
 
     // ------------------------------------------------------------ class URLMap
 
+    /**
+     * The registry of the stubs by URL. Stubs are added to the global scope,
+     * shared by all threads, unless the current thread opened its own scope
+     * with {@code open()}: a THREAD scope is visible to the current thread
+     * only, an INHERITABLE scope also to the threads it creates afterwards.
+     * Lookups check the scope of the current thread first and then the global
+     * one, without locking, so that tests can run in parallel each with its
+     * own stubs.
+     *
+     * Stubs are selected by the exact URL given when they are created or, if
+     * added with {@code route()}, by URL template (see {@code URLRouter}):
+     * exact URLs are checked first, then the templates.
+     *
+     * For a scope per test use the rule returned by {@code scoped()}:
+     *
+     * <pre>
+     *   &#64;Rule
+     *   public final TestRule stubs = StubStreamHandler.URLMap.scoped(Scope.INHERITABLE);
+     * </pre>
+     */
     public static class URLMap {
 
-        private static final Map<String, StubURLConnection> map = new HashMap<>();
+        public enum Scope { GLOBAL, THREAD, INHERITABLE }
 
+        private static final Map<String, StubURLConnection> map = new ConcurrentHashMap<>();
+        private static final URLRouter routes = new URLRouter();
+
+        private static final ThreadLocal<ScopeMap> scope = new InheritableThreadLocal<>() {
+            @Override
+            protected ScopeMap childValue(final ScopeMap parent) {
+                return ((parent != null) && parent.inheritable) ? parent : null;
+            }
+        };
+
+        /**
+         * @return the stubs of the current scope
+         */
         public static Map<String, StubURLConnection> getMapping() {
-            return map;
+            final ScopeMap s = scope.get();
+            return (s == null) ? map : s.stubs;
         }
 
         /**
@@ -82,13 +120,138 @@ public class StubStreamHandler extends URLStreamHandler {
                 throw new IllegalArgumentException("url can not be null");
             }
 
-            StubURLConnection stub = map.get(url);
+            return get(url, null);
+        }
+
+        /**
+         * Same as {@code get(String)}, with the URL object of the given url
+         * if the caller already has one, so that routed stubs do not parse it
+         * again
+         */
+        private static StubURLConnection get(final String url, final URL target) {
+            final ScopeMap s = scope.get();
+            StubURLConnection stub = (s == null) ? null : s.stubs.get(url);
+            if (stub == null) {
+                stub = map.get(url);
+            }
+            if (stub != null) {
+                return (StubURLConnection)stub.clone();
+            }
+
+            URLRouter.Match match = (s == null) ? null : s.routes.find(url);
+            if (match == null) {
+                match = routes.find(url);
+            }
+            if (match == null) {
+                return null;
+            }
 
-            return (stub == null) ? null : (StubURLConnection)map.get(url).clone();
+            try {
+                return ((StubURLConnection)match.stub.clone()).routed(
+                    (target != null) ? target : URI.create(url).toURL(), match.variables
+                );
+            } catch (MalformedURLException | IllegalArgumentException x) {
+                throw new IllegalArgumentException("url is malformed: " + url, x);
+            }
         }
 
+        /**
+         * Adds the given stub to the current scope
+         *
+         * @param stub the stub - NOT NULL
+         */
         public static void add(StubURLConnection stub) {
-            map.put(stub.getURL().toString(), stub);
+            getMapping().put(stub.getURL().toString(), stub);
+        }
+
+        /**
+         * Adds the given stub to the current scope to serve all URLs matching
+         * the template given by its URL, e.g. {@code http://somewhere.com/users/{id}};
+         * the stub can read the values of the variables with
+         * {@code getVariables()}
+         *
+         * @param stub the stub - NOT NULL
+         *
+         * @throws IllegalArgumentException if the template is not valid
+         */
+        public static void route(StubURLConnection stub) {
+            final ScopeMap s = scope.get();
+            ((s == null) ? routes : s.routes).add(stub.getURL().toString(), stub);
+        }
+
+        /**
+         * Removes all stubs, exact and routed, of the current scope
+         */
+        public static void clear() {
+            final ScopeMap s = scope.get();
+            if (s == null) {
+                map.clear(); routes.clear();
+            } else {
+                s.stubs.clear(); s.routes.clear();
+            }
+        }
+
+        /**
+         * Opens a new empty scope for the current thread, replacing the one
+         * already open if any; opening the GLOBAL scope is the same as
+         * {@code close()}
+         *
+         * @param scope the scope - NOT NULL
+         *
+         * @throws IllegalArgumentException if scope is null
+         */
+        public static void open(final Scope scope) {
+            if (scope == null) {
+                throw new IllegalArgumentException("scope can not be null");
+            }
+            if (scope == Scope.GLOBAL) {
+                close();
+            } else {
+                URLMap.scope.set(new ScopeMap(scope == Scope.INHERITABLE));
+            }
+        }
+
+        /**
+         * Closes the scope of the current thread, if any, discarding its
+         * stubs; the global scope is not affected
+         */
+        public static void close() {
+            scope.remove();
+        }
+
+        /**
+         * @param scope the scope - NOT NULL
+         *
+         * @return a rule opening the given scope before each test and closing
+         *         it after
+         *
+         * @throws IllegalArgumentException if scope is null
+         */
+        public static TestRule scoped(final Scope scope) {
+            if (scope == null) {
+                throw new IllegalArgumentException("scope can not be null");
+            }
+            return new ExternalResource() {
+                @Override
+                protected void before() {
+                    open(scope);
+                }
+
+                @Override
+                protected void after() {
+                    close();
+                }
+            };
+        }
+
+        private static final class ScopeMap {
+            final boolean inheritable;
+            final Map<String, StubURLConnection> stubs = new ConcurrentHashMap<>();
+            final URLRouter routes = new URLRouter();
+
+            ScopeMap(final boolean inheritable) {
+                this.inheritable = inheritable;
+            }
         }
     }
 
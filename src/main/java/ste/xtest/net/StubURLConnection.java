@@ -32,6 +32,7 @@ import java.net.ProtocolException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -39,7 +40,6 @@ import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.activation.MimetypesFileTypeMap;
-import org.apache.commons.lang3.SerializationUtils;
 import org.assertj.core.util.Lists;
 import ste.xtest.logging.LoggingByteArrayOutputStream;
 import ste.xtest.net.calls.ErrorThrower;
@@ -255,8 +255,9 @@ public class      StubURLConnection
             }
             C.type(originalType);
 
-            C.headers(SerializationUtils.clone(headers));
+            C.headers(copy(headers));
             C.exec(exec);
+            C.variables = variables;
 
             return C;
         } catch (MalformedURLException x) {
@@ -279,6 +280,7 @@ public class      StubURLConnection
     private HashMap<String, List<String>> headers; // TO BE REMOVED IN FAVOUR OF SUPERCLASS' FIELD
     private StubConnectionCall exec;
     private LoggingByteArrayOutputStream out;  // this will not be cloned
+    private Map<String, String> variables = Collections.emptyMap();
 
     /**
      * Sets the HTTP(s) status
@@ -470,8 +472,45 @@ public class      StubURLConnection
         return connected;
     }
 
+    /**
+     * @return the values of the variables of the URL template that routed the
+     *         request to this stub (see <code>URLMap.route()</code>), as they
+     *         are in the URL; empty if the stub was not routed by a template
+     */
+    public Map<String, String> getVariables() {
+        return variables;
+    }
+
+    /**
+     * Binds this stub to the URL actually requested and to the values of the
+     * template variables
+     *
+     * @param url the requested url
+     * @param variables the template variables
+     *
+     * @return this
+     */
+    StubURLConnection routed(final URL url, final Map<String, String> variables) {
+        this.url = url; this.variables = variables; return this;
+    }
+
     // --------------------------------------------------------- private methods
 
+    /**
+     * Copies the given headers map and its value lists; the strings are
+     * immutable and shared
+     */
+    private static HashMap<String, List<String>> copy(final HashMap<String, List<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+        final HashMap<String, List<String>> copy = new HashMap<>(Math.max(16, headers.size() * 2));
+        for (Map.Entry<String, List<String>> e: headers.entrySet()) {
+            copy.put(e.getKey(), (e.getValue() == null) ? null : new ArrayList<>(e.getValue()));
+        }
+        return copy;
+    }
+
     private void setContent(final Object content, final String type) {
         this.content = content;
         headers.put("content-type", Lists.newArrayList(type));
@@ -0,0 +1,248 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Routes URLs to the stubs registered with URL templates. A template is an
+ * URL whose path segments can be literals, variables like {@code {id}}
+ * (matching any single segment, whose value is then available to the stub),
+ * {@code *} (any single segment) or, as last segment, {@code **} (any number
+ * of segments, none included); the query and the fragment of both templates
+ * and URLs are ignored. For example:
+ *
+ * <pre>
+ *   http://api.somewhere.com/users/{id}
+ *   http://api.somewhere.com/users/{id}/posts/*
+ *   http://cdn.somewhere.com/static/**
+ * </pre>
+ *
+ * Templates are indexed by scheme and authority and then in a trie of path
+ * segments, so that the cost of a lookup depends on the length of the path
+ * and not on the number of templates. Literal segments take precedence over
+ * variables and wildcards, which take precedence over {@code **}.
+ *
+ * Templates are added under a lock while lookups do not lock.
+ */
+final class URLRouter {
+
+    private static final String ANY = "*";
+    private static final String TAIL = "**";
+
+    private final Map<String, Node> hosts = new ConcurrentHashMap<>();
+    private volatile int size = 0;
+
+    /**
+     * Adds (or replaces) the stub of the given template
+     *
+     * @param template the URL template - NOT NULL
+     * @param stub the stub - NOT NULL
+     *
+     * @throws IllegalArgumentException if template contains ** not as last
+     *         segment
+     */
+    synchronized void add(final String template, final StubURLConnection stub) {
+        final String[] url = split(template);
+        final List<String> segments = segments(url[1]);
+        final String[] variables = new String[segments.size()];
+
+        Node node = hosts.computeIfAbsent(url[0], k -> new Node());
+        for (int i = 0; i < segments.size(); ++i) {
+            final String segment = segments.get(i);
+            if (segment.equals(TAIL)) {
+                if (i < segments.size() - 1) {
+                    throw new IllegalArgumentException("** can only be the last segment of " + template);
+                }
+                if (node.tail == null) {
+                    ++size;
+                }
+                node.tail = new Route(stub, variables);
+                return;
+            }
+            if (segment.equals(ANY) || isVariable(segment)) {
+                if (isVariable(segment)) {
+                    variables[i] = segment.substring(1, segment.length() - 1);
+                }
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+            } else {
+                node = node.literals.computeIfAbsent(segment, k -> new Node());
+            }
+        }
+        if (node.route == null) {
+            ++size;
+        }
+        node.route = new Route(stub, variables);
+    }
+
+    /**
+     * @param url the url - NOT NULL
+     *
+     * @return the stub and the template variables of the best template
+     *         matching the given url, null if none matches
+     */
+    Match find(final String url) {
+        final String[] parts = split(url);
+        final Node root = hosts.get(parts[0]);
+        if (root == null) {
+            return null;
+        }
+
+        final List<String> segments = segments(parts[1]);
+        final Route route = find(root, segments, 0);
+        if (route == null) {
+            return null;
+        }
+
+        final Map<String, String> variables = new HashMap<>();
+        for (int i = 0; i < route.variables.length; ++i) {
+            if (route.variables[i] != null) {
+                variables.put(route.variables[i], segments.get(i));
+            }
+        }
+
+        return new Match(route.stub, Collections.unmodifiableMap(variables));
+    }
+
+    synchronized void clear() {
+        hosts.clear(); size = 0;
+    }
+
+    /**
+     * @return the number of templates
+     */
+    int size() {
+        return size;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Route find(final Node node, final List<String> segments, final int i) {
+        if (i == segments.size()) {
+            final Route route = node.route;
+            return (route != null) ? route : node.tail;
+        }
+
+        final Node literal = node.literals.get(segments.get(i));
+        if (literal != null) {
+            final Route route = find(literal, segments, i + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+
+        final Node any = node.any;
+        if (any != null) {
+            final Route route = find(any, segments, i + 1);
+            if (route != null) {
+                return route;
+            }
+        }
+
+        return node.tail;
+    }
+
+    private static boolean isVariable(final String segment) {
+        return (segment.length() > 2) && segment.startsWith("{") && segment.endsWith("}");
+    }
+
+    /**
+     * @return the scheme and authority (lower case) and the path of the given
+     *         url, without query and fragment
+     */
+    private static String[] split(final String url) {
+        int end = url.length();
+        for (int i = 0; i < end; ++i) {
+            final char c = url.charAt(i);
+            if (c == '?' || c == '#') {
+                end = i;
+            }
+        }
+
+        final int scheme = url.indexOf("://");
+        if ((scheme < 0) || (scheme > end)) {
+            return new String[] { "", url.substring(0, end) };
+        }
+
+        int path = url.indexOf('/', scheme + 3);
+        if ((path < 0) || (path > end)) {
+            path = end;
+        }
+
+        return new String[] {
+            url.substring(0, path).toLowerCase(), url.substring(path, end)
+        };
+    }
+
+    private static List<String> segments(final String path) {
+        final List<String> segments = new ArrayList<>();
+        int start = 0;
+        for (int i = 0; i <= path.length(); ++i) {
+            if ((i == path.length()) || (path.charAt(i) == '/')) {
+                if (i > start) {
+                    segments.add(path.substring(start, i));
+                }
+                start = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    // ------------------------------------------------------------------- Node
+
+    private static final class Node {
+        final Map<String, Node> literals = new ConcurrentHashMap<>();
+        volatile Node any = null;
+        volatile Route route = null;
+        volatile Route tail = null;
+    }
+
+    // ------------------------------------------------------------------ Route
+
+    private static final class Route {
+        final StubURLConnection stub;
+        final String[] variables;  // by segment, null if not a variable
+
+        Route(final StubURLConnection stub, final String[] variables) {
+            this.stub = stub; this.variables = variables;
+        }
+    }
+
+    // ------------------------------------------------------------------ Match
+
+    static final class Match {
+        final StubURLConnection stub;
+        final Map<String, String> variables;
+
+        Match(final StubURLConnection stub, final Map<String, String> variables) {
+            this.stub = stub; this.variables = variables;
+        }
+    }
+}
@@ -42,6 +42,25 @@ public class ANDMatcher implements RequestMatcher {
         return true;
     }
 
+    /**
+     * @return the cost of the most expensive contained matcher
+     */
+    @Override
+    public int cost() {
+        int cost = 0;
+        for (RequestMatcher matcher : matchers) {
+            cost = Math.max(cost, matcher.cost());
+        }
+        return cost;
+    }
+
+    /**
+     * @return the matchers this matcher is composed of
+     */
+    RequestMatcher[] matchers() {
+        return matchers;
+    }
+
     @Override
     public String toString() {
         StringBuilder sb = new StringBuilder();
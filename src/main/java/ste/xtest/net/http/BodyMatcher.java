@@ -23,13 +23,6 @@
 package ste.xtest.net.http;
 
 import java.net.http.HttpRequest;
-import java.net.http.HttpRequest.BodyPublisher;
-import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
-import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.Flow;
-import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 
 /**
@@ -66,52 +59,6 @@ public class BodyMatcher implements RequestMatcher {
         this.body = Pattern.compile(Pattern.quote(body));
     }
 
-    /**
-     * Reads the body of the given {@link HttpRequest.BodyPublisher} and returns it as a String.
-     * This method is blocking and waits for the body content to be fully read.
-     * @param publisher The {@link HttpRequest.BodyPublisher} to read the body from.
-     * @return The body content as a String.
-     * @throws Exception if an error occurs during body reading or if the operation times out.
-     */
-    private String readBody(HttpRequest.BodyPublisher publisher) throws Exception {
-        CompletableFuture<String> contentFuture = new CompletableFuture<>();
-        StringBuilder contentBuilder = new StringBuilder();
-
-        Flow.Subscriber<ByteBuffer> subscriber = new Flow.Subscriber<ByteBuffer>() {
-            private Flow.Subscription subscription;
-
-            @Override
-            public void onSubscribe(Flow.Subscription subscription) {
-                this.subscription = subscription;
-                // Request all available data
-                subscription.request(Long.MAX_VALUE);
-            }
-
-            @Override
-            public void onNext(ByteBuffer item) {
-                // Convert ByteBuffer to string and append
-                byte[] bytes = new byte[item.remaining()];
-                item.get(bytes);
-                contentBuilder.append(new String(bytes, StandardCharsets.UTF_8));
-            }
-
-            @Override
-            public void onError(Throwable throwable) {
-                contentFuture.completeExceptionally(throwable);
-            }
-
-            @Override
-            public void onComplete() {
-                contentFuture.complete(contentBuilder.toString());
-            }
-        };
-
-        publisher.subscribe(subscriber);
-
-        // Wait for completion (with timeout)
-        return contentFuture.get(5, TimeUnit.SECONDS);
-    }
-
     /**
      * Checks if the body of the given {@link HttpRequest} matches the expected body of this matcher.
      * @param request The {@link HttpRequest} to check. Can not be null.
@@ -124,15 +71,20 @@ public class BodyMatcher implements RequestMatcher {
         if (request == null) {
             throw new IllegalArgumentException("request can not be null");
         }
-        final Optional<BodyPublisher> ifBody = request.bodyPublisher();
-        if (ifBody.isPresent()) {
-            try {
-                return body.matcher(readBody(ifBody.get())).matches();
-            } catch (Exception x) {
-                x.printStackTrace();
-            }
+        //
+        // the snapshot and its error are shared by all matchers of the
+        // exchange; the error is reported in the no-match dump, not here
+        //
+        final RequestBody requestBody = RequestBody.of(request);
+        if (requestBody.error().isPresent()) {
+            return false;
         }
-        return false;
+        return requestBody.isPresent() && body.matcher(requestBody.text()).matches();
+    }
+
+    @Override
+    public int cost() {
+        return COST_BODY;
     }
 
     @Override
@@ -0,0 +1,108 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpRequest;
+import java.time.Duration;
+import java.util.Optional;
+
+/**
+ * A view of a request being served by StubHttpClient that takes a snapshot of
+ * the body the first time it is needed, so that the body publisher of the
+ * original request is drained at most once per exchange.
+ */
+final class BufferedHttpRequest extends HttpRequest {
+
+    private final HttpRequest request;
+    private volatile RequestBody body = null;
+
+    BufferedHttpRequest(final HttpRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @return the original request
+     */
+    HttpRequest request() {
+        return request;
+    }
+
+    /**
+     * @return the body snapshot of the request, taken the first time it is asked
+     */
+    RequestBody body() {
+        RequestBody ret = body;
+        if (ret == null) {
+            synchronized (this) {
+                if ((ret = body) == null) {
+                    body = ret = RequestBody.read(request);
+                }
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public Optional<BodyPublisher> bodyPublisher() {
+        return request.bodyPublisher().isPresent()
+             ? Optional.of(body().publisher())
+             : Optional.empty();
+    }
+
+    @Override
+    public String method() {
+        return request.method();
+    }
+
+    @Override
+    public Optional<Duration> timeout() {
+        return request.timeout();
+    }
+
+    @Override
+    public boolean expectContinue() {
+        return request.expectContinue();
+    }
+
+    @Override
+    public URI uri() {
+        return request.uri();
+    }
+
+    @Override
+    public Optional<HttpClient.Version> version() {
+        return request.version();
+    }
+
+    @Override
+    public HttpHeaders headers() {
+        return request.headers();
+    }
+
+    @Override
+    public String toString() {
+        return request.toString();
+    }
+}
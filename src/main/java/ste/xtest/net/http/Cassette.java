@@ -0,0 +1,358 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ * A cassette is a recording of HTTP exchanges (see {@link RecordingHttpClient})
+ * that can be replayed with no network by a {@link StubHttpClient}:
+ *
+ * <pre>
+ *   // once, against the real thing
+ *   try (RecordingHttpClient http = new RecordingHttpClient(HttpClient.newHttpClient(), cassette)) {
+ *     ... run the suite with http ...
+ *   }
+ *
+ *   // afterwards
+ *   HttpClient http = new HttpClientStubber().withCassette(Cassette.load(cassette)).build();
+ * </pre>
+ *
+ * A recorded exchange is replayed for requests with the same method and URI;
+ * if the same request was recorded more than once the first recording wins.
+ *
+ * The on-disk format is compact and indexed so that large recordings load
+ * lazily: {@code load()} reads only the header and the offset table at the
+ * end of the file; status, headers of an exchange are read when it is
+ * replayed the first time and bodies are memory-mapped and streamed.
+ *
+ * <pre>
+ *   header   : magic "XTC2", int count, long index offset
+ *   exchanges: int status, int header count,
+ *              (string name, int value count, string value...)...,
+ *              long body length, body bytes
+ *   index    : (string method, string uri, long exchange offset) x count
+ *   string   : int length, UTF-8 bytes
+ * </pre>
+ */
+public final class Cassette {
+
+    static final int MAGIC = 0x58544332; // XTC2
+    static final int HEADER_SIZE = 16;
+
+    /**
+     * An entry of the offset table
+     */
+    public static final class Entry {
+        public final String method;
+        public final URI uri;
+        final long offset;
+
+        Entry(final String method, final URI uri, final long offset) {
+            this.method = method; this.uri = uri; this.offset = offset;
+        }
+
+        @Override
+        public String toString() {
+            return method + " " + uri;
+        }
+    }
+
+    private final Path file;
+    private final List<Entry> entries;
+
+    private Cassette(final Path file, final List<Entry> entries) {
+        this.file = file; this.entries = entries;
+    }
+
+    /**
+     * Opens a cassette reading only its offset table
+     *
+     * @param file the cassette file - NOT NULL
+     *
+     * @return the cassette
+     *
+     * @throws IOException if the file can not be read or is not a cassette
+     * @throws IllegalArgumentException if file is null
+     */
+    public static Cassette load(final Path file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            while (header.hasRemaining() && channel.read(header) >= 0);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC) {
+                throw new IOException(file + " is not a cassette");
+            }
+            final int count = header.getInt();
+            final long index = header.getLong();
+            final long size = channel.size();
+            if (count < 0 || index < HEADER_SIZE || index > size) {
+                throw new IOException(file + " is not a cassette");
+            }
+
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(channel.position(index))
+            ));
+            final List<Entry> entries = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                entries.add(new Entry(readString(in, size), URI.create(readString(in, size)), in.readLong()));
+            }
+
+            return new Cassette(file, Collections.unmodifiableList(entries));
+        }
+    }
+
+    /**
+     * @return the recorded exchanges in recording order
+     */
+    public List<Entry> entries() {
+        return entries;
+    }
+
+    /**
+     * @return the number of recorded exchanges
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return a stub for each recorded exchange, in recording order
+     */
+    public List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs() {
+        final List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs = new ArrayList<>(entries.size());
+        for (Entry e: entries) {
+            stubs.add(new ImmutablePair<>(
+                new ANDMatcher(new URIMatcher(e.uri.toString()), new MethodMatcher(e.method)),
+                new CassetteResponse(e)
+            ));
+        }
+        return stubs;
+    }
+
+    // ---------------------------------------------------------------- Writer
+
+    /**
+     * Writes a cassette: exchanges are appended as they are recorded and
+     * the offset table is written on {@code close()}. Appending is thread safe.
+     */
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final DataOutputStream out;
+        private final List<Entry> entries = new ArrayList<>();
+        private long position = HEADER_SIZE;
+        private boolean closed = false;
+
+        /**
+         * @param file the cassette file, overwritten if it exists - NOT NULL
+         *
+         * @throws IOException if the file can not be created
+         * @throws IllegalArgumentException if file is null
+         */
+        public Writer(final Path file) throws IOException {
+            if (file == null) {
+                throw new IllegalArgumentException("file can not be null");
+            }
+            channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING
+            );
+            channel.write(ByteBuffer.allocate(HEADER_SIZE)); // patched on close
+            out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 64*1024));
+        }
+
+        /**
+         * Appends an exchange
+         *
+         * @param method the request method - NOT NULL
+         * @param uri the request uri - NOT NULL
+         * @param status the response status
+         * @param headers the response headers - NOT NULL
+         * @param body the response body - NOT NULL
+         *
+         * @throws IOException in case of write errors or if the writer is closed
+         */
+        public synchronized void append(
+            final String method, final URI uri, final int status,
+            final Map<String, List<String>> headers, final byte[] body
+        ) throws IOException {
+            if (closed) {
+                throw new IOException("cassette closed");
+            }
+            entries.add(new Entry(method, uri, position));
+
+            out.writeInt(status);
+            out.writeInt(headers.size());
+            for (Map.Entry<String, List<String>> h: headers.entrySet()) {
+                writeString(out, h.getKey());
+                out.writeInt(h.getValue().size());
+                for (String v: h.getValue()) {
+                    writeString(out, v);
+                }
+            }
+            out.writeLong(body.length);
+            out.write(body);
+            out.flush();
+
+            position = channel.position();
+        }
+
+        /**
+         * @return the number of exchanges appended so far
+         */
+        public synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * Writes the offset table and closes the file
+         *
+         * @throws IOException in case of write errors
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                for (Entry e: entries) {
+                    writeString(out, e.method);
+                    writeString(out, e.uri.toString());
+                    out.writeLong(e.offset);
+                }
+                out.flush();
+
+                final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putInt(MAGIC).putInt(entries.size()).putLong(position).flip();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    // ------------------------------------------------------- CassetteResponse
+
+    /**
+     * A stubbed response that reads status and headers of the recorded
+     * exchange the first time it is replayed
+     */
+    private final class CassetteResponse extends StubHttpResponse {
+        private final Entry entry;
+        private volatile StubHttpResponse loaded = null;
+
+        CassetteResponse(final Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        protected StubHttpResponse exchange(final HttpRequest request) {
+            StubHttpResponse stub = loaded;
+            if (stub == null) {
+                try {
+                    loaded = stub = load();
+                } catch (IOException x) {
+                    throw new UncheckedIOException("unable to read " + entry + " from " + file, x);
+                }
+            }
+            return stub.exchange(request);
+        }
+
+        private StubHttpResponse load() throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                final DataInputStream in = new DataInputStream(
+                    Channels.newInputStream(channel.position(entry.offset))
+                );
+                final long size = channel.size();
+                final int status = in.readInt();
+                final Map<String, List<String>> headers = new LinkedHashMap<>();
+                for (int n = in.readInt(); n > 0; --n) {
+                    final String name = readString(in, size);
+                    final List<String> values = new ArrayList<>();
+                    for (int v = in.readInt(); v > 0; --v) {
+                        values.add(readString(in, size));
+                    }
+                    headers.put(name, values);
+                }
+                final long length = in.readLong();
+
+                return new StubHttpResponse()
+                    .content(ResponseBody.file(file, channel.position(), length))
+                    .headers(headers)
+                    .statusCode(status);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "recorded " + entry;
+        }
+    }
+
+    // --------------------------------------------------------------- strings
+
+    //
+    // Strings are written as int length + UTF-8 bytes rather than with
+    // writeUTF(), which is limited to 65535 encoded bytes and would fail on
+    // long URIs or header values; when reading, a length larger than the
+    // file is rejected so that a corrupted cassette does not exhaust memory
+    //
+    private static void writeString(final DataOutputStream out, final String s) throws IOException {
+        final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(final DataInputStream in, final long max) throws IOException {
+        final int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("invalid string length " + length);
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
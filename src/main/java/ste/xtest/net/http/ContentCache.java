@@ -0,0 +1,196 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * An in-memory cache of the content served by {@link XTestFileHandler}.
+ * Entries are keyed by file path and variant (e.g. the content with the
+ * bootstrap scripts injected) and are valid as long as the modification
+ * time and size of the file do not change. The least recently used entries
+ * are evicted to keep the total size of the cached content within the given
+ * budget; content bigger than the budget is never cached.
+ *
+ * This class is thread safe.
+ */
+public class ContentCache {
+
+    public final long budget;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes = 0;
+    private long hits = 0, misses = 0;
+
+    /**
+     * @param budget the maximum number of bytes of content to keep - GREATER THAN 0
+     *
+     * @throws IllegalArgumentException if budget is not positive
+     */
+    public ContentCache(final long budget) {
+        if (budget <= 0) {
+            throw new IllegalArgumentException("budget must be greater than 0");
+        }
+        this.budget = budget;
+    }
+
+    /**
+     * @param size the size of some content
+     *
+     * @return true if content of the given size can be cached
+     */
+    public boolean fits(final long size) {
+        return size <= budget;
+    }
+
+    /**
+     * @param file the file the content comes from - NOT NULL
+     * @param variant the variant of the content or null for the raw content
+     * @param modified the current modification time of the file - NOT NULL
+     * @param size the current size of the file
+     *
+     * @return the cached content or null if not cached or stale
+     */
+    public synchronized byte[] get(final Path file, final String variant, final FileTime modified, final long size) {
+        final Key key = new Key(file, variant);
+        final Entry e = entries.get(key);
+        if (e == null) {
+            ++misses; return null;
+        }
+        if (!e.modified.equals(modified) || e.size != size) {
+            remove(key); ++misses; return null;
+        }
+        ++hits;
+        return e.content;
+    }
+
+    /**
+     * Caches the given content, evicting the least recently used entries if
+     * needed; content bigger than the budget is ignored.
+     *
+     * @param file the file the content comes from - NOT NULL
+     * @param variant the variant of the content or null for the raw content
+     * @param modified the modification time of the file the content was read at - NOT NULL
+     * @param size the size of the file the content was read at
+     * @param content the content - NOT NULL
+     */
+    public synchronized void put(
+        final Path file, final String variant, final FileTime modified, final long size, final byte[] content
+    ) {
+        if (!fits(content.length)) {
+            return;
+        }
+        final Key key = new Key(file, variant);
+        remove(key);
+        entries.put(key, new Entry(modified, size, content));
+        bytes += content.length;
+
+        final Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+        while (bytes > budget && i.hasNext()) {
+            final Map.Entry<Key, Entry> eldest = i.next();
+            bytes -= eldest.getValue().content.length;
+            i.remove();
+        }
+    }
+
+    /**
+     * @return the number of cached entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of cached bytes
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the number of lookups that found valid content
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of lookups that did not find valid content
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Removes all entries
+     */
+    public synchronized void clear() {
+        entries.clear(); bytes = 0;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void remove(final Key key) {
+        final Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.content.length;
+        }
+    }
+
+    private static final class Key {
+        final Path file;
+        final String variant;
+
+        Key(final Path file, final String variant) {
+            this.file = file; this.variant = variant;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key k = (Key)o;
+            return file.equals(k.file) && Objects.equals(variant, k.variant);
+        }
+
+        @Override
+        public int hashCode() {
+            return file.hashCode() * 31 + Objects.hashCode(variant);
+        }
+    }
+
+    private static final class Entry {
+        final FileTime modified;
+        final long size;
+        final byte[] content;
+
+        Entry(final FileTime modified, final long size, final byte[] content) {
+            this.modified = modified; this.size = size; this.content = content;
+        }
+    }
+}
@@ -46,6 +46,11 @@ public class HeaderMatcher implements RequestMatcher {
             request.headers().allValues(this.name).contains(this.value);
     }
 
+    @Override
+    public int cost() {
+        return COST_HEADER;
+    }
+
     @Override
     public String toString() {
         return (value == null) ?
@@ -26,9 +26,14 @@ import java.net.CookieHandler;
 import java.net.ProxySelector;
 import java.net.http.HttpClient;
 import java.time.Duration;
-import java.util.ArrayList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
 import org.apache.commons.lang3.tuple.ImmutablePair;
@@ -49,7 +54,10 @@ public class HttpClientStubber implements HttpClient.Builder {
     private int priority = 0;
     private ProxySelector proxy = null;
     private Authenticator authenticator = null;
-    private List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs = new ArrayList<>();
+    private NetworkProfile network = null;
+    private final StubRegistry stubs = new StubRegistry();
+    private final StubStatistics statistics = new StubStatistics();
+    private final MatchEvents events = new MatchEvents();
 
     @Override
     public HttpClientStubber cookieHandler(final CookieHandler cookieHandler) {
@@ -141,6 +149,40 @@ public class HttpClientStubber implements HttpClient.Builder {
         return authenticator;
     }
 
+    /**
+     * Sets the conditions of the network all stubbed responses are delivered
+     * through, unless a response has its own profile.
+     *
+     * @param network the network profile; null means an ideal network
+     *
+     * @return this instance
+     */
+    public HttpClientStubber network(final NetworkProfile network) {
+        this.network = network; return this;
+    }
+
+    public NetworkProfile network() {
+        return network;
+    }
+
+    /**
+     * @return the statistics of the exchanges served by the stubs of this
+     *         stubber (hits, bytes served and body consume time per stub,
+     *         requests not matching any stub)
+     */
+    public StubStatistics statistics() {
+        return statistics;
+    }
+
+    /**
+     * @return the most recent match attempts and outcomes of the requests
+     *         sent to the clients built by this stubber; use
+     *         {@code events().toString()} to dump them
+     */
+    public MatchEvents events() {
+        return events;
+    }
+
     @Override
     public HttpClient build() {
         return new StubHttpClient(this);
@@ -158,8 +200,174 @@ public class HttpClientStubber implements HttpClient.Builder {
         stubs.add(new ImmutablePair<>(matcher, response)); return this;
     }
 
+    /**
+     * Adds a stub for each exchange recorded in the given cassette, so that
+     * the recorded traffic is replayed with no network
+     *
+     * @param cassette the cassette - NOT NULL
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if cassette is null
+     */
+    public HttpClientStubber withCassette(final Cassette cassette) {
+        if (cassette == null) {
+            throw new IllegalArgumentException("cassette can not be null");
+        }
+        stubs.addAll(cassette.stubs()); return this;
+    }
+
     public List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs() {
         return stubs;
     }
 
+    /**
+     * Returns the routing index of the current stubs. The index is built only
+     * once per version of the stubs.
+     *
+     * @return the routing index of the current stubs
+     */
+    StubIndex index() {
+        return stubs.index();
+    }
+
+    // ----------------------------------------------------------- StubRegistry
+
+    /**
+     * A copy-on-write list of stubs. Every change replaces the current
+     * snapshot atomically, so that stubs can be added while requests are
+     * being served and readers never need to lock. The routing index is built
+     * lazily once per snapshot.
+     */
+    private static class StubRegistry extends AbstractList<ImmutablePair<RequestMatcher, StubHttpResponse>> {
+
+        private final AtomicReference<Snapshot> current = new AtomicReference<>(new Snapshot(new ImmutablePair[0]));
+
+        @Override
+        public ImmutablePair<RequestMatcher, StubHttpResponse> get(int i) {
+            return current.get().stubs[i];
+        }
+
+        @Override
+        public int size() {
+            return current.get().stubs.length;
+        }
+
+        @Override
+        public ImmutablePair<RequestMatcher, StubHttpResponse> set(int i, ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+            while (true) {
+                final Snapshot snapshot = current.get();
+                final ImmutablePair[] stubs = snapshot.stubs.clone();
+                final ImmutablePair<RequestMatcher, StubHttpResponse> old = stubs[i];
+                stubs[i] = stub;
+                if (current.compareAndSet(snapshot, new Snapshot(stubs))) {
+                    return old;
+                }
+            }
+        }
+
+        @Override
+        public boolean add(ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+            insert(-1, stub); return true;
+        }
+
+        @Override
+        public void add(int i, ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+            insert(i, stub);
+        }
+
+        /**
+         * Appends all given stubs with a single copy of the snapshot
+         */
+        @Override
+        public boolean addAll(Collection<? extends ImmutablePair<RequestMatcher, StubHttpResponse>> c) {
+            final ImmutablePair[] added = c.toArray(new ImmutablePair[0]);
+            while (true) {
+                final Snapshot snapshot = current.get();
+                final int size = snapshot.stubs.length;
+                final ImmutablePair[] stubs = Arrays.copyOf(snapshot.stubs, size + added.length, ImmutablePair[].class);
+                System.arraycopy(added, 0, stubs, size, added.length);
+                if (current.compareAndSet(snapshot, new Snapshot(stubs))) {
+                    ++modCount; return added.length > 0;
+                }
+            }
+        }
+
+        /**
+         * Inserts the given stub at the given position or, if {@code at} is
+         * negative, appends it to the snapshot current at the time of the change.
+         */
+        private void insert(final int at, ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+            while (true) {
+                final Snapshot snapshot = current.get();
+                final int size = snapshot.stubs.length;
+                final int i = (at < 0) ? size : at;
+                if (i < 0 || i > size) {
+                    throw new IndexOutOfBoundsException("index: " + i + ", size: " + size);
+                }
+                final ImmutablePair[] stubs = new ImmutablePair[size + 1];
+                System.arraycopy(snapshot.stubs, 0, stubs, 0, i);
+                System.arraycopy(snapshot.stubs, i, stubs, i + 1, size - i);
+                stubs[i] = stub;
+                if (current.compareAndSet(snapshot, new Snapshot(stubs))) {
+                    ++modCount; return;
+                }
+            }
+        }
+
+        @Override
+        public ImmutablePair<RequestMatcher, StubHttpResponse> remove(int i) {
+            while (true) {
+                final Snapshot snapshot = current.get();
+                final int size = snapshot.stubs.length;
+                final ImmutablePair<RequestMatcher, StubHttpResponse> old = snapshot.stubs[i];
+                final ImmutablePair[] stubs = new ImmutablePair[size - 1];
+                System.arraycopy(snapshot.stubs, 0, stubs, 0, i);
+                System.arraycopy(snapshot.stubs, i + 1, stubs, i, size - i - 1);
+                if (current.compareAndSet(snapshot, new Snapshot(stubs))) {
+                    ++modCount; return old;
+                }
+            }
+        }
+
+        @Override
+        public void clear() {
+            current.set(new Snapshot(new ImmutablePair[0])); ++modCount;
+        }
+
+        /**
+         * Iterates over the stubs at the time the iterator is created, like
+         * {@code CopyOnWriteArrayList} does.
+         */
+        @Override
+        public Iterator<ImmutablePair<RequestMatcher, StubHttpResponse>> iterator() {
+            return Collections.unmodifiableList(Arrays.asList(current.get().stubs)).iterator();
+        }
+
+        StubIndex index() {
+            return current.get().index();
+        }
+
+        private static class Snapshot {
+            final ImmutablePair<RequestMatcher, StubHttpResponse>[] stubs;
+            private volatile StubIndex index = null;
+
+            Snapshot(final ImmutablePair[] stubs) {
+                this.stubs = stubs;
+            }
+
+            StubIndex index() {
+                //
+                // two threads may build the index at the same time; they
+                // would build the same immutable index so it is harmless
+                //
+                StubIndex ret = index;
+                if (ret == null) {
+                    index = ret = new StubIndex(Collections.unmodifiableList(Arrays.asList(stubs)));
+                }
+                return ret;
+            }
+        }
+    }
+
 }
@@ -45,6 +45,7 @@ public class HttpExchangeStub extends HttpExchange {
     private InputStream is = null;
     private OutputStream os = null;
 
+    private String method = "GET";
     private int responseCode = 0;
 
     private InetSocketAddress remoteAddress = new InetSocketAddress("localhost", 0);
@@ -90,7 +91,7 @@ public class HttpExchangeStub extends HttpExchange {
 
     @Override
     public String getRequestMethod() {
-        return "GET";
+        return method;
     }
 
     @Override
@@ -198,6 +199,10 @@ public class HttpExchangeStub extends HttpExchange {
         this.localAddress = address; return this;
     }
 
+    public HttpExchangeStub withMethod(final String method) {
+        this.method = method; return this;
+    }
+
     public HttpExchangeStub withResponseCode(final int code) {
         this.responseCode = code; return this;
     }
@@ -53,6 +53,7 @@ public enum HttpStatus {
     ENTITY_TOO_LARGE(413, "Request Entity Too Large"),
     REQ_TOO_LONG(414, "Request-URI Too Large"),
     UNSUPPORTED_TYPE(415, "Unsupported Media Type"),
+    RANGE_NOT_SATISFIABLE(416, "Range Not Satisfiable"),
     INTERNAL_ERROR(500, "Internal Server Error"),
     NOT_IMPLEMENTED(501, "Not Implemented"),
     BAD_GATEWAY(502, "Bad Gateway"),
@@ -0,0 +1,375 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonPointer;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@code RequestMatcher} that matches the JSON body of an {@link HttpRequest}
+ * against a set of predicates on the values addressed by JSON pointers
+ * (RFC 6901), for example:
+ *
+ * <pre>
+ *   new JSONMatcher()
+ *     .equalTo("/user/name", "Alice")
+ *     .present("/user/id")
+ *     .absent("/user/password")
+ *     .size("/items", 3)
+ * </pre>
+ *
+ * The body is scanned with a streaming parser in a single pass and the full
+ * tree is never built: subtrees no predicate points into are skipped, the
+ * scan stops as soon as a predicate fails and, if there are no
+ * {@code absent()} predicates, as soon as all predicates are satisfied.
+ * A request without a body or with a body that is not valid JSON (up to the
+ * point the scan stops) does not match.
+ */
+public class JSONMatcher implements RequestMatcher {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private enum Type { EQUAL_TO, PRESENT, ABSENT, SIZE }
+
+    private static final class Predicate {
+        final int id;
+        final Type type;
+        final JsonPointer pointer;
+        final Object value;
+
+        Predicate(final int id, final Type type, final JsonPointer pointer, final Object value) {
+            this.id = id; this.type = type; this.pointer = pointer; this.value = value;
+        }
+
+        @Override
+        public String toString() {
+            switch (type) {
+                case EQUAL_TO: return String.format("%s equal to %s", pointer, (value instanceof String) ? "'" + value + "'" : value);
+                case PRESENT:  return String.format("%s present", pointer);
+                case ABSENT:   return String.format("%s absent", pointer);
+                default:       return String.format("%s of size %s", pointer, value);
+            }
+        }
+    }
+
+    /**
+     * A predicate and the part of its pointer still to be matched at a given
+     * position in the document
+     */
+    private static final class Target {
+        final Predicate predicate;
+        final JsonPointer pointer;
+
+        Target(final Predicate predicate, final JsonPointer pointer) {
+            this.predicate = predicate; this.pointer = pointer;
+        }
+    }
+
+    /**
+     * The state of a single scan
+     */
+    private static final class Scan {
+        final boolean[] satisfied;
+        int pending;
+        final boolean stopEarly;
+
+        Scan(final int positive, final boolean stopEarly, final int size) {
+            this.satisfied = new boolean[size]; this.pending = positive; this.stopEarly = stopEarly;
+        }
+
+        void satisfy(final Predicate p) {
+            if (!satisfied[p.id]) {
+                satisfied[p.id] = true; --pending;
+            }
+        }
+
+        boolean done() {
+            return stopEarly && (pending == 0);
+        }
+    }
+
+    private final List<Predicate> predicates = new ArrayList<>();
+    private int positive = 0;
+    private boolean negative = false;
+
+    /**
+     * Requires the value at the given pointer to be equal to the given value
+     *
+     * @param pointer a JSON pointer - NOT NULL
+     * @param value a String, Number or Boolean or null for JSON null
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if pointer is null or invalid or value
+     *         is not a String, Number or Boolean
+     */
+    public JSONMatcher equalTo(final String pointer, final Object value) {
+        if (value != null && !(value instanceof String) && !(value instanceof Number) && !(value instanceof Boolean)) {
+            throw new IllegalArgumentException("value must be a String, Number, Boolean or null");
+        }
+        return add(Type.EQUAL_TO, pointer, (value instanceof Number) ? new BigDecimal(value.toString()) : value);
+    }
+
+    /**
+     * Requires a value (of any type, including null) at the given pointer
+     *
+     * @param pointer a JSON pointer - NOT NULL
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if pointer is null or invalid
+     */
+    public JSONMatcher present(final String pointer) {
+        return add(Type.PRESENT, pointer, null);
+    }
+
+    /**
+     * Requires no value at the given pointer; note that absent() predicates
+     * require the whole body to be scanned.
+     *
+     * @param pointer a JSON pointer - NOT NULL
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if pointer is null or invalid
+     */
+    public JSONMatcher absent(final String pointer) {
+        return add(Type.ABSENT, pointer, null);
+    }
+
+    /**
+     * Requires an array with the given number of elements (or an object with
+     * the given number of fields) at the given pointer
+     *
+     * @param pointer a JSON pointer - NOT NULL
+     * @param size the expected size - NOT NEGATIVE
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if pointer is null or invalid or size is negative
+     */
+    public JSONMatcher size(final String pointer, final int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size can not be negative");
+        }
+        return add(Type.SIZE, pointer, size);
+    }
+
+    /**
+     * Checks the body of the given {@link HttpRequest} against the predicates of this matcher.
+     * @param request The {@link HttpRequest} to check. Can not be null.
+     * @return {@code true} if the request has a JSON body satisfying all predicates, {@code false} otherwise.
+     * @throws IllegalArgumentException if the request is null.
+     */
+    @Override
+    public boolean match(HttpRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        //
+        // a body that could not be read (see RequestBody.error()) is not
+        // present and simply does not match; the snapshot is shared by all
+        // matchers of the exchange, so the error is not reported here
+        //
+        final RequestBody body = RequestBody.of(request);
+        if (!body.isPresent()) {
+            return false;
+        }
+
+        final List<Target> targets = new ArrayList<>(predicates.size());
+        for (Predicate p: predicates) {
+            targets.add(new Target(p, p.pointer));
+        }
+        final Scan scan = new Scan(positive, !negative, predicates.size());
+
+        try (JsonParser parser = JSON.createParser(new ByteBufferBackedInputStream(body.bytes()))) {
+            if (parser.nextToken() == null) {
+                return false;
+            }
+            return walk(parser, targets, scan) && (scan.pending == 0);
+        } catch (IOException x) {
+            return false;
+        }
+    }
+
+    @Override
+    public int cost() {
+        return COST_BODY;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder("with json body having");
+        for (Predicate p: predicates) {
+            sb.append("\n  ").append(p);
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private JSONMatcher add(final Type type, final String pointer, final Object value) {
+        if (pointer == null) {
+            throw new IllegalArgumentException("pointer can not be null");
+        }
+        final JsonPointer p;
+        try {
+            p = JsonPointer.compile(pointer);
+        } catch (IllegalArgumentException x) {
+            throw new IllegalArgumentException("invalid pointer '" + pointer + "': " + x.getMessage());
+        }
+        predicates.add(new Predicate(predicates.size(), type, p, value));
+        if (type == Type.ABSENT) {
+            negative = true;
+        } else {
+            ++positive;
+        }
+        return this;
+    }
+
+    /**
+     * Scans the value the parser is positioned on
+     *
+     * @param parser the parser, positioned on the first token of a value
+     * @param targets the predicates pointing to this value or into it
+     * @param scan the state of the scan
+     *
+     * @return false as soon as a predicate fails, true otherwise
+     */
+    private boolean walk(final JsonParser parser, final List<Target> targets, final Scan scan) throws IOException {
+        final JsonToken token = parser.currentToken();
+
+        List<Target> children = null;
+        List<Predicate> sizes = null;
+        for (Target t: targets) {
+            if (!t.pointer.matches()) {
+                if (children == null) {
+                    children = new ArrayList<>();
+                }
+                children.add(t);
+                continue;
+            }
+            switch (t.predicate.type) {
+                case ABSENT:
+                    return false;
+                case PRESENT:
+                    scan.satisfy(t.predicate); break;
+                case EQUAL_TO:
+                    if (!equal(parser, token, t.predicate.value)) {
+                        return false;
+                    }
+                    scan.satisfy(t.predicate); break;
+                case SIZE:
+                    if (!token.isStructStart()) {
+                        return false;
+                    }
+                    if (sizes == null) {
+                        sizes = new ArrayList<>();
+                    }
+                    sizes.add(t.predicate);
+            }
+        }
+
+        if (!token.isStructStart()) {
+            return true;
+        }
+        if (children == null && sizes == null) {
+            parser.skipChildren(); return true;
+        }
+
+        final boolean object = (token == JsonToken.START_OBJECT);
+        int count = 0;
+        JsonToken next;
+        while ((next = parser.nextToken()) != JsonToken.END_OBJECT && next != JsonToken.END_ARRAY) {
+            if (next == null) {
+                throw new IOException("unexpected end of content");
+            }
+            List<Target> sub = null;
+            if (object) {
+                final String name = parser.currentName();
+                parser.nextToken();
+                sub = children(children, name, -1);
+            } else {
+                sub = children(children, null, count);
+            }
+            ++count;
+
+            if (sub == null) {
+                parser.skipChildren();
+            } else if (!walk(parser, sub, scan)) {
+                return false;
+            }
+            if (sizes == null && scan.done()) {
+                return true;
+            }
+        }
+
+        if (sizes != null) {
+            for (Predicate p: sizes) {
+                if (((Integer)p.value) != count) {
+                    return false;
+                }
+                scan.satisfy(p);
+            }
+        }
+
+        return true;
+    }
+
+    private List<Target> children(final List<Target> targets, final String name, final int index) {
+        if (targets == null) {
+            return null;
+        }
+        List<Target> ret = null;
+        for (Target t: targets) {
+            final JsonPointer tail = (name != null) ? t.pointer.matchProperty(name) : t.pointer.matchElement(index);
+            if (tail != null) {
+                if (ret == null) {
+                    ret = new ArrayList<>();
+                }
+                ret.add(new Target(t.predicate, tail));
+            }
+        }
+        return ret;
+    }
+
+    private boolean equal(final JsonParser parser, final JsonToken token, final Object value) throws IOException {
+        if (value == null) {
+            return token == JsonToken.VALUE_NULL;
+        }
+        if (value instanceof String) {
+            return (token == JsonToken.VALUE_STRING) && value.equals(parser.getText());
+        }
+        if (value instanceof Boolean) {
+            return token == (((Boolean)value) ? JsonToken.VALUE_TRUE : JsonToken.VALUE_FALSE);
+        }
+        return token.isNumeric() && (parser.getDecimalValue().compareTo((BigDecimal)value) == 0);
+    }
+}
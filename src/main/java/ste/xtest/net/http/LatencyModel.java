@@ -0,0 +1,160 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A model of the time a server takes to respond to a request. A latency model
+ * can be given to a stubbed response so that each exchange is delayed by a
+ * latency sampled from the model; for example:
+ *
+ * <pre>
+ *   new HttpClientStubber().withStub(
+ *     "http://somewhere.com/api",
+ *     new StubHttpResponse().json("{}").latency(
+ *       LatencyModel.percentiles(Map.of(
+ *         50.0, Duration.ofMillis(20), 99.0, Duration.ofMillis(250), 100.0, Duration.ofMillis(900)
+ *       ))
+ *     )
+ *   );
+ * </pre>
+ *
+ * Implementations must be thread safe as the same model is sampled by
+ * concurrent exchanges.
+ */
+@FunctionalInterface
+public interface LatencyModel {
+
+    /**
+     * No latency at all
+     */
+    public static final LatencyModel NONE = () -> Duration.ZERO;
+
+    /**
+     * @return the latency of the next exchange - NOT NULL
+     */
+    public Duration next();
+
+    /**
+     * Creates a latency model that always returns the given latency.
+     *
+     * @param latency the latency - NOT NULL, NOT NEGATIVE
+     *
+     * @return a latency model that always returns the given latency
+     *
+     * @throws IllegalArgumentException if latency is null or negative
+     */
+    public static LatencyModel fixed(final Duration latency) {
+        check(latency, "latency");
+
+        return () -> latency;
+    }
+
+    /**
+     * Creates a latency model that returns latencies uniformly distributed
+     * between min (included) and max (excluded).
+     *
+     * @param min the minimum latency - NOT NULL, NOT NEGATIVE
+     * @param max the maximum latency - NOT NULL, NOT SMALLER THAN min
+     *
+     * @return a latency model with uniformly distributed latencies
+     *
+     * @throws IllegalArgumentException if min or max are null or negative or
+     *         if max is smaller than min
+     */
+    public static LatencyModel uniform(final Duration min, final Duration max) {
+        check(min, "min"); check(max, "max");
+        if (max.compareTo(min) < 0) {
+            throw new IllegalArgumentException("max can not be smaller than min");
+        }
+
+        final long from = min.toNanos(), to = max.toNanos();
+        if (from == to) {
+            return () -> min;
+        }
+        return () -> Duration.ofNanos(ThreadLocalRandom.current().nextLong(from, to));
+    }
+
+    /**
+     * Creates a latency model that follows the distribution described by the
+     * given percentiles (e.g. p50, p90 and p99 taken from a production
+     * histogram). Latencies between two given percentiles are linearly
+     * interpolated; if p0 is not given it is assumed to be zero, while
+     * latencies above the highest given percentile are capped to its value.
+     *
+     * @param percentiles a map from percentile (in [0, 100]) to latency - NOT NULL, NOT EMPTY
+     *
+     * @return a latency model that follows the given percentiles
+     *
+     * @throws IllegalArgumentException if percentiles is null or empty, if a
+     *         percentile is out of range or if latencies do not grow with
+     *         percentiles
+     */
+    public static LatencyModel percentiles(final Map<Double, Duration> percentiles) {
+        if (percentiles == null || percentiles.isEmpty()) {
+            throw new IllegalArgumentException("percentiles can not be null or empty");
+        }
+
+        final TreeMap<Double, Duration> sorted = new TreeMap<>(percentiles);
+        if (sorted.firstKey() < 0 || sorted.lastKey() > 100) {
+            throw new IllegalArgumentException("percentiles must be in the range [0, 100]");
+        }
+        sorted.putIfAbsent(0.0, Duration.ZERO);
+
+        final double[] p = new double[sorted.size()];
+        final long[] l = new long[sorted.size()];
+        int i = 0;
+        for (Map.Entry<Double, Duration> e: sorted.entrySet()) {
+            check(e.getValue(), "latency");
+            p[i] = e.getKey(); l[i] = e.getValue().toNanos();
+            if (i > 0 && l[i] < l[i-1]) {
+                throw new IllegalArgumentException("latencies must not decrease with percentiles");
+            }
+            ++i;
+        }
+
+        return () -> {
+            final double u = ThreadLocalRandom.current().nextDouble(100.0);
+            if (u >= p[p.length-1]) {
+                return Duration.ofNanos(l[l.length-1]);
+            }
+            int j = 1;
+            while (p[j] <= u) {
+                ++j;
+            }
+            final double f = (u - p[j-1]) / (p[j] - p[j-1]);
+            return Duration.ofNanos(l[j-1] + Math.round(f * (l[j] - l[j-1])));
+        };
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static void check(final Duration latency, final String name) {
+        if (latency == null || latency.isNegative()) {
+            throw new IllegalArgumentException(name + " can not be null or negative");
+        }
+    }
+}
@@ -26,22 +26,51 @@ import com.sun.net.httpserver.SimpleFileServer.OutputLevel;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.file.Path;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 
+/**
+ * A local web server serving the files in a root directory with
+ * {@link XTestFileHandler}. Use the constructors for the defaults or
+ * {@code builder()} to tune it:
+ *
+ * <pre>
+ *   LocalFileServer server = LocalFileServer.builder("src/test/resources/html")
+ *     .bootstrapScripts(List.of("..."))
+ *     .backlog(256)
+ *     .accessLog((line) -&gt; LOG.fine(line))
+ *     .metrics(new ServerMetrics())
+ *     .build();
+ * </pre>
+ *
+ * Requests are handled by the given executor or, by default, each in a new
+ * virtual thread, so that parallel page loads do not queue up behind each
+ * other.
+ */
 public class LocalFileServer {
 
+    public static final int DEFAULT_BACKLOG = 10;
+
     public final Path root;
     public final HttpServer server;
+    public final XTestFileHandler handler;
+    public final ServerMetrics metrics;
+
+    private final ExecutorService ownExecutor;
 
     public LocalFileServer(final String root, final List<String> bootstrapScripts)
     throws IOException {
-        this.root = Path.of(root).toAbsolutePath();
-
-        server = HttpServer.create(
-            new InetSocketAddress(0),
-            10, "/",
-            new XTestFileHandler(root, bootstrapScripts),
-            SimpleFileServer.createOutputFilter(System.out, OutputLevel.VERBOSE)
+        this(
+            builder(root).bootstrapScripts(bootstrapScripts)
+            .accessLog(SimpleFileServer.createOutputFilter(System.out, OutputLevel.VERBOSE))
         );
     }
 
@@ -49,12 +78,54 @@ public class LocalFileServer {
         this(root, List.of());
     }
 
+    private LocalFileServer(final Builder builder) throws IOException {
+        this.root = Path.of(builder.root).toAbsolutePath();
+        this.handler = new XTestFileHandler(builder.root, builder.bootstrapScripts);
+        this.metrics = builder.metrics;
+
+        final List<Filter> filters = new ArrayList<>(builder.filters);
+        if (metrics != null) {
+            filters.add(metrics.filter());
+        }
+        server = HttpServer.create(
+            new InetSocketAddress(builder.port),
+            builder.backlog, "/",
+            handler,
+            filters.toArray(new Filter[0])
+        );
+        if (metrics != null) {
+            server.createContext(ServerMetrics.PATH, metrics.handler());
+        }
+
+        if (builder.executor != null) {
+            ownExecutor = null;
+            server.setExecutor(builder.executor);
+        } else {
+            ownExecutor = Executors.newVirtualThreadPerTaskExecutor();
+            server.setExecutor(ownExecutor);
+        }
+    }
+
+    /**
+     * @param root the directory to serve files from - NOT NULL
+     *
+     * @return a builder for a server serving files from root
+     *
+     * @throws IllegalArgumentException if root is null
+     */
+    public static Builder builder(final String root) {
+        return new Builder(root);
+    }
+
     public void start() {
         server.start();
     }
 
     public void stop() {
         server.stop(0);
+        if (ownExecutor != null) {
+            ownExecutor.shutdown();
+        }
     }
 
     public static void main(String[] args) throws IOException {
@@ -66,4 +137,133 @@ public class LocalFileServer {
             " with root " + lfs.root
         );
     }
+
+    // ---------------------------------------------------------------- Builder
+
+    public static class Builder {
+        private final String root;
+        private List<String> bootstrapScripts = List.of();
+        private Executor executor = null;
+        private int backlog = DEFAULT_BACKLOG;
+        private int port = 0;
+        private final List<Filter> filters = new ArrayList<>();
+        private ServerMetrics metrics = null;
+
+        private Builder(final String root) {
+            if (root == null) {
+                throw new IllegalArgumentException("root can not be null");
+            }
+            this.root = root;
+        }
+
+        /**
+         * @param bootstrapScripts the scripts injected in HTML pages requested
+         *        with __XTEST_BOOTSTRAP__=1; the list is read at each request
+         *
+         * @return this builder
+         */
+        public Builder bootstrapScripts(final List<String> bootstrapScripts) {
+            this.bootstrapScripts = bootstrapScripts; return this;
+        }
+
+        /**
+         * @param executor the executor requests are handled by; null (the
+         *        default) means a new virtual thread per request
+         *
+         * @return this builder
+         */
+        public Builder executor(final Executor executor) {
+            this.executor = executor; return this;
+        }
+
+        /**
+         * @param backlog the maximum number of queued incoming connections;
+         *        0 or less means the system default
+         *
+         * @return this builder
+         */
+        public Builder backlog(final int backlog) {
+            this.backlog = backlog; return this;
+        }
+
+        /**
+         * @param port the port to listen on; 0 (the default) means any free port
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if port is out of range
+         */
+        public Builder port(final int port) {
+            if (port < 0 || port > 65535) {
+                throw new IllegalArgumentException("port must be in the range [0, 65535]");
+            }
+            this.port = port; return this;
+        }
+
+        /**
+         * Adds a filter logging the requests, for example
+         * {@code SimpleFileServer.createOutputFilter(System.out, OutputLevel.INFO)}
+         *
+         * @param filter the filter - NOT NULL
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if filter is null
+         */
+        public Builder accessLog(final Filter filter) {
+            if (filter == null) {
+                throw new IllegalArgumentException("filter can not be null");
+            }
+            filters.add(filter); return this;
+        }
+
+        /**
+         * Sends a line in Common Log Format to the given sink for each request,
+         * after the response has been sent
+         *
+         * @param sink the sink - NOT NULL
+         *
+         * @return this builder
+         *
+         * @throws IllegalArgumentException if sink is null
+         */
+        public Builder accessLog(final Consumer<String> sink) {
+            if (sink == null) {
+                throw new IllegalArgumentException("sink can not be null");
+            }
+            return accessLog(Filter.afterHandler("access log", (exchange) -> sink.accept(commonLogFormat(exchange))));
+        }
+
+        /**
+         * Collects the metrics of the served requests in the given registry,
+         * which are also served as JSON at {@value ServerMetrics#PATH}
+         *
+         * @param metrics the registry; null (the default) disables metrics
+         *
+         * @return this builder
+         */
+        public Builder metrics(final ServerMetrics metrics) {
+            this.metrics = metrics; return this;
+        }
+
+        public LocalFileServer build() throws IOException {
+            return new LocalFileServer(this);
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static final DateTimeFormatter CLF_DATE =
+        DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US);
+
+    static String commonLogFormat(final HttpExchange exchange) {
+        final String length = exchange.getResponseHeaders().getFirst("Content-Length");
+        return String.format(
+            "%s - - [%s] \"%s %s %s\" %d %s",
+            exchange.getRemoteAddress().getAddress().getHostAddress(),
+            CLF_DATE.format(ZonedDateTime.now(ZoneOffset.UTC)),
+            exchange.getRequestMethod(), exchange.getRequestURI(), exchange.getProtocol(),
+            exchange.getResponseCode(), (length == null) ? "-" : length
+        );
+    }
 }
@@ -0,0 +1,229 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.lang.invoke.VarHandle;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded ring buffer of the match attempts and outcomes of the requests
+ * sent to a StubHttpClient. Recording an event only stores a few references
+ * and primitives in preallocated slots, so that it is cheap enough to be
+ * always on; of the request only method and URI are kept, not the request
+ * itself with its body; the human readable dump is rendered only when requested (see
+ * {@code events()} and {@code toString()}). When the buffer is full the
+ * oldest events are overwritten.
+ *
+ * Recording is lock free; readers skip the slots that are being overwritten
+ * while they are read.
+ */
+public class MatchEvents {
+
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    public enum Outcome {
+        /**
+         * The request was tried against the stub, which did not match
+         */
+        MISS,
+        /**
+         * The request was tried against the stub, which matched
+         */
+        MATCH,
+        /**
+         * The request did not match any stub
+         */
+        NO_MATCH
+    }
+
+    /**
+     * A recorded event
+     */
+    public static final class Event {
+        public final long sequence;
+        public final Instant timestamp;
+        public final String method;
+        public final URI uri;
+        /**
+         * The position of the stub the request was tried against or -1 for
+         * NO_MATCH
+         */
+        public final int stub;
+        public final Outcome outcome;
+
+        Event(
+            final long sequence, final long timestamp, final String method, final URI uri,
+            final int stub, final Outcome outcome
+        ) {
+            this.sequence = sequence;
+            this.timestamp = Instant.ofEpochMilli(timestamp);
+            this.method = method;
+            this.uri = uri;
+            this.stub = stub;
+            this.outcome = outcome;
+        }
+
+        @Override
+        public String toString() {
+            final String what = (outcome == Outcome.NO_MATCH)
+                              ? "no match found"
+                              : String.format("stub #%d %s", stub, (outcome == Outcome.MATCH) ? "matched" : "did not match");
+            return String.format(
+                "#%d %s %s %s %s", sequence, timestamp, method, uri, what
+            );
+        }
+    }
+
+    private static final Outcome[] OUTCOMES = Outcome.values();
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final long[] timestamps;
+    private final String[] methods;
+    private final URI[] uris;
+    private final int[] stubs;
+    private final byte[] outcomes;
+
+    public MatchEvents() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity the maximum number of events kept; it is rounded up to
+     *                 the next power of two
+     *
+     * @throws IllegalArgumentException if capacity is not positive
+     */
+    public MatchEvents(final int capacity) {
+        if (capacity <= 0 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be in the range [1, 2^30]");
+        }
+        final int size = (capacity == 1) ? 1 : Integer.highestOneBit(capacity - 1) << 1;
+        mask = size - 1;
+        stamps = new AtomicLongArray(size);
+        for (int i = 0; i < size; ++i) {
+            stamps.set(i, -1);
+        }
+        timestamps = new long[size];
+        methods = new String[size];
+        uris = new URI[size];
+        stubs = new int[size];
+        outcomes = new byte[size];
+    }
+
+    /**
+     * @return the maximum number of events kept
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Records that request was tried against the stub at the given position
+     *
+     * @param request the request
+     * @param stub the position of the stub
+     * @param matched if the stub matched
+     */
+    void tried(final HttpRequest request, final int stub, final boolean matched) {
+        record(request, stub, matched ? Outcome.MATCH : Outcome.MISS);
+    }
+
+    /**
+     * Records that request did not match any stub
+     *
+     * @param request the request
+     */
+    void unmatched(final HttpRequest request) {
+        record(request, -1, Outcome.NO_MATCH);
+    }
+
+    /**
+     * @return the events currently in the buffer, oldest first
+     */
+    public List<Event> events() {
+        final long last = next.get();
+        final List<Event> ret = new ArrayList<>();
+        for (long seq = Math.max(0, last - capacity()); seq < last; ++seq) {
+            final int slot = (int)(seq & mask);
+            if (stamps.get(slot) != seq) {
+                continue;
+            }
+            final long timestamp = timestamps[slot];
+            final String method = methods[slot];
+            final URI uri = uris[slot];
+            final int stub = stubs[slot];
+            final byte outcome = outcomes[slot];
+            VarHandle.loadLoadFence();
+            if (stamps.get(slot) == seq) {
+                ret.add(new Event(seq, timestamp, method, uri, stub, OUTCOMES[outcome]));
+            }
+        }
+
+        return Collections.unmodifiableList(ret);
+    }
+
+    /**
+     * Removes all events
+     */
+    public void clear() {
+        for (int i = 0; i <= mask; ++i) {
+            stamps.set(i, -1); methods[i] = null; uris[i] = null;
+        }
+    }
+
+    /**
+     * @return a human readable dump of the events, one per line
+     */
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        for (Event e: events()) {
+            sb.append(e).append('\n');
+        }
+        return sb.toString();
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void record(final HttpRequest request, final int stub, final Outcome outcome) {
+        final long seq = next.getAndIncrement();
+        final int slot = (int)(seq & mask);
+
+        stamps.set(slot, -1);
+        VarHandle.storeStoreFence();
+        timestamps[slot] = System.currentTimeMillis();
+        methods[slot] = request.method();
+        uris[slot] = request.uri();
+        stubs[slot] = stub;
+        outcomes[slot] = (byte)outcome.ordinal();
+        stamps.set(slot, seq);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A compiled form of a stub matcher: nested {@link ANDMatcher}s are flattened
+ * in a single chain of conditions sorted by estimated cost (see
+ * {@link RequestMatcher#cost()}), so that cheap checks like URI and method
+ * reject a request before a body regex is ever run. Conditions with the same
+ * cost keep their declared order. Matchers other than ANDMatcher are kept as
+ * they are.
+ *
+ * Chains are built once per version of the stubs by {@link StubIndex}.
+ */
+final class MatcherChain implements RequestMatcher {
+
+    private static final Comparator<RequestMatcher> BY_COST = Comparator.comparingInt(RequestMatcher::cost);
+
+    private final RequestMatcher[] chain;
+    private final int cost;
+
+    private MatcherChain(final RequestMatcher[] chain) {
+        this.chain = chain;
+        this.cost = (chain.length == 0) ? 0 : chain[chain.length-1].cost();
+    }
+
+    /**
+     * Compiles the given matcher
+     *
+     * @param matcher the matcher to compile - NOT NULL
+     * @param satisfied a condition of matcher already satisfied by any request
+     *        the compiled matcher will be given (e.g. an indexed URIMatcher),
+     *        that can be left out of the chain; null if none
+     *
+     * @return the compiled matcher
+     */
+    static RequestMatcher compile(final RequestMatcher matcher, final RequestMatcher satisfied) {
+        if (matcher.getClass() != ANDMatcher.class) {
+            return matcher;
+        }
+        final List<RequestMatcher> conditions = new ArrayList<>();
+        flatten(matcher, satisfied, conditions);
+        conditions.sort(BY_COST);  // stable
+
+        return new MatcherChain(conditions.toArray(new RequestMatcher[0]));
+    }
+
+    @Override
+    public boolean match(HttpRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        for (RequestMatcher condition: chain) {
+            if (!condition.match(request)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int cost() {
+        return cost;
+    }
+
+    /**
+     * @return the conditions of the chain in evaluation order
+     */
+    RequestMatcher[] conditions() {
+        return chain;
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private static void flatten(
+        final RequestMatcher matcher, final RequestMatcher satisfied, final List<RequestMatcher> conditions
+    ) {
+        if (matcher.getClass() == ANDMatcher.class) {
+            for (RequestMatcher m: ((ANDMatcher)matcher).matchers()) {
+                flatten(m, satisfied, conditions);
+            }
+        } else if (matcher != satisfied) {
+            conditions.add(matcher);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.http.HttpRequest;
+
+/**
+ * A {@code RequestMatcher} that matches an {@link HttpRequest} based on its
+ * method (case insensitive). This class is immutable.
+ */
+public class MethodMatcher implements RequestMatcher {
+    /**
+     * The method to match against, in upper case
+     */
+    public final String method;
+
+    /**
+     * @param method the method to match (e.g. GET, POST). Must not be null.
+     *
+     * @throws IllegalArgumentException if method is null
+     */
+    public MethodMatcher(String method) {
+        if (method == null) {
+            throw new IllegalArgumentException("method can not be null");
+        }
+        this.method = method.toUpperCase();
+    }
+
+    /**
+     * @param request The {@link HttpRequest} to check. Must not be null.
+     *
+     * @return {@code true} if the request's method is this matcher's method, {@code false} otherwise.
+     *
+     * @throws IllegalArgumentException if the request is null.
+     */
+    @Override
+    public boolean match(HttpRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        return method.equalsIgnoreCase(request.method());
+    }
+
+    @Override
+    public int cost() {
+        return COST_METHOD;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("with method '%s'", method);
+    }
+
+}
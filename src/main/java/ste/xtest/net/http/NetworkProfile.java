@@ -0,0 +1,245 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Describes the conditions of the network a stubbed response travels
+ * through: the time to the first byte, the bandwidth the body is delivered
+ * with, a random jitter and connections dropped after a given number of body
+ * bytes. For example, to simulate a slow mobile link that drops the
+ * connection in the middle of a download:
+ *
+ * <pre>
+ *   new StubHttpResponse().streamFile("dump.bin").network(
+ *     new NetworkProfile()
+ *       .ttfb(Duration.ofMillis(300))
+ *       .bandwidth(64*1024)
+ *       .jitter(Duration.ofMillis(20))
+ *       .truncateAfter(1024*1024)
+ *   )
+ * </pre>
+ *
+ * A profile can be given to a single StubHttpResponse or to the whole
+ * HttpClientStubber; the former takes precedence. Profiles are meant to be
+ * configured before being used by the client.
+ */
+public class NetworkProfile {
+
+    /**
+     * How many slices per second a throttled body is delivered in, so that
+     * subscribers see the content arriving gradually
+     */
+    public static final int SLICES_PER_SECOND = 20;
+
+    private Duration ttfb = Duration.ZERO;
+    private Duration jitter = Duration.ZERO;
+    private long bandwidth = 0;
+    private long truncateAfter = -1;
+
+    /**
+     * @return the time to the first byte
+     */
+    public Duration ttfb() {
+        return ttfb;
+    }
+
+    /**
+     * Sets the time between the request and the first byte of the response
+     *
+     * @param ttfb the time to the first byte - NOT NULL, NOT NEGATIVE
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if ttfb is null or negative
+     */
+    public NetworkProfile ttfb(final Duration ttfb) {
+        if (ttfb == null || ttfb.isNegative()) {
+            throw new IllegalArgumentException("ttfb can not be null or negative");
+        }
+        this.ttfb = ttfb; return this;
+    }
+
+    /**
+     * @return the maximum random delay added to the first byte and to each
+     *         slice of the body
+     */
+    public Duration jitter() {
+        return jitter;
+    }
+
+    /**
+     * Sets the maximum random delay added to the first byte and to each slice
+     * of the body
+     *
+     * @param jitter the maximum jitter - NOT NULL, NOT NEGATIVE
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if jitter is null or negative
+     */
+    public NetworkProfile jitter(final Duration jitter) {
+        if (jitter == null || jitter.isNegative()) {
+            throw new IllegalArgumentException("jitter can not be null or negative");
+        }
+        this.jitter = jitter; return this;
+    }
+
+    /**
+     * @return the bandwidth in bytes per second (0 means unlimited)
+     */
+    public long bandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Sets the speed the body is delivered at
+     *
+     * @param bytesPerSecond the bandwidth in bytes per second; 0 means unlimited - NOT NEGATIVE
+     *
+     * @return this instance
+     *
+     * @throws IllegalArgumentException if bytesPerSecond is negative
+     */
+    public NetworkProfile bandwidth(final long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("bandwidth can not be negative");
+        }
+        this.bandwidth = bytesPerSecond; return this;
+    }
+
+    /**
+     * @return the number of body bytes after which the connection is dropped
+     *         (-1 means never)
+     */
+    public long truncateAfter() {
+        return truncateAfter;
+    }
+
+    /**
+     * Drops the connection after the given number of body bytes; the body
+     * subscriber receives an IOException
+     *
+     * @param bytes the number of bytes delivered before dropping the
+     *        connection; a negative value means never
+     *
+     * @return this instance
+     */
+    public NetworkProfile truncateAfter(final long bytes) {
+        this.truncateAfter = (bytes < 0) ? -1 : bytes; return this;
+    }
+
+    /**
+     * @return the time to the first byte plus a random jitter
+     */
+    Duration firstByte() {
+        return ttfb.plus(randomJitter());
+    }
+
+    /**
+     * Applies this profile to the given body chunks.
+     *
+     * @param chunks the chunks of the body
+     *
+     * @return the chunks delivered through this network
+     */
+    ResponseBody.Chunks apply(final ResponseBody.Chunks chunks) {
+        if (bandwidth == 0 && jitter.isZero() && truncateAfter < 0) {
+            return chunks;
+        }
+        return new ProfiledChunks(chunks);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private Duration randomJitter() {
+        return jitter.isZero()
+             ? Duration.ZERO
+             : Duration.ofNanos(ThreadLocalRandom.current().nextLong(jitter.toNanos() + 1));
+    }
+
+    // ---------------------------------------------------------- ProfiledChunks
+
+    private final class ProfiledChunks implements ResponseBody.Chunks {
+        private final ResponseBody.Chunks chunks;
+        private ByteBuffer pending = null;
+        private long sent = 0;
+        private long start = -1;
+
+        ProfiledChunks(final ResponseBody.Chunks chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            if ((pending == null) || !pending.hasRemaining()) {
+                pending = chunks.next();
+                if (pending == null) {
+                    return null;
+                }
+            }
+            if ((truncateAfter >= 0) && (sent >= truncateAfter)) {
+                throw new IOException("connection closed after " + sent + " bytes");
+            }
+
+            long size = pending.remaining();
+            if (bandwidth > 0) {
+                size = Math.min(size, Math.max(1, bandwidth / SLICES_PER_SECOND));
+            }
+            if (truncateAfter >= 0) {
+                size = Math.min(size, truncateAfter - sent);
+            }
+            final ByteBuffer slice = pending.slice(pending.position(), (int)size);
+            pending.position(pending.position() + (int)size);
+
+            if (start < 0) {
+                start = System.nanoTime();
+            }
+            sent += size;
+
+            long wait = randomJitter().toNanos();
+            if (bandwidth > 0) {
+                wait += start + (long)(sent * 1_000_000_000.0 / bandwidth) - System.nanoTime();
+            }
+            if (wait > 0) {
+                try {
+                    Thread.sleep(Duration.ofNanos(wait));
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while delivering the body");
+                }
+            }
+
+            return slice;
+        }
+
+        @Override
+        public void close() throws IOException {
+            chunks.close();
+        }
+    }
+}
@@ -0,0 +1,223 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.Authenticator;
+import java.net.CookieHandler;
+import java.net.ProxySelector;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandler;
+import java.net.http.HttpResponse.BodySubscriber;
+import java.net.http.HttpResponse.ResponseInfo;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow.Subscription;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+
+/**
+ * A HttpClient that sends requests with a real client and records the
+ * exchanges in a {@link Cassette} to be replayed later by a
+ * {@link StubHttpClient}. Response bodies are recorded while they are
+ * delivered to the caller's body handler, so the caller sees the very same
+ * response it would get from the real client. An exchange is recorded when
+ * its body is complete; the cassette is finalized on {@code close()}.
+ */
+public class RecordingHttpClient extends HttpClient {
+
+    public final Logger LOG = Logger.getLogger(RecordingHttpClient.class.getCanonicalName());
+
+    private final HttpClient client;
+    private final Cassette.Writer cassette;
+
+    /**
+     * @param client the real client - NOT NULL
+     * @param cassette the cassette file, overwritten if it exists - NOT NULL
+     *
+     * @throws IOException if the cassette can not be created
+     * @throws IllegalArgumentException if client or cassette are null
+     */
+    public RecordingHttpClient(final HttpClient client, final Path cassette) throws IOException {
+        if (client == null) {
+            throw new IllegalArgumentException("client can not be null");
+        }
+        this.client = client;
+        this.cassette = new Cassette.Writer(cassette);
+    }
+
+    /**
+     * @return the number of exchanges recorded so far
+     */
+    public int recorded() {
+        return cassette.size();
+    }
+
+    /**
+     * Finalizes the cassette; the real client is not closed.
+     *
+     * @throws UncheckedIOException if the cassette can not be written
+     */
+    @Override
+    public void close() {
+        try {
+            cassette.close();
+        } catch (IOException x) {
+            throw new UncheckedIOException(x);
+        }
+    }
+
+    @Override
+    public Optional<CookieHandler> cookieHandler() {
+        return client.cookieHandler();
+    }
+
+    @Override
+    public Optional<Duration> connectTimeout() {
+        return client.connectTimeout();
+    }
+
+    @Override
+    public Redirect followRedirects() {
+        return client.followRedirects();
+    }
+
+    @Override
+    public Optional<ProxySelector> proxy() {
+        return client.proxy();
+    }
+
+    @Override
+    public SSLContext sslContext() {
+        return client.sslContext();
+    }
+
+    @Override
+    public SSLParameters sslParameters() {
+        return client.sslParameters();
+    }
+
+    @Override
+    public Optional<Authenticator> authenticator() {
+        return client.authenticator();
+    }
+
+    @Override
+    public Version version() {
+        return client.version();
+    }
+
+    @Override
+    public Optional<Executor> executor() {
+        return client.executor();
+    }
+
+    @Override
+    public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
+        return client.send(request, recording(request, responseBodyHandler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler) {
+        return client.sendAsync(request, recording(request, responseBodyHandler));
+    }
+
+    @Override
+    public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, BodyHandler<T> responseBodyHandler, HttpResponse.PushPromiseHandler<T> pushPromiseHandler) {
+        return client.sendAsync(request, recording(request, responseBodyHandler), pushPromiseHandler);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private <T> BodyHandler<T> recording(final HttpRequest request, final BodyHandler<T> handler) {
+        return (info) -> new RecordingSubscriber<>(request, info, handler.apply(info));
+    }
+
+    /**
+     * Forwards the body to the caller's subscriber keeping a copy of it; the
+     * exchange is appended to the cassette when the body is complete.
+     */
+    private class RecordingSubscriber<T> implements BodySubscriber<T> {
+        private final HttpRequest request;
+        private final ResponseInfo info;
+        private final BodySubscriber<T> subscriber;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        RecordingSubscriber(final HttpRequest request, final ResponseInfo info, final BodySubscriber<T> subscriber) {
+            this.request = request; this.info = info; this.subscriber = subscriber;
+        }
+
+        @Override
+        public CompletionStage<T> getBody() {
+            return subscriber.getBody();
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscriber.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(List<ByteBuffer> item) {
+            for (ByteBuffer b: item) {
+                final ByteBuffer copy = b.duplicate();
+                if (copy.hasArray()) {
+                    body.write(copy.array(), copy.arrayOffset() + copy.position(), copy.remaining());
+                } else {
+                    final byte[] buf = new byte[copy.remaining()];
+                    copy.get(buf); body.writeBytes(buf);
+                }
+            }
+            subscriber.onNext(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            subscriber.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            try {
+                cassette.append(
+                    request.method(), request.uri(), info.statusCode(),
+                    info.headers().map(), body.toByteArray()
+                );
+            } catch (IOException x) {
+                LOG.log(Level.WARNING, "unable to record " + request.method() + " " + request.uri(), x);
+            }
+            subscriber.onComplete();
+        }
+    }
+}
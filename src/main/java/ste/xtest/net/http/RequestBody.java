@@ -0,0 +1,229 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A snapshot of the body of a {@link HttpRequest}. The body publisher is
+ * drained exactly once into a read-only {@link ByteBuffer}; the text of the
+ * body is decoded only if asked, and only once.
+ *
+ * While StubHttpClient matches a request, all matchers and diagnostics share
+ * the same snapshot, which they obtain with {@code RequestBody.of(request)}.
+ * Custom {@code RequestMatcher}s should do the same instead of subscribing to
+ * the request body publisher.
+ */
+public final class RequestBody {
+
+    /**
+     * How long to wait for a body publisher to complete
+     */
+    public static final long TIMEOUT_SECONDS = 5;
+
+    private static final RequestBody NONE = new RequestBody(null, null);
+
+    private final ByteBuffer bytes;
+    private final Throwable error;
+    private volatile String text = null;
+
+    private RequestBody(final ByteBuffer bytes, final Throwable error) {
+        this.bytes = (bytes == null) ? null : bytes.asReadOnlyBuffer();
+        this.error = error;
+    }
+
+    /**
+     * Returns the body snapshot of the given request. If the request is being
+     * served by StubHttpClient the snapshot taken for the exchange is returned,
+     * otherwise the body publisher is drained now.
+     *
+     * @param request the request - NOT NULL
+     *
+     * @return the body snapshot of the given request
+     *
+     * @throws IllegalArgumentException if request is null
+     */
+    public static RequestBody of(final HttpRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        if (request instanceof BufferedHttpRequest) {
+            return ((BufferedHttpRequest)request).body();
+        }
+        return read(request);
+    }
+
+    /**
+     * @return true if the request has a body that could be read, false otherwise
+     */
+    public boolean isPresent() {
+        return bytes != null;
+    }
+
+    /**
+     * @return the error that occurred reading the body, if any
+     */
+    public Optional<Throwable> error() {
+        return Optional.ofNullable(error);
+    }
+
+    /**
+     * @return the number of bytes of the body (0 if there is no body)
+     */
+    public int length() {
+        return (bytes == null) ? 0 : bytes.remaining();
+    }
+
+    /**
+     * Returns a new read-only view of the body bytes; the content is never
+     * copied, so callers can consume the returned buffer independently.
+     *
+     * @return a read-only view of the body (empty if there is no body)
+     */
+    public ByteBuffer bytes() {
+        return (bytes == null) ? ByteBuffer.allocate(0).asReadOnlyBuffer() : bytes.duplicate();
+    }
+
+    /**
+     * @return the body decoded as UTF-8 (empty if there is no body); the
+     *         decoding happens only the first time
+     */
+    public String text() {
+        String ret = text;
+        if (ret == null) {
+            text = ret = text(StandardCharsets.UTF_8);
+        }
+        return ret;
+    }
+
+    /**
+     * @param charset the charset of the body - NOT NULL
+     *
+     * @return the body decoded with the given charset (empty if there is no body)
+     */
+    public String text(final Charset charset) {
+        return (bytes == null) ? "" : charset.decode(bytes()).toString();
+    }
+
+    /**
+     * @return a body publisher that replays this snapshot
+     */
+    BodyPublisher publisher() {
+        return new BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return length();
+            }
+
+            @Override
+            public void subscribe(final Flow.Subscriber<? super ByteBuffer> subscriber) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    private boolean done = false;
+
+                    @Override
+                    public void request(long n) {
+                        if (done) {
+                            return;
+                        }
+                        done = true;
+                        if (length() > 0) {
+                            subscriber.onNext(bytes());
+                        }
+                        subscriber.onComplete();
+                    }
+
+                    @Override
+                    public void cancel() {
+                        done = true;
+                    }
+                });
+            }
+        };
+    }
+
+    // ---------------------------------------------------------- static methods
+
+    /**
+     * Drains the body publisher of the given request copying its content only
+     * once into a buffer of the right size.
+     */
+    static RequestBody read(final HttpRequest request) {
+        final Optional<BodyPublisher> publisher = request.bodyPublisher();
+        if (publisher.isEmpty()) {
+            return NONE;
+        }
+
+        final CompletableFuture<ByteBuffer> content = new CompletableFuture<>();
+        final List<ByteBuffer> buffers = new ArrayList<>();
+
+        publisher.get().subscribe(new Flow.Subscriber<ByteBuffer>() {
+            private int size = 0;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer item) {
+                size += item.remaining(); buffers.add(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                content.completeExceptionally(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                if (buffers.size() == 1) {
+                    content.complete(buffers.get(0));
+                    return;
+                }
+                final ByteBuffer all = ByteBuffer.allocate(size);
+                for (ByteBuffer b: buffers) {
+                    all.put(b);
+                }
+                content.complete(all.flip());
+            }
+        });
+
+        try {
+            return new RequestBody(content.get(TIMEOUT_SECONDS, TimeUnit.SECONDS), null);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+            return new RequestBody(null, x);
+        } catch (Exception x) {
+            return new RequestBody(null, (x.getCause() != null) ? x.getCause() : x);
+        }
+    }
+}
@@ -27,5 +27,27 @@ import java.net.http.HttpRequest;
  *
  */
 public interface RequestMatcher {
+
+    //
+    // Estimated relative costs of the built-in matchers
+    //
+    public static final int COST_URI = 10;
+    public static final int COST_METHOD = 20;
+    public static final int COST_HEADER = 30;
+    public static final int COST_CUSTOM = 50;
+    public static final int COST_BODY = 100;
+
     public boolean match(HttpRequest request);
+
+    /**
+     * Estimated relative cost of {@code match()}; when the conditions of a
+     * stub are compiled by HttpClientStubber, cheaper conditions are checked
+     * first. Custom matchers default to {@code COST_CUSTOM}, i.e. after
+     * URI, method and header checks but before the body ones.
+     *
+     * @return the estimated cost of {@code match()}
+     */
+    public default int cost() {
+        return COST_CUSTOM;
+    }
 }
@@ -0,0 +1,296 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.function.Supplier;
+
+/**
+ * The raw content of a stubbed response. The content is delivered to the
+ * body subscriber one chunk at a time, as requested by the subscriber, so
+ * that large bodies backed by a file or produced by a generator never need
+ * to be held in memory.
+ *
+ * A ResponseBody is shared by all exchanges served by the same stub; each
+ * exchange reads the content through its own {@code Chunks} cursor.
+ */
+public abstract class ResponseBody {
+
+    /**
+     * The default size of the chunks a file is delivered in
+     */
+    public static final int CHUNK_SIZE = 64 * 1024;
+
+    /**
+     * A cursor over the chunks of a body.
+     */
+    public static interface Chunks extends Closeable {
+        /**
+         * @return the next chunk of the body or null if there are no more
+         *         chunks; the returned buffer is owned by the caller
+         *
+         * @throws IOException in case of errors reading the content
+         */
+        public ByteBuffer next() throws IOException;
+
+        @Override
+        public default void close() throws IOException {}
+    }
+
+    /**
+     * @return the length of the body in bytes or -1 if unknown
+     */
+    public abstract long length();
+
+    /**
+     * Opens a new cursor over the chunks of the body
+     *
+     * @return a new cursor over the chunks of the body
+     *
+     * @throws IOException in case of errors opening the content
+     */
+    public abstract Chunks open() throws IOException;
+
+    /**
+     * Reads the whole body in memory; this is what a streamed body is meant to
+     * avoid, so use with care with large bodies.
+     *
+     * @return the whole content of the body
+     *
+     * @throws IOException in case of errors reading the content
+     */
+    public byte[] bytes() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (Chunks chunks = open()) {
+            ByteBuffer chunk;
+            while ((chunk = chunks.next()) != null) {
+                if (chunk.hasArray()) {
+                    out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+                } else {
+                    final byte[] buf = new byte[chunk.remaining()];
+                    chunk.get(buf); out.write(buf);
+                }
+            }
+        }
+        return out.toByteArray();
+    }
+
+    // -------------------------------------------------------------- factories
+
+    /**
+     * @param content the content of the body - NOT NULL
+     *
+     * @return a body delivering the given content in a single chunk
+     */
+    public static ResponseBody of(final byte[] content) {
+        return new ByteArrayBody(content);
+    }
+
+    /**
+     * @param file the file to deliver - NOT NULL
+     *
+     * @return a body delivering the content of the given file memory-mapped in
+     *         chunks of CHUNK_SIZE bytes
+     */
+    public static ResponseBody file(final Path file) {
+        return file(file, CHUNK_SIZE);
+    }
+
+    /**
+     * @param file the file to deliver - NOT NULL
+     * @param chunkSize the size of the chunks - GREATER THAN 0
+     *
+     * @return a body delivering the content of the given file memory-mapped in
+     *         chunks of the given size
+     *
+     * @throws IllegalArgumentException if file is null or chunkSize is not positive
+     */
+    public static ResponseBody file(final Path file, final int chunkSize) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("chunkSize must be greater than 0");
+        }
+        return new FileBody(file, 0, -1, chunkSize);
+    }
+
+    /**
+     * @param file the file to deliver - NOT NULL
+     * @param offset the position in the file the body starts at - NOT NEGATIVE
+     * @param length the length of the body - NOT NEGATIVE
+     *
+     * @return a body delivering the given region of the file memory-mapped in
+     *         chunks of CHUNK_SIZE bytes
+     *
+     * @throws IllegalArgumentException if file is null or offset or length are negative
+     */
+    public static ResponseBody file(final Path file, final long offset, final long length) {
+        if (file == null) {
+            throw new IllegalArgumentException("file can not be null");
+        }
+        if (offset < 0 || length < 0) {
+            throw new IllegalArgumentException("offset and length can not be negative");
+        }
+        return new FileBody(file, offset, length, CHUNK_SIZE);
+    }
+
+    /**
+     * Creates a body whose chunks are produced by a generator; each exchange
+     * gets a new iterator from the given supplier and the iterator is asked
+     * for the next chunk only when the subscriber requests it.
+     *
+     * @param length the length of the body in bytes or -1 if unknown
+     * @param generator the supplier of the chunk iterators - NOT NULL
+     *
+     * @return a body delivering the chunks produced by the generator
+     *
+     * @throws IllegalArgumentException if generator is null
+     */
+    public static ResponseBody generate(final long length, final Supplier<Iterator<ByteBuffer>> generator) {
+        if (generator == null) {
+            throw new IllegalArgumentException("generator can not be null");
+        }
+        return new GeneratedBody((length < 0) ? -1 : length, generator);
+    }
+
+    // -------------------------------------------------------- implementations
+
+    private static final class ByteArrayBody extends ResponseBody {
+        private final byte[] content;
+
+        ByteArrayBody(final byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public long length() {
+            return content.length;
+        }
+
+        @Override
+        public byte[] bytes() {
+            return content;
+        }
+
+        @Override
+        public Chunks open() {
+            return new Chunks() {
+                private boolean done = (content.length == 0);
+
+                @Override
+                public ByteBuffer next() {
+                    if (done) {
+                        return null;
+                    }
+                    done = true;
+                    return ByteBuffer.wrap(content).asReadOnlyBuffer();
+                }
+            };
+        }
+    }
+
+    private static final class FileBody extends ResponseBody {
+        /**
+         * Files are mapped in regions of at most this size
+         */
+        private static final long REGION_SIZE = 256L * 1024 * 1024;
+
+        private final Path file;
+        private final long offset;
+        private final long length;  // -1 up to the end of the file
+        private final int chunkSize;
+
+        FileBody(final Path file, final long offset, final long length, final int chunkSize) {
+            this.file = file; this.offset = offset; this.length = length; this.chunkSize = chunkSize;
+        }
+
+        @Override
+        public long length() {
+            return (length < 0) ? file.toFile().length() - offset : length;
+        }
+
+        @Override
+        public Chunks open() throws IOException {
+            final FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            final long size = (length < 0)
+                            ? channel.size()
+                            : Math.min(channel.size(), offset + length);
+
+            return new Chunks() {
+                private long position = offset;
+                private MappedByteBuffer region = null;
+
+                @Override
+                public ByteBuffer next() throws IOException {
+                    if ((region == null) || !region.hasRemaining()) {
+                        if (position >= size) {
+                            return null;
+                        }
+                        region = channel.map(
+                            FileChannel.MapMode.READ_ONLY, position, Math.min(REGION_SIZE, size - position)
+                        );
+                        position += region.capacity();
+                    }
+                    final int n = Math.min(chunkSize, region.remaining());
+                    final ByteBuffer chunk = region.slice(region.position(), n);
+                    region.position(region.position() + n);
+
+                    return chunk;
+                }
+
+                @Override
+                public void close() throws IOException {
+                    channel.close();
+                }
+            };
+        }
+    }
+
+    private static final class GeneratedBody extends ResponseBody {
+        private final long length;
+        private final Supplier<Iterator<ByteBuffer>> generator;
+
+        GeneratedBody(final long length, final Supplier<Iterator<ByteBuffer>> generator) {
+            this.length = length; this.generator = generator;
+        }
+
+        @Override
+        public long length() {
+            return length;
+        }
+
+        @Override
+        public Chunks open() {
+            final Iterator<ByteBuffer> i = generator.get();
+            return () -> i.hasNext() ? i.next() : null;
+        }
+    }
+}
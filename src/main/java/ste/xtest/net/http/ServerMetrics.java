@@ -0,0 +1,402 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.Filter;
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import ste.xtest.net.http.StubStatistics.Histogram;
+import ste.xtest.net.http.StubStatistics.HistogramSnapshot;
+
+/**
+ * In-process metrics of the requests served by a LocalFileServer: for each
+ * path and in total the number of requests, the number of response body
+ * bytes, the distribution of the status codes and histograms of the handler
+ * time (from the start of the handling to its end) and of the time to first
+ * byte (from the start of the handling to the response headers being sent).
+ *
+ * Counters are updated concurrently without locks; the metrics can be read
+ * with {@code snapshot()} or, if the server is built with
+ * {@code LocalFileServer.Builder.metrics()}, as JSON at {@value #PATH}:
+ *
+ * <pre>
+ * {
+ *   "requests": 2, "bytes": 1234, "status": { "200": 1, "404": 1 },
+ *   "handler": { "count": 2, "mean_us": 250, "p50_us": 120, "p90_us": 380, "p99_us": 380, "max_us": 380 },
+ *   "ttfb": { ... },
+ *   "paths": {
+ *     "/index.html": { "requests": 1, "bytes": 1225, "status": { "200": 1 }, "handler": { ... }, "ttfb": { ... } },
+ *     ...
+ *   }
+ * }
+ * </pre>
+ */
+public class ServerMetrics {
+
+    /**
+     * The path of the metrics endpoint
+     */
+    public static final String PATH = "/__xtest__/metrics";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Counters total = new Counters();
+    private final Map<String, Counters> paths = new ConcurrentHashMap<>();
+
+    /**
+     * Records a served request
+     *
+     * @param path the path of the request
+     * @param status the status code of the response
+     * @param bytes the number of body bytes sent
+     * @param handlerNanos the time the handler took
+     * @param ttfbNanos the time it took to send the response headers
+     */
+    void record(
+        final String path, final int status, final long bytes,
+        final long handlerNanos, final long ttfbNanos
+    ) {
+        total.record(status, bytes, handlerNanos, ttfbNanos);
+        paths.computeIfAbsent(path, k -> new Counters()).record(status, bytes, handlerNanos, ttfbNanos);
+    }
+
+    /**
+     * @return a filter that measures the requests going through it; it shall
+     *         be the last one of the chain so that only the handler is measured
+     */
+    Filter filter() {
+        return new Filter() {
+            @Override
+            public void doFilter(final HttpExchange exchange, final Chain chain) throws IOException {
+                final MeteredExchange metered = new MeteredExchange(exchange);
+                try {
+                    chain.doFilter(metered);
+                } finally {
+                    final long end = System.nanoTime();
+                    record(
+                        exchange.getRequestURI().getPath(), exchange.getResponseCode(), metered.bytes,
+                        end - metered.start, ((metered.headers == 0) ? end : metered.headers) - metered.start
+                    );
+                }
+            }
+
+            @Override
+            public String description() {
+                return "metrics";
+            }
+        };
+    }
+
+    /**
+     * @return a handler serving the current metrics as JSON
+     */
+    HttpHandler handler() {
+        return (exchange) -> {
+            try (exchange) {
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    exchange.sendResponseHeaders(405, -1);
+                    return;
+                }
+                final byte[] content = snapshot().toJSON().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.getResponseHeaders().set("Cache-Control", "no-store,max-age=0");
+                exchange.getResponseHeaders().set("Access-Control-Allow-Origin", "*");
+                exchange.sendResponseHeaders(200, content.length);
+                exchange.getResponseBody().write(content);
+            }
+        };
+    }
+
+    /**
+     * Clears all metrics, for example before each page load
+     */
+    public void reset() {
+        paths.clear(); total.reset();
+    }
+
+    /**
+     * @return a snapshot of the current metrics
+     */
+    public Snapshot snapshot() {
+        final SortedMap<String, Counts> p = new TreeMap<>();
+        paths.forEach((path, c) -> p.put(path, c.snapshot()));
+        return new Snapshot(total.snapshot(), Collections.unmodifiableSortedMap(p));
+    }
+
+    // --------------------------------------------------------------- Counters
+
+    private static final class Counters {
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final Map<Integer, LongAdder> status = new ConcurrentHashMap<>();
+        private volatile Histogram handler = new Histogram();
+        private volatile Histogram ttfb = new Histogram();
+
+        void record(final int status, final long bytes, final long handlerNanos, final long ttfbNanos) {
+            requests.increment();
+            this.bytes.add(bytes);
+            this.status.computeIfAbsent(status, k -> new LongAdder()).increment();
+            handler.record(handlerNanos);
+            ttfb.record(ttfbNanos);
+        }
+
+        void reset() {
+            requests.reset(); bytes.reset(); status.clear();
+            handler = new Histogram(); ttfb = new Histogram();
+        }
+
+        Counts snapshot() {
+            final SortedMap<Integer, Long> s = new TreeMap<>();
+            status.forEach((code, count) -> s.put(code, count.sum()));
+            return new Counts(
+                requests.sum(), bytes.sum(), Collections.unmodifiableSortedMap(s),
+                handler.snapshot(), ttfb.snapshot()
+            );
+        }
+    }
+
+    // ----------------------------------------------------------------- Counts
+
+    /**
+     * The metrics of a path or of all paths
+     */
+    public static final class Counts {
+        public final long requests;
+        public final long bytes;
+        public final SortedMap<Integer, Long> status;
+        public final HistogramSnapshot handler;
+        public final HistogramSnapshot ttfb;
+
+        Counts(
+            final long requests, final long bytes, final SortedMap<Integer, Long> status,
+            final HistogramSnapshot handler, final HistogramSnapshot ttfb
+        ) {
+            this.requests = requests; this.bytes = bytes; this.status = status;
+            this.handler = handler; this.ttfb = ttfb;
+        }
+
+        private void write(final JsonGenerator json) throws IOException {
+            json.writeNumberField("requests", requests);
+            json.writeNumberField("bytes", bytes);
+            json.writeObjectFieldStart("status");
+            for (Map.Entry<Integer, Long> e: status.entrySet()) {
+                json.writeNumberField(String.valueOf(e.getKey()), e.getValue());
+            }
+            json.writeEndObject();
+            write(json, "handler", handler);
+            write(json, "ttfb", ttfb);
+        }
+
+        private static void write(final JsonGenerator json, final String name, final HistogramSnapshot h)
+        throws IOException {
+            json.writeObjectFieldStart(name);
+            json.writeNumberField("count", h.count());
+            json.writeNumberField("mean_us", TimeUnit.NANOSECONDS.toMicros(h.mean().toNanos()));
+            json.writeNumberField("p50_us", TimeUnit.NANOSECONDS.toMicros(h.percentile(50).toNanos()));
+            json.writeNumberField("p90_us", TimeUnit.NANOSECONDS.toMicros(h.percentile(90).toNanos()));
+            json.writeNumberField("p99_us", TimeUnit.NANOSECONDS.toMicros(h.percentile(99).toNanos()));
+            json.writeNumberField("max_us", TimeUnit.NANOSECONDS.toMicros(h.max().toNanos()));
+            json.writeEndObject();
+        }
+    }
+
+    // --------------------------------------------------------------- Snapshot
+
+    /**
+     * The metrics of all paths at a given time
+     */
+    public static final class Snapshot {
+        public final Counts total;
+        public final SortedMap<String, Counts> paths;
+
+        Snapshot(final Counts total, final SortedMap<String, Counts> paths) {
+            this.total = total; this.paths = paths;
+        }
+
+        /**
+         * @return the metrics as a JSON object; durations are in microseconds
+         */
+        public String toJSON() {
+            final StringWriter w = new StringWriter();
+            try (JsonGenerator json = JSON.createGenerator(w)) {
+                json.writeStartObject();
+                total.write(json);
+                json.writeObjectFieldStart("paths");
+                for (Map.Entry<String, Counts> e: paths.entrySet()) {
+                    json.writeObjectFieldStart(e.getKey());
+                    e.getValue().write(json);
+                    json.writeEndObject();
+                }
+                json.writeEndObject();
+                json.writeEndObject();
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);  // not expected with a StringWriter
+            }
+            return w.toString();
+        }
+
+        @Override
+        public String toString() {
+            return toJSON();
+        }
+    }
+
+    // -------------------------------------------------------- MeteredExchange
+
+    /**
+     * Delegates to the server's exchange, taking note of when the response
+     * headers are sent and counting the body bytes
+     */
+    private static final class MeteredExchange extends HttpExchange {
+        private final HttpExchange exchange;
+        private final long start = System.nanoTime();
+        private long headers = 0;
+        private long bytes = 0;
+        private OutputStream body = null, counted = null;
+
+        MeteredExchange(final HttpExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void sendResponseHeaders(final int code, final long length) throws IOException {
+            exchange.sendResponseHeaders(code, length);
+            headers = System.nanoTime();
+        }
+
+        @Override
+        public synchronized OutputStream getResponseBody() {
+            final OutputStream os = exchange.getResponseBody();
+            if (os != body) {
+                body = os;
+                counted = new FilterOutputStream(os) {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        out.write(b); bytes += 1;
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len) throws IOException {
+                        out.write(b, off, len); bytes += len;
+                    }
+                };
+            }
+            return counted;
+        }
+
+        @Override
+        public Headers getRequestHeaders() {
+            return exchange.getRequestHeaders();
+        }
+
+        @Override
+        public Headers getResponseHeaders() {
+            return exchange.getResponseHeaders();
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return exchange.getRequestURI();
+        }
+
+        @Override
+        public String getRequestMethod() {
+            return exchange.getRequestMethod();
+        }
+
+        @Override
+        public HttpContext getHttpContext() {
+            return exchange.getHttpContext();
+        }
+
+        @Override
+        public void close() {
+            exchange.close();
+        }
+
+        @Override
+        public InputStream getRequestBody() {
+            return exchange.getRequestBody();
+        }
+
+        @Override
+        public InetSocketAddress getRemoteAddress() {
+            return exchange.getRemoteAddress();
+        }
+
+        @Override
+        public int getResponseCode() {
+            return exchange.getResponseCode();
+        }
+
+        @Override
+        public InetSocketAddress getLocalAddress() {
+            return exchange.getLocalAddress();
+        }
+
+        @Override
+        public String getProtocol() {
+            return exchange.getProtocol();
+        }
+
+        @Override
+        public Object getAttribute(final String name) {
+            return exchange.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(final String name, final Object value) {
+            exchange.setAttribute(name, value);
+        }
+
+        @Override
+        public void setStreams(final InputStream i, final OutputStream o) {
+            exchange.setStreams(i, o);
+        }
+
+        @Override
+        public HttpPrincipal getPrincipal() {
+            return exchange.getPrincipal();
+        }
+    }
+}
@@ -23,8 +23,10 @@
 package ste.xtest.net.http;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
 import java.net.Authenticator;
 import java.net.CookieHandler;
 import java.net.ProxySelector;
@@ -36,6 +38,7 @@ import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodySubscriber;
 import java.net.http.HttpResponse.ResponseInfo;
+import java.net.http.HttpTimeoutException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.time.Duration;
@@ -44,9 +47,14 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.PrimitiveIterator;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Flow.Subscription;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLParameters;
@@ -125,6 +133,12 @@ public class StubHttpClient extends HttpClient {
 
     public final Logger LOG = Logger.getLogger(StubHttpClient.class.getCanonicalName());
 
+    /**
+     * Executor used by sendAsync() when the stubber has none: each exchange
+     * runs in a new virtual thread
+     */
+    private static final Executor DEFAULT_EXECUTOR = (task) -> Thread.ofVirtual().start(task);
+
     private final HttpClientStubber builder;
 
     protected StubHttpClient(final HttpClientStubber builder) {
@@ -178,28 +192,56 @@ public class StubHttpClient extends HttpClient {
 
     @Override
     public <T> HttpResponse<T> send(HttpRequest request, BodyHandler<T> responseBodyHandler) throws IOException, InterruptedException {
-        final String prettyStubs = toString();
-        final String prettyRequest = toString(request);
-
-        LOG.info(() -> "Given " + prettyStubs);
-        LOG.info(() -> "Given " + prettyRequest);
+        //
+        // The request body is read at most once and shared by all matchers
+        //
+        final BufferedHttpRequest buffered = new BufferedHttpRequest(request);
 
-        int i = 0;
-        for (ImmutablePair<RequestMatcher, StubHttpResponse> stub: builder.stubs()) {
-            final int ii = i++;
-            LOG.info(() -> "Trying to match stub #" + ii);
+        //
+        // Match attempts are recorded in the stubber events; the human
+        // readable dump of stubs and request is rendered only if no stub
+        // matches (or on demand)
+        //
+        final MatchEvents events = builder.events();
 
-            if (!stub.left.match(request)) {
-                LOG.info(() -> "This is NOT a match");
+        //
+        // Only the stubs that may match the request are tried, in the order
+        // they were registered so that the first registered stub wins
+        //
+        final StubIndex index = builder.index();
+        final PrimitiveIterator.OfInt candidates = index.candidates(buffered);
+        while (candidates.hasNext()) {
+            final int i = candidates.nextInt();
+            final ImmutablePair<RequestMatcher, StubHttpResponse> stub = index.stub(i);
+            LOG.fine(() -> "Trying to match stub #" + i);
+
+            if (!index.matcher(i).match(buffered)) {
+                events.tried(request, i, false);
+                LOG.fine(() -> "This is NOT a match");
                 continue;
             }
 
-            LOG.info(() -> "This is a match");
+            events.tried(request, i, true);
+            LOG.fine(() -> "This is a match");
+            final StubStatistics.Counters counters = builder.statistics().hit(stub);
 
             //
             // Here we have a match!
             //
 
+            //
+            // Simulate the time the server takes to respond and the network
+            // takes to deliver the first byte
+            //
+            final NetworkProfile network = (stub.right.network() != null)
+                                         ? stub.right.network()
+                                         : builder.network();
+            Duration latency = stub.right.latency().next();
+            if (network != null) {
+                latency = latency.plus(network.firstByte());
+            }
+            delay(request, latency);
+
             //
             // Do we need to simulate a network error?
             //
@@ -208,22 +250,43 @@ public class StubHttpClient extends HttpClient {
             }
 
             //
-            // If we are here we can process the content
+            // If we are here we can process the content. Each exchange gets
+            // its own response so that concurrent requests served by the same
+            // stub do not overwrite each other's body
             //
-            StubHttpResponse<T> response = stub.right;
+            final StubHttpResponse<T> response = stub.right.exchange(request);
             BodySubscriber<T> bodySubscriber = responseBodyHandler.apply(response);
-            bodySubscriber.onSubscribe(new Subscription() {
-                @Override
-                public void request(long n) {
-                    bodySubscriber.onNext(List.of(ByteBuffer.wrap(response.content)));
-                    bodySubscriber.onComplete();
-                }
+            final ResponseBody.Chunks chunks = response.responseBody().open();
+            //
+            // A throttled body is delivered on the client executor, as a
+            // network would do, so that the subscriber's request() does not
+            // block the caller of send()
+            //
+            final Executor delivery = (network == null) ? null : executor().orElse(DEFAULT_EXECUTOR);
+            bodySubscriber.onSubscribe(new ContentSubscription(
+                bodySubscriber, (network == null) ? chunks : network.apply(chunks), counters, delivery
+            ));
 
-                @Override
-                public void cancel() {}
-            });
+            final CompletableFuture<T> body = bodySubscriber.getBody().toCompletableFuture();
+            body.whenComplete((b, error) -> response.body(b));
 
-            bodySubscriber.getBody().whenComplete((body, error) -> response.body(body));
+            //
+            // If the body could not be delivered (e.g. the connection was
+            // dropped) while in send(), the caller gets the error; when
+            // delivered asynchronously, send() returns once the body handler
+            // has the body, as HttpClient does (e.g. right away for a stream,
+            // at the end of the content for a string)
+            //
+            if ((delivery != null) || body.isCompletedExceptionally()) {
+                try {
+                    body.get();
+                } catch (ExecutionException x) {
+                    if (x.getCause() instanceof IOException) {
+                        throw (IOException)x.getCause();
+                    }
+                    throw new IOException(x.getCause());
+                }
+            }
 
             return response;
         }
@@ -232,6 +295,14 @@ public class StubHttpClient extends HttpClient {
         // No stub found for the given request, let's log it and tell it with
         // an IOException
         //
+        events.unmatched(request);
+        builder.statistics().unmatched();
+
+        final String prettyStubs = toString();
+        final String prettyRequest = toString(buffered);
+
+        LOG.info(() -> "Given " + prettyStubs);
+        LOG.info(() -> "Given " + prettyRequest);
         LOG.info(() -> "No match found");
 
         final StringWriter w = new StringWriter();
@@ -243,25 +314,36 @@ public class StubHttpClient extends HttpClient {
     }
 
     /**
-     * Simulate the semantic of HttpClient.sendAsync() although it does not
-     * perform real async computation. It fundamentally returns a completed
-     * CompletableFuture with the result of calling {@code send(request, responseBodyHandler}.
-     * If send() throws an exception the return future will be in failed status.
+     * Performs {@code send(request, responseBodyHandler)} asynchronously on
+     * the executor given to the stubber or, if none was given, on a new
+     * virtual thread. If send() throws an exception the returned future
+     * completes exceptionally with that exception.
      *
      * @param request the request
      * @param responseBodyHandler the handler for the response data
      *
-     * @return a completed CompletableFuture with the result of calling
+     * @return a CompletableFuture that completes with the result of calling
      *         {@code send(request, responseBodyHandler}.
      *
      */
     @Override
     public <T> CompletableFuture<HttpResponse<T>> sendAsync(HttpRequest request, HttpResponse.BodyHandler<T> responseBodyHandler) {
+        final CompletableFuture<HttpResponse<T>> future = new CompletableFuture<>();
+        final Executor executor = executor().orElse(DEFAULT_EXECUTOR);
+
         try {
-            return CompletableFuture.completedFuture(send(request, responseBodyHandler));
-        } catch (Exception x) {
-            return CompletableFuture.failedFuture(x);
+            executor.execute(() -> {
+                try {
+                    future.complete(send(request, responseBodyHandler));
+                } catch (Throwable x) {
+                    future.completeExceptionally(x);
+                }
+            });
+        } catch (RejectedExecutionException x) {
+            future.completeExceptionally(x);
         }
+
+        return future;
     }
 
     @Override
@@ -269,6 +351,28 @@ public class StubHttpClient extends HttpClient {
         throw new UnsupportedOperationException("Not supported yet.");
     }
 
+    /**
+     * Waits for the given latency, simulating a timeout if the request has a
+     * timeout shorter than the latency.
+     *
+     * @param request the request being served
+     * @param latency the time the server takes to respond
+     *
+     * @throws HttpTimeoutException if the latency exceeds the request timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void delay(final HttpRequest request, final Duration latency)
+    throws HttpTimeoutException, InterruptedException {
+        final Optional<Duration> timeout = request.timeout();
+        if (timeout.isPresent() && (latency.compareTo(timeout.get()) > 0)) {
+            Thread.sleep(timeout.get());
+            throw new HttpTimeoutException("request timed out");
+        }
+        if (!latency.isZero()) {
+            Thread.sleep(latency);
+        }
+    }
+
     public String toString(HttpRequest request) {
         final StringWriter writer = new StringWriter();
 
@@ -279,41 +383,11 @@ public class StubHttpClient extends HttpClient {
         });
         writer.append("--- Body ---\n");
 
-        java.util.Optional<HttpRequest.BodyPublisher> bodyPublisher = request.bodyPublisher();
-        if (bodyPublisher.isPresent()) {
-            java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
-            bodyPublisher.get().subscribe(new java.util.concurrent.Flow.Subscriber<java.nio.ByteBuffer>() {
-                private java.util.concurrent.Flow.Subscription subscription;
-
-                @Override
-                public void onSubscribe(java.util.concurrent.Flow.Subscription subscription) {
-                    this.subscription = subscription;
-                    subscription.request(Long.MAX_VALUE);
-                }
-
-                @Override
-                public void onNext(java.nio.ByteBuffer item) {
-                    byte[] bytes = new byte[item.remaining()];
-                    item.get(bytes);
-                    writer.write(new String(bytes));
-                }
-
-                @Override
-                public void onError(Throwable throwable) {
-                    writer.write("Error reading body: " + throwable.getMessage());
-                    latch.countDown();
-                }
-
-                @Override
-                public void onComplete() {
-                    latch.countDown();
-                }
-            });
-            try {
-                latch.await();
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-            }
+        final RequestBody body = RequestBody.of(request);
+        if (body.error().isPresent()) {
+            writer.write("Error reading body: " + body.error().get().getMessage());
+        } else {
+            writer.write(body.text());
         }
 
         return writer.toString();
@@ -330,13 +404,123 @@ public class StubHttpClient extends HttpClient {
         return w.toString();
     }
 
+    // ----------------------------------------------------- ContentSubscription
+
+    /**
+     * Delivers the content of a response to a body subscriber one chunk per
+     * requested item, honouring the subscriber demand; chunks are read from
+     * the content only when requested. When the subscription ends the bytes
+     * delivered and the time the subscriber took to consume them are
+     * recorded in the stub statistics.
+     */
+    private static final class ContentSubscription implements Subscription {
+        private final BodySubscriber<?> subscriber;
+        private final ResponseBody.Chunks chunks;
+        private final StubStatistics.Counters counters;
+        private final Executor executor;
+        private final long start = System.nanoTime();
+        private long bytes = 0;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done = false;
+        private boolean closed = false;
+
+        ContentSubscription(
+            final BodySubscriber<?> subscriber,
+            final ResponseBody.Chunks chunks,
+            final StubStatistics.Counters counters,
+            final Executor executor
+        ) {
+            this.subscriber = subscriber;
+            this.chunks = chunks;
+            this.counters = counters;
+            this.executor = executor;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                done = true; drain();
+                subscriber.onError(new IllegalArgumentException("non-positive request: " + n));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> (a + b < 0) ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            done = true; drain();
+        }
+
+        /**
+         * Emits chunks while there is demand; only one thread at a time
+         * drains and reentrant calls from onNext() are folded in the loop.
+         * If an executor is given, the loop runs there instead of in the
+         * calling thread.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            if (executor == null) {
+                emit();
+                return;
+            }
+            try {
+                executor.execute(this::emit);
+            } catch (RejectedExecutionException x) {
+                done = true; close();
+                subscriber.onError(x);
+            }
+        }
+
+        private void emit() {
+            do {
+                while (!done && (demand.get() > 0)) {
+                    final ByteBuffer chunk;
+                    try {
+                        chunk = chunks.next();
+                    } catch (IOException x) {
+                        done = true; close();
+                        subscriber.onError(x);
+                        break;
+                    }
+                    if (chunk == null) {
+                        done = true; close();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    demand.decrementAndGet();
+                    bytes += chunk.remaining();
+                    subscriber.onNext(List.of(chunk));
+                }
+                if (done) {
+                    close();
+                }
+            } while (wip.decrementAndGet() != 0);
+        }
+
+        private void close() {
+            if (!closed) {
+                closed = true;
+                counters.served(bytes, System.nanoTime() - start);
+                try {
+                    chunks.close();
+                } catch (IOException x) {
+                    // nothing to do
+                }
+            }
+        }
+    }
+
     // ------------------------------------------------------------ HttpResponse
 
     /**
-     * Note the difference between body (of type T) and content (a byte[]). The
-     * former represents the body created by the body handler when a request is
-     * done (e.g. @{code httpClient.send(uri, bodyHandler);}); the latter is the
-     * stubbed raw content a web server would return.
+     * Note the difference between body (of type T) and content (a ResponseBody).
+     * The former represents the body created by the body handler when a request
+     * is done (e.g. @{code httpClient.send(uri, bodyHandler);}); the latter is
+     * the stubbed raw content a web server would return.
      *
      * @param <T> the type of the body of a response
      */
@@ -347,7 +531,10 @@ public class StubHttpClient extends HttpClient {
         private T body;
         private Class<T> returnType;
         private HttpClient.Version version = HttpClient.Version.HTTP_2;
-        private byte[] content = new byte[0];
+        private ResponseBody content = ResponseBody.of(new byte[0]);
+        private HttpRequest request = null;
+        private LatencyModel latency = LatencyModel.NONE;
+        private NetworkProfile network = null;
 
         public StubHttpResponse() {
             this((Class<T>)String.class);
@@ -358,6 +545,40 @@ public class StubHttpClient extends HttpClient {
             text("");
         }
 
+        /**
+         * Creates a copy of the given stubbed response to be returned for a
+         * given request. The stubbed content is shared, not copied.
+         *
+         * @param stub the stubbed response
+         * @param request the request this response is for
+         */
+        protected StubHttpResponse(final StubHttpResponse<T> stub, final HttpRequest request) {
+            this.statusCode = stub.statusCode;
+            this.headers = new HashMap<>(stub.headers);
+            this.returnType = stub.returnType;
+            this.version = stub.version;
+            this.content = stub.content;
+            this.latency = stub.latency;
+            this.network = stub.network;
+            this.request = request;
+        }
+
+        /**
+         * Returns a new response for the given request based on this stubbed
+         * response. This is called for each request served by this stub, so
+         * that concurrent exchanges do not share state. Subclasses that add
+         * state or behaviour must override it to return an instance of their
+         * own type (typically via {@link #StubHttpResponse(StubHttpResponse, HttpRequest)}),
+         * otherwise the client serves a plain {@code StubHttpResponse}.
+         *
+         * @param request the request the response is for
+         *
+         * @return a new response for the given request
+         */
+        protected StubHttpResponse<T> exchange(final HttpRequest request) {
+            return new StubHttpResponse<>(this, request);
+        }
+
         // ---------------------------------------------- HttpResponse, HttpInfo
 
         @Override
@@ -371,7 +592,7 @@ public class StubHttpClient extends HttpClient {
 
         @Override
         public HttpRequest request() {
-            return null;
+            return request;
         }
 
         @Override
@@ -404,22 +625,57 @@ public class StubHttpClient extends HttpClient {
         }
 
         /**
-         * The stubbed raw data the web server is supposed to return
+         * The stubbed raw data the web server is supposed to return. Note that
+         * streamed content (see {@code content(ResponseBody)}) is read fully
+         * in memory.
          *
          * @return the stubbed raw data the web server is supposed to return
          */
         public byte[] content() {
-            return content;
+            try {
+                return content.bytes();
+            } catch (IOException x) {
+                throw new UncheckedIOException(x);
+            }
         }
 
         public StubHttpResponse content(final byte[] content) {
-            this.content = (content == null) ? new byte[0] : content;
+            return content(ResponseBody.of((content == null) ? new byte[0] : content));
+        }
+
+        /**
+         * Sets the raw data the web server is supposed to return as a
+         * ResponseBody, which can stream large content (e.g. from a file or a
+         * generator) to the body subscriber in chunks, as requested.
+         *
+         * @param content the content of the response - NOT NULL
+         *
+         * @return this instance
+         *
+         * @throws IllegalArgumentException if content is null
+         */
+        public StubHttpResponse content(final ResponseBody content) {
+            if (content == null) {
+                throw new IllegalArgumentException("content can not be null");
+            }
+            this.content = content;
             headers.put("Content-type", headerValue("application/octet-stream"));
-            headers.put("Content-length", headerValue(this.content.length));
+            if (content.length() < 0) {
+                headers.remove("Content-length");
+            } else {
+                headers.put("Content-length", headerValue(content.length()));
+            }
 
             return this;
         }
 
+        /**
+         * @return the stubbed raw data as a ResponseBody
+         */
+        public ResponseBody responseBody() {
+            return content;
+        }
+
         public StubHttpResponse text(String body) {
             stringContent(body, "text/plain"); return this;
         }
@@ -438,7 +694,7 @@ public class StubHttpClient extends HttpClient {
             }
             File f = new File(content);
 
-            this.content = FileUtils.readFileToByteArray(new File(content));
+            this.content = ResponseBody.of(FileUtils.readFileToByteArray(new File(content)));
 
             headers.put("Content-type", headerValue(Files.probeContentType(f.toPath())));
             headers.put("Content-length", headerValue(f.length()));
@@ -446,6 +702,30 @@ public class StubHttpClient extends HttpClient {
             return this;
         }
 
+        /**
+         * Like {@code file()} but the file is not loaded in memory: it is
+         * memory-mapped and streamed in chunks as requested by the body
+         * subscriber, so that very large files can be stubbed.
+         *
+         * @param file the file to stream - NOT NULL
+         *
+         * @return this instance
+         *
+         * @throws FileNotFoundException if the file does not exist
+         * @throws IOException if the content type of the file can not be probed
+         */
+        public StubHttpResponse streamFile(String file) throws IOException {
+            final File f = new File(file);
+            if (!f.isFile()) {
+                throw new FileNotFoundException(file);
+            }
+
+            content(ResponseBody.file(f.toPath()));
+            headers.put("Content-type", headerValue(Files.probeContentType(f.toPath())));
+
+            return this;
+        }
+
         public StubHttpResponse header(final String key, final String value) {
             if (value == null) {
                 headers.remove(key);
@@ -481,7 +761,7 @@ public class StubHttpClient extends HttpClient {
 
         @Override
         public URI uri() {
-            return null;
+            return (request == null) ? null : request.uri();
         }
 
         @Override
@@ -493,6 +773,49 @@ public class StubHttpClient extends HttpClient {
             this.version = version; return this;
         }
 
+        /**
+         * The model of the time the server takes to respond
+         *
+         * @return the latency model of this response
+         */
+        public LatencyModel latency() {
+            return latency;
+        }
+
+        /**
+         * Sets the model of the time the server takes to respond; each
+         * exchange is delayed by a latency sampled from the model.
+         *
+         * @param latency the latency model; null means no latency
+         *
+         * @return this instance
+         */
+        public StubHttpResponse latency(final LatencyModel latency) {
+            this.latency = (latency == null) ? LatencyModel.NONE : latency; return this;
+        }
+
+        /**
+         * The conditions of the network this response is delivered through
+         *
+         * @return the network profile of this response or null if the one of
+         *         the stubber applies
+         */
+        public NetworkProfile network() {
+            return network;
+        }
+
+        /**
+         * Sets the conditions of the network this response is delivered
+         * through; it takes precedence over the profile of the stubber.
+         *
+         * @param network the network profile; null means the one of the stubber
+         *
+         * @return this instance
+         */
+        public StubHttpResponse network(final NetworkProfile network) {
+            this.network = network; return this;
+        }
+
         public List<String> headerValue(Object... values) {
             List<String> ret = new ArrayList<>();
 
@@ -506,9 +829,10 @@ public class StubHttpClient extends HttpClient {
         // ----------------------------------------------------- private methods
 
         private void stringContent(final String content, final String type) {
-            this.content = (content == null) ? new byte[0] : content.getBytes();
+            final byte[] bytes = (content == null) ? new byte[0] : content.getBytes();
+            this.content = ResponseBody.of(bytes);
             headers.put("Content-type", headerValue(type));
-            headers.put("Content-length", headerValue(this.content.length));
+            headers.put("Content-length", headerValue(bytes.length));
         }
     }
 
@@ -0,0 +1,236 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ * Routing index over the stubs of a {@link HttpClientStubber}. Stubs whose
+ * matcher is (or is an {@link ANDMatcher} containing) a {@link URIMatcher} are
+ * indexed by URI in a hash map; stubs matched by a {@link URIPrefixMatcher} are
+ * indexed in a character trie. Any other stub can not be indexed and is kept
+ * in a fallback list that is always scanned.
+ *
+ * Given a request, {@code candidates()} returns the positions of the stubs that
+ * may match it in registration order, so that the caller can preserve the
+ * first-registered-wins semantic by trying them in sequence. Note that indexed
+ * candidates still need to be checked with {@code RequestMatcher.match()} as
+ * composite matchers may fail on other conditions.
+ *
+ * The matcher of each stub is also compiled in a {@link MatcherChain} whose
+ * cheapest conditions are checked first; the URI condition a stub is indexed
+ * by is left out of the chain, as any request routed to the stub satisfies it
+ * already. {@code matcher()} returns the compiled matcher of a stub.
+ *
+ * An index must be built from an immutable snapshot of the stubs, which it
+ * keeps without copying.
+ */
+final class StubIndex {
+
+    private final List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs;
+    private final Map<URI, List<Integer>> exact = new HashMap<>();
+    private final Node prefixes = new Node();
+    private final int[] fallback;
+    private final RequestMatcher[] matchers;
+
+    StubIndex(final List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs) {
+        this.stubs = stubs;
+
+        matchers = new RequestMatcher[stubs.size()];
+
+        final List<Integer> others = new ArrayList<>();
+        for (int i = 0; i < this.stubs.size(); ++i) {
+            final RequestMatcher matcher = this.stubs.get(i).left;
+
+            final URIMatcher uri = find(matcher, URIMatcher.class);
+            if (uri != null) {
+                exact.computeIfAbsent(uri.uri, k -> new ArrayList<>()).add(i);
+                matchers[i] = MatcherChain.compile(matcher, uri);
+                continue;
+            }
+            final URIPrefixMatcher prefix = find(matcher, URIPrefixMatcher.class);
+            if (prefix != null) {
+                prefixes.add(prefix.prefix, i);
+                matchers[i] = MatcherChain.compile(matcher, prefix);
+                continue;
+            }
+            others.add(i);
+            matchers[i] = MatcherChain.compile(matcher, null);
+        }
+
+        fallback = others.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * @return the stubs this index was built from
+     */
+    List<ImmutablePair<RequestMatcher, StubHttpResponse>> stubs() {
+        return stubs;
+    }
+
+    /**
+     * @param i the position of the stub in registration order
+     *
+     * @return the stub at the given position
+     */
+    ImmutablePair<RequestMatcher, StubHttpResponse> stub(int i) {
+        return stubs.get(i);
+    }
+
+    /**
+     * @param i the position of the stub in registration order
+     *
+     * @return the compiled matcher of the stub at the given position; it is
+     *         meant to be used only on requests routed to the stub by
+     *         {@code candidates()}
+     */
+    RequestMatcher matcher(int i) {
+        return matchers[i];
+    }
+
+    /**
+     * Returns the positions of the stubs that may match the given request, in
+     * registration order.
+     *
+     * @param request the request to route - NOT NULL
+     *
+     * @return the positions of the candidate stubs in ascending order
+     */
+    PrimitiveIterator.OfInt candidates(final HttpRequest request) {
+        final List<Integer> indexed = new ArrayList<>();
+
+        final List<Integer> bucket = exact.get(request.uri());
+        if (bucket != null) {
+            indexed.addAll(bucket);
+        }
+        prefixes.collect(request.uri().toString(), indexed);
+        if (indexed.size() > 1) {
+            //
+            // the exact bucket and each trie node are in registration order,
+            // but overlapping prefixes are collected shortest first
+            //
+            Collections.sort(indexed);
+        }
+
+        return new Merge(indexed, fallback);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * Looks for a matcher of the given type either as the matcher itself or
+     * among the conditions of an {@code ANDMatcher} (recursively); a request
+     * can match the matcher only if it matches the returned one too.
+     */
+    private static <M extends RequestMatcher> M find(final RequestMatcher matcher, final Class<M> type) {
+        if (matcher.getClass() == type) {
+            return type.cast(matcher);
+        }
+        if (matcher.getClass() == ANDMatcher.class) {
+            for (RequestMatcher m: ((ANDMatcher)matcher).matchers()) {
+                final M found = find(m, type);
+                if (found != null) {
+                    return found;
+                }
+            }
+        }
+        return null;
+    }
+
+    // --------------------------------------------------------------- Node
+
+    private static final class Node {
+        private Map<Character, Node> children = null;
+        private List<Integer> stubs = null;
+
+        void add(final String prefix, final int stub) {
+            Node node = this;
+            for (int i = 0; i < prefix.length(); ++i) {
+                if (node.children == null) {
+                    node.children = new HashMap<>();
+                }
+                node = node.children.computeIfAbsent(prefix.charAt(i), c -> new Node());
+            }
+            if (node.stubs == null) {
+                node.stubs = new ArrayList<>();
+            }
+            node.stubs.add(stub);
+        }
+
+        void collect(final String uri, final List<Integer> found) {
+            Node node = this;
+            for (int i = 0; node != null; ++i) {
+                if (node.stubs != null) {
+                    found.addAll(node.stubs);
+                }
+                if (i == uri.length() || node.children == null) {
+                    break;
+                }
+                node = node.children.get(uri.charAt(i));
+            }
+        }
+    }
+
+    // --------------------------------------------------------------- Merge
+
+    /**
+     * Merges two ascending sequences of stub positions.
+     */
+    private static final class Merge implements PrimitiveIterator.OfInt {
+        private final List<Integer> a;
+        private final int[] b;
+        private int ia = 0, ib = 0;
+
+        Merge(final List<Integer> a, final int[] b) {
+            this.a = a; this.b = b;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return (ia < a.size()) || (ib < b.length);
+        }
+
+        @Override
+        public int nextInt() {
+            if (ia < a.size()) {
+                if ((ib < b.length) && (b[ib] < a.get(ia))) {
+                    return b[ib++];
+                }
+                return a.get(ia++);
+            }
+            if (ib < b.length) {
+                return b[ib++];
+            }
+            throw new NoSuchElementException();
+        }
+    }
+}
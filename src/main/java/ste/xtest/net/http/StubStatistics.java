@@ -0,0 +1,317 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.StringWriter;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ * Low overhead statistics of the exchanges served by the stubs of a
+ * HttpClientStubber: for each stub the number of hits, the number of body
+ * bytes served and a histogram of the time the body handlers took to consume
+ * the body (from the subscription to the completion of the body); requests
+ * that did not match any stub are counted too.
+ *
+ * Counters are updated concurrently without locks; {@code snapshot()} returns
+ * a consistent enough view for reporting, while {@code reset()} clears all
+ * counters, for example between the warm up and the measured phase of a load
+ * test:
+ *
+ * <pre>
+ *   stubber.statistics().reset();
+ *   ... run the load ...
+ *   System.out.println(stubber.statistics().snapshot());
+ * </pre>
+ */
+public class StubStatistics {
+
+    private final Map<ImmutablePair<RequestMatcher, StubHttpResponse>, Counters> counters = new ConcurrentHashMap<>();
+    private final LongAdder unmatched = new LongAdder();
+
+    /**
+     * Records a hit of the given stub
+     *
+     * @param stub the stub that served a request
+     *
+     * @return the counters of the stub, to record the served content
+     */
+    Counters hit(final ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+        final Counters c = counters.computeIfAbsent(stub, k -> new Counters());
+        c.hits.increment();
+        return c;
+    }
+
+    /**
+     * Records a request that did not match any stub
+     */
+    void unmatched() {
+        unmatched.increment();
+    }
+
+    /**
+     * Clears all counters
+     */
+    public void reset() {
+        counters.clear(); unmatched.reset();
+    }
+
+    /**
+     * @return a snapshot of the current statistics of the stubs that were hit
+     *         and of the requests that did not match any stub
+     */
+    public Snapshot snapshot() {
+        final List<StubSnapshot> stubs = new ArrayList<>();
+        counters.forEach((stub, c) -> stubs.add(new StubSnapshot(
+            stub, c.hits.sum(), c.bytes.sum(), c.consume.snapshot()
+        )));
+        return new Snapshot(Collections.unmodifiableList(stubs), unmatched.sum());
+    }
+
+    // --------------------------------------------------------------- Counters
+
+    /**
+     * The counters of a stub
+     */
+    static final class Counters {
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final Histogram consume = new Histogram();
+
+        /**
+         * Records the delivery of a body
+         *
+         * @param bytes the number of bytes delivered
+         * @param nanos the time the body handler took to consume the body
+         */
+        void served(final long bytes, final long nanos) {
+            this.bytes.add(bytes); consume.record(nanos);
+        }
+    }
+
+    // -------------------------------------------------------------- Histogram
+
+    /**
+     * A log-linear histogram in the style of HdrHistogram: values are
+     * bucketed with about 3% precision in a fixed array of counters, so that
+     * recording a value is a lock free increment.
+     */
+    static final class Histogram {
+        private static final int SUB_BITS = 5;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int MAX_SHIFT = 63 - SUB_BITS;
+
+        private volatile AtomicLongArray counts = null;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+
+        void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            AtomicLongArray c = counts;
+            if (c == null) {
+                synchronized (this) {
+                    if ((c = counts) == null) {
+                        counts = c = new AtomicLongArray(2*SUB + MAX_SHIFT*SUB);
+                    }
+                }
+            }
+            c.incrementAndGet(index(value));
+            count.increment(); sum.add(value);
+        }
+
+        HistogramSnapshot snapshot() {
+            final AtomicLongArray c = counts;
+            final long[] values = new long[(c == null) ? 0 : c.length()];
+            for (int i = 0; i < values.length; ++i) {
+                values[i] = c.get(i);
+            }
+            return new HistogramSnapshot(values, count.sum(), sum.sum());
+        }
+
+        static int index(final long value) {
+            if (value < 2*SUB) {
+                return (int)value;
+            }
+            final int shift = (63 - Long.numberOfLeadingZeros(value)) - SUB_BITS;
+            return 2*SUB + (shift - 1)*SUB + (int)((value >>> shift) - SUB);
+        }
+
+        /**
+         * @return the highest value that falls in the bucket of the given index
+         */
+        static long highest(final int index) {
+            if (index < 2*SUB) {
+                return index;
+            }
+            final int shift = (index - 2*SUB) / SUB + 1;
+            final long mantissa = (index - 2*SUB) % SUB + SUB;
+            return ((mantissa + 1) << shift) - 1;
+        }
+    }
+
+    // ------------------------------------------------------- HistogramSnapshot
+
+    /**
+     * An immutable view of a histogram of durations
+     */
+    public static final class HistogramSnapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+
+        HistogramSnapshot(final long[] counts, final long count, final long sum) {
+            this.counts = counts; this.count = count; this.sum = sum;
+        }
+
+        /**
+         * @return the number of recorded values
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @return the mean of the recorded values
+         */
+        public Duration mean() {
+            return Duration.ofNanos((count == 0) ? 0 : sum / count);
+        }
+
+        /**
+         * @return the maximum recorded value (within the histogram precision)
+         */
+        public Duration max() {
+            for (int i = counts.length - 1; i >= 0; --i) {
+                if (counts[i] > 0) {
+                    return Duration.ofNanos(Histogram.highest(i));
+                }
+            }
+            return Duration.ZERO;
+        }
+
+        /**
+         * @param percentile the percentile in [0, 100]
+         *
+         * @return the value below which the given percentage of the recorded
+         *         values fall (within the histogram precision)
+         *
+         * @throws IllegalArgumentException if percentile is out of range
+         */
+        public Duration percentile(final double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in the range [0, 100]");
+            }
+            if (count == 0) {
+                return Duration.ZERO;
+            }
+            final long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; ++i) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Duration.ofNanos(Histogram.highest(i));
+                }
+            }
+            return max();
+        }
+    }
+
+    // ----------------------------------------------------------- StubSnapshot
+
+    /**
+     * The statistics of a single stub
+     */
+    public static final class StubSnapshot {
+        public final ImmutablePair<RequestMatcher, StubHttpResponse> stub;
+        public final long hits;
+        public final long bytes;
+        public final HistogramSnapshot consume;
+
+        StubSnapshot(
+            final ImmutablePair<RequestMatcher, StubHttpResponse> stub,
+            final long hits, final long bytes, final HistogramSnapshot consume
+        ) {
+            this.stub = stub; this.hits = hits; this.bytes = bytes; this.consume = consume;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                "%d hits, %d bytes, consume time mean %s p50 %s p99 %s max %s %s",
+                hits, bytes, consume.mean(), consume.percentile(50),
+                consume.percentile(99), consume.max(), stub.left
+            ).replaceAll("\\n", " ");
+        }
+    }
+
+    // --------------------------------------------------------------- Snapshot
+
+    /**
+     * The statistics of all stubs at a given time
+     */
+    public static final class Snapshot {
+        public final List<StubSnapshot> stubs;
+        public final long unmatched;
+
+        Snapshot(final List<StubSnapshot> stubs, final long unmatched) {
+            this.stubs = stubs; this.unmatched = unmatched;
+        }
+
+        /**
+         * @param stub the stub - NOT NULL
+         *
+         * @return the statistics of the given stub or null if it was never hit
+         */
+        public StubSnapshot of(final ImmutablePair<RequestMatcher, StubHttpResponse> stub) {
+            for (StubSnapshot s: stubs) {
+                if (s.stub.equals(stub)) {
+                    return s;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @return a human readable report, one line per stub
+         */
+        @Override
+        public String toString() {
+            final StringWriter w = new StringWriter();
+            for (StubSnapshot s: stubs) {
+                w.append(s.toString()).append('\n');
+            }
+            w.append(String.valueOf(unmatched)).append(" unmatched requests\n");
+
+            return w.toString();
+        }
+    }
+}
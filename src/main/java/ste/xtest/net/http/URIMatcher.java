@@ -61,6 +61,11 @@ public class URIMatcher implements RequestMatcher {
         return request.uri().equals(uri);
     }
 
+    @Override
+    public int cost() {
+        return COST_URI;
+    }
+
     @Override
     public String toString() {
         return String.format("with uri '%s'", uri.toString());
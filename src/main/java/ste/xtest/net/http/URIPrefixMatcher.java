@@ -0,0 +1,74 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.http.HttpRequest;
+
+/**
+ * A {@code RequestMatcher} that matches an {@link HttpRequest} if its URI
+ * starts with a given prefix (e.g. {@code http://localhost/api/users/} matches
+ * {@code http://localhost/api/users/1} and {@code http://localhost/api/users/2?full=true}).
+ * This class is immutable.
+ */
+public class URIPrefixMatcher implements RequestMatcher {
+    /**
+     * The prefix to match the request URI against.
+     */
+    public final String prefix;
+
+    /**
+     * Constructs a {@code URIPrefixMatcher} with the specified URI prefix.
+     * @param prefix The URI prefix to match. Must not be null.
+     * @throws IllegalArgumentException if the prefix is null.
+     */
+    public URIPrefixMatcher(String prefix) {
+        if (prefix == null) {
+            throw new IllegalArgumentException("prefix can not be null");
+        }
+        this.prefix = prefix;
+    }
+
+    /**
+     * Checks if the URI of the given {@link HttpRequest} starts with the prefix of this matcher.
+     * @param request The {@link HttpRequest} to check. Must not be null.
+     * @return {@code true} if the request's URI starts with this matcher's prefix, {@code false} otherwise.
+     * @throws IllegalArgumentException if the request is null.
+     */
+    @Override
+    public boolean match(HttpRequest request) {
+        if (request == null) {
+            throw new IllegalArgumentException("request can not be null");
+        }
+        return request.uri().toString().startsWith(prefix);
+    }
+
+    @Override
+    public int cost() {
+        return COST_URI;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("with uri starting with '%s'", prefix);
+    }
+
+}
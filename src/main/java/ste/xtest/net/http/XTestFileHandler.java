@@ -23,20 +23,64 @@ package ste.xtest.net.http;
 
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.net.URLConnection;
 import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
-import org.apache.commons.io.FileUtils;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 public class XTestFileHandler implements HttpHandler {
     public final String root;
     public final List<String> bootstrapScripts;
 
+    private static final DateTimeFormatter HTTP_DATE =
+        DateTimeFormatter.RFC_1123_DATE_TIME.withZone(ZoneOffset.UTC);
+
+    private static final String GZIP = "gzip";
+    private static final String BYTES = "bytes=";
+    private static final String DEFLATE = "deflate";
+
+    private static final byte[] HTML = "<html>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HTML_END = "</html>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEAD = "<head>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEAD_END = "</head>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NONE = new byte[0];
+
+    private volatile ContentCache cache = null;
+    private volatile boolean compression = false;
+
+    private volatile Script script = null;
+    //
+    // where to inject the script in each page (a few bytes per HTML file)
+    //
+    private final Map<Path, Splice> splices = new ConcurrentHashMap<>();
+
     public XTestFileHandler(final String root, List<String> bootstrapScripts) {
         if (root == null) {
             throw new IllegalArgumentException("root can not be null");
@@ -102,51 +146,100 @@ public class XTestFileHandler implements HttpHandler {
             // Set response headers
             exchange.getResponseHeaders().set("Content-Type", contentType);
 
-            String content = FileUtils.readFileToString(file, "UTF-8");
+            final boolean head = requestMethod.equals("HEAD");
 
             //
             // If __XTEST_BOOTSTRAP__=1 is given in the url, inject the bootstrap
-            // script into the content
-            //
-            // TODO: do it only for HTML files
+            // script into the content of HTML files; this is the only case the
+            // content is decoded, any other file is streamed as is
             //
             final String query = exchange.getRequestURI().getQuery();
-            if (
+            final Script script = (
                 (query != null) && query.contains("__XTEST_BOOTSTRAP__=1")
-                && (bootstrapScripts != null) && !bootstrapScripts.isEmpty()
-            ) {
-                //
-                // TODO: manage <html ...> and <head ...>
-                //
-                final String script = script();
-                if (script != null) {
-                    if (content.contains("<head>")) {
-                        content = content.replace("<head>", "<head>" + script);
-                    } else if (content.contains("<html>")) {
-                        content = content.replace("<html>", "<html><head>" + script + "</head>");
-                    } else {
-                        content = "<html>" + script + content + "</html>";
+                && contentType.startsWith("text/html")
+            ) ? script() : null;
+
+            //
+            // Content negotiation: a precompressed .gz sibling is served as
+            // is, otherwise compressible content is compressed (once, if
+            // there is a cache)
+            //
+            Path source = file.toPath();
+            String encoding = null;
+            if (compression) {
+                exchange.getResponseHeaders().set("Vary", "Accept-Encoding");
+                encoding = encoding(exchange, contentType, source, script);
+                if (encoding != null) {
+                    exchange.getResponseHeaders().set("Content-Encoding", encoding);
+                    if (encoding.equals(GZIP) && (script == null) && hasGzipSibling(source)) {
+                        source = gzipSibling(source);
+                        encoding = null;  // already encoded
                     }
                 }
-
-                FileUtils.writeByteArrayToFile(new File("/tmp/out.txt"), content.getBytes());
             }
+            final BasicFileAttributes attributes = Files.readAttributes(source, BasicFileAttributes.class);
 
-            long fileLength = content.getBytes().length;
-            exchange.getResponseHeaders().set("Content-Length", String.valueOf(fileLength));
-
-            // Send response
-            exchange.sendResponseHeaders(200, fileLength);
-
-            // For HEAD requests, don't send the body
-            if (requestMethod.equals("HEAD")) {
-                exchange.getResponseBody().close();
-                return;
+            //
+            // With a cache, clients can revalidate their copy with the
+            // validators of the content and get a 304 if unchanged
+            //
+            final ContentCache cache = this.cache;
+            final String etag = etag(attributes, script, exchange.getResponseHeaders().getFirst("Content-Encoding"));
+            if (cache != null) {
+                exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+                exchange.getResponseHeaders().set("ETag", etag);
+                exchange.getResponseHeaders().set(
+                    "Last-Modified", HTTP_DATE.format(attributes.lastModifiedTime().toInstant())
+                );
+                if (notModified(exchange, etag, attributes)) {
+                    exchange.sendResponseHeaders(304, -1);
+                    exchange.getResponseBody().close();
+                    return;
+                }
             }
 
-            // Send file content for GET requests
-            try (OutputStream os = exchange.getResponseBody()) {
-                os.write(content.getBytes());
+            if ((script == null) && (encoding == null)) {
+                //
+                // The content is served as it is on disk, so byte ranges of
+                // it can be read straight from the file
+                //
+                exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                final List<long[]> ranges = ranges(exchange, etag, attributes);
+                if (ranges != null) {
+                    sendRanges(exchange, source, contentType, ranges, attributes.size(), head);
+                    return;
+                }
+                if ((cache != null) && cache.fits(attributes.size())) {
+                    sendContent(exchange, cached(cache, source, attributes), head);
+                } else {
+                    sendFile(exchange, source, head);
+                }
+            } else if (encoding == null) {
+                //
+                // The script is spliced in at the offset found once per file
+                // version, the page itself is served as any other file
+                //
+                final byte[] content = ((cache != null) && cache.fits(attributes.size()))
+                                     ? cached(cache, source, attributes) : null;
+                sendInjected(exchange, source, content, splice(source, attributes, content), script, head);
+            } else if ((script != null) || ((cache != null) && cache.fits(attributes.size()))) {
+                final String variant = (script == null) ? encoding : encoding + ":b" + script.hash;
+                byte[] content = (cache == null)
+                               ? null
+                               : cache.get(source, variant, attributes.lastModifiedTime(), attributes.size());
+                if (content == null) {
+                    content = Files.readAllBytes(source);
+                    if (script != null) {
+                        content = inject(content, splice(source, attributes, content), script);
+                    }
+                    content = compress(content, encoding);
+                    if (cache != null) {
+                        cache.put(source, variant, attributes.lastModifiedTime(), attributes.size(), content);
+                    }
+                }
+                sendContent(exchange, content, head);
+            } else {
+                sendCompressedFile(exchange, source, encoding, head);
             }
         } catch (IOException e) {
             sendError(exchange, 500, "Internal Server Error");
@@ -155,25 +248,518 @@ public class XTestFileHandler implements HttpHandler {
         }
     }
 
+    /**
+     * Enables (or disables) caching of the served content: files are kept
+     * in memory as long as they do not change and clients get validators
+     * (ETag and Last-Modified) so that they can revalidate their copy and
+     * get a 304 Not Modified instead of the content again.
+     *
+     * @param cache the cache to use; null disables caching (the default),
+     *        which means the clients are told not to store the content
+     *
+     * @return this instance
+     */
+    public XTestFileHandler cache(final ContentCache cache) {
+        this.cache = cache; return this;
+    }
+
+    public ContentCache cache() {
+        return cache;
+    }
+
+    /**
+     * Enables (or disables) content negotiation with Accept-Encoding: if the
+     * client accepts gzip and a precompressed sibling of the requested file
+     * (e.g. app.js.gz for app.js) exists and is not older than the file, the
+     * sibling is served; otherwise textual content is compressed with gzip or
+     * deflate, once if a cache is set. Responses carry Vary: Accept-Encoding.
+     *
+     * @param compression true to enable content negotiation (default false)
+     *
+     * @return this instance
+     */
+    public XTestFileHandler compression(final boolean compression) {
+        this.compression = compression; return this;
+    }
+
+    public boolean compression() {
+        return compression;
+    }
+
     // --------------------------------------------------------- private methods
 
+    /**
+     * @return the content of the file, from the cache if there
+     */
+    private byte[] cached(final ContentCache cache, final Path file, final BasicFileAttributes attributes)
+    throws IOException {
+        byte[] content = cache.get(file, null, attributes.lastModifiedTime(), attributes.size());
+        if (content == null) {
+            content = Files.readAllBytes(file);
+            cache.put(file, null, attributes.lastModifiedTime(), attributes.size(), content);
+        }
+        return content;
+    }
+
+    /**
+     * Finds where the script goes in the given version of the page: after
+     * {@code <head>}, in a new head after {@code <html>} or in a new html
+     * element wrapping the whole content. This is done on the bytes of the
+     * page (the tags are ASCII, so this works for UTF-8 and the like) and
+     * only once per version of the file.
+     *
+     * @param content the content of the page if already read, null otherwise
+     */
+    private Splice splice(final Path file, final BasicFileAttributes attributes, byte[] content)
+    throws IOException {
+        final Splice splice = splices.get(file);
+        if ((splice != null) && splice.modified.equals(attributes.lastModifiedTime()) && (splice.size == attributes.size())) {
+            return splice;
+        }
+
+        if (content == null) {
+            content = Files.readAllBytes(file);
+        }
+
+        //
+        // TODO: manage <html ...> and <head ...>
+        //
+        final Splice s;
+        int i = indexOf(content, HEAD);
+        if (i >= 0) {
+            s = new Splice(attributes, i + HEAD.length, NONE, NONE, NONE);
+        } else if ((i = indexOf(content, HTML)) >= 0) {
+            s = new Splice(attributes, i + HTML.length, HEAD, HEAD_END, NONE);
+        } else {
+            s = new Splice(attributes, 0, HTML, NONE, HTML_END);
+        }
+        splices.put(file, s);
+
+        return s;
+    }
+
+    private byte[] inject(final byte[] content, final Splice splice, final Script script) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream((int)splice.length(content.length, script));
+        out.write(content, 0, splice.offset);
+        out.writeBytes(splice.before); out.writeBytes(script.bytes); out.writeBytes(splice.after);
+        out.write(content, splice.offset, content.length - splice.offset);
+        out.writeBytes(splice.tail);
+
+        return out.toByteArray();
+    }
+
+    private static int indexOf(final byte[] content, final byte[] tag) {
+        final int last = content.length - tag.length;
+        next: for (int i = 0; i <= last; ++i) {
+            for (int j = 0; j < tag.length; ++j) {
+                if (content[i + j] != tag[j]) {
+                    continue next;
+                }
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    /**
+     * The entity tag changes with the file and, for the injected variant, with
+     * the bootstrap scripts
+     */
+    private String etag(final BasicFileAttributes attributes, final Script script, final String encoding) {
+        final StringBuilder etag = new StringBuilder("\"")
+            .append(Long.toHexString(attributes.lastModifiedTime().toMillis()))
+            .append('-').append(Long.toHexString(attributes.size()));
+        if (script != null) {
+            etag.append("-b").append(script.hash);
+        }
+        if (encoding != null) {
+            etag.append('-').append(encoding);
+        }
+        return etag.append('"').toString();
+    }
+
+    /**
+     * Picks the encoding to use among the ones accepted by the client, by
+     * quality and then preferring gzip; identity (null) if none applies
+     */
+    private String encoding(
+        final HttpExchange exchange, final String contentType, final Path file, final Script script
+    ) {
+        final String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (accept == null) {
+            return null;
+        }
+
+        double gzip = 0, deflate = 0;
+        for (String coding: accept.split(",")) {
+            final String[] parts = coding.trim().split(";");
+            double q = 1;
+            for (int i = 1; i < parts.length; ++i) {
+                final String param = parts[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(param.substring(2));
+                    } catch (NumberFormatException x) {
+                        q = 0;
+                    }
+                }
+            }
+            final String name = parts[0].trim().toLowerCase();
+            if (name.equals(GZIP) || name.equals("x-gzip") || name.equals("*")) {
+                gzip = Math.max(gzip, q);
+            }
+            if (name.equals(DEFLATE) || name.equals("*")) {
+                deflate = Math.max(deflate, q);
+            }
+        }
+
+        final boolean compressible = compressible(contentType);
+        final boolean sibling = (gzip > 0) && (script == null) && hasGzipSibling(file);
+        if (gzip > 0 && gzip >= deflate && (compressible || sibling)) {
+            return GZIP;
+        }
+        if (deflate > 0 && compressible) {
+            return DEFLATE;
+        }
+        return sibling ? GZIP : null;
+    }
+
+    private boolean compressible(final String contentType) {
+        return contentType.startsWith("text/")
+            || contentType.contains("javascript")
+            || contentType.contains("json")
+            || contentType.contains("xml")
+            || contentType.equals("application/wasm");
+    }
+
+    private Path gzipSibling(final Path file) {
+        return file.resolveSibling(file.getFileName() + ".gz");
+    }
+
+    private boolean hasGzipSibling(final Path file) {
+        final File gz = gzipSibling(file).toFile();
+        return gz.isFile() && (gz.lastModified() >= file.toFile().lastModified());
+    }
+
+    private byte[] compress(final byte[] content, final String encoding) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, content.length / 4));
+        try (OutputStream os = encoder(out, encoding)) {
+            os.write(content);
+        }
+        return out.toByteArray();
+    }
+
+    private OutputStream encoder(final OutputStream os, final String encoding) throws IOException {
+        return encoding.equals(GZIP) ? new GZIPOutputStream(os, 8192) : new DeflaterOutputStream(os);
+    }
+
+    /**
+     * If-None-Match takes precedence over If-Modified-Since (RFC 9110)
+     */
+    private boolean notModified(final HttpExchange exchange, final String etag, final BasicFileAttributes attributes) {
+        final String ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        if (ifNoneMatch != null) {
+            for (String tag: ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.startsWith("W/")) {
+                    tag = tag.substring(2);
+                }
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        final String ifModifiedSince = exchange.getRequestHeaders().getFirst("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                final long since = ZonedDateTime.parse(ifModifiedSince, HTTP_DATE).toEpochSecond();
+                return attributes.lastModifiedTime().to(TimeUnit.SECONDS) <= since;
+            } catch (DateTimeParseException x) {
+                // ignore invalid dates
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Parses the Range header into the list of the requested byte ranges as
+     * {first, last} pairs, sorted and with overlapping or adjacent ranges
+     * coalesced. Returns null if the whole content shall be served (no or
+     * invalid Range, or an If-Range that does not match the content) and an
+     * empty list if none of the ranges can be satisfied.
+     */
+    private List<long[]> ranges(
+        final HttpExchange exchange, final String etag, final BasicFileAttributes attributes
+    ) {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        if ((range == null) || !range.regionMatches(true, 0, BYTES, 0, BYTES.length())) {
+            return null;
+        }
+
+        //
+        // If-Range: the range applies only if the client's copy is current,
+        // either by strong entity tag or by exact last modified date
+        //
+        final String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        if (ifRange != null) {
+            final String validator = ifRange.trim();
+            if (validator.startsWith("\"")) {
+                if (!validator.equals(etag)) {
+                    return null;
+                }
+            } else {
+                try {
+                    final long date = ZonedDateTime.parse(validator, HTTP_DATE).toEpochSecond();
+                    if (attributes.lastModifiedTime().to(TimeUnit.SECONDS) != date) {
+                        return null;
+                    }
+                } catch (DateTimeParseException x) {
+                    return null;
+                }
+            }
+        }
+
+        final long size = attributes.size();
+        final List<long[]> ranges = new ArrayList<>();
+        for (String spec: range.substring(BYTES.length()).split(",")) {
+            spec = spec.trim();
+            final int dash = spec.indexOf('-');
+            if (dash < 0) {
+                return null;
+            }
+            final long first, last;
+            try {
+                if (dash == 0) {
+                    final long suffix = Long.parseLong(spec.substring(1));
+                    if (suffix < 0) {
+                        return null;
+                    }
+                    first = Math.max(0, size - suffix);
+                    last = size - 1;
+                } else {
+                    first = Long.parseLong(spec.substring(0, dash));
+                    if (dash == spec.length() - 1) {
+                        last = size - 1;
+                    } else {
+                        final long end = Long.parseLong(spec.substring(dash + 1));
+                        if (end < first) {
+                            return null;  // invalid, e.g. bytes=5-2
+                        }
+                        last = Math.min(end, size - 1);
+                    }
+                }
+            } catch (NumberFormatException x) {
+                return null;
+            }
+            if (first <= last) {
+                ranges.add(new long[] { first, last });
+            }
+        }
+
+        ranges.sort((a, b) -> Long.compare(a[0], b[0]));
+        final List<long[]> coalesced = new ArrayList<>(ranges.size());
+        for (long[] r: ranges) {
+            final long[] previous = coalesced.isEmpty() ? null : coalesced.get(coalesced.size() - 1);
+            if ((previous != null) && (r[0] <= previous[1] + 1)) {
+                previous[1] = Math.max(previous[1], r[1]);
+            } else {
+                coalesced.add(r);
+            }
+        }
+
+        return coalesced;
+    }
+
     //
-    // we want the final script to be built all the times to give the
-    // opportunity the caller to change the bootstrap script by changing the
-    // content of the bootstrapScripts list.
+    // we want the final script to reflect the bootstrapScripts list at each
+    // request to give the opportunity the caller to change the bootstrap
+    // script by changing the content of the list; it is built again only when
+    // the list changes though (comparing the same strings is cheap)
     //
-    private String script() {
-        if ((bootstrapScripts == null) || bootstrapScripts.isEmpty()) {
+    private Script script() {
+        final List<String> scripts = bootstrapScripts;
+        if ((scripts == null) || scripts.isEmpty()) {
             return null;
         }
 
-        final StringBuilder script = new StringBuilder("<script>\n");
-        for (final String s: bootstrapScripts) {
-            script.append(s).append("\n");
+        Script script = this.script;
+        if ((script == null) || !script.scripts.equals(scripts)) {
+            this.script = script = new Script(scripts);
+        }
+
+        return script;
+    }
+
+    private void sendContent(final HttpExchange exchange, final byte[] content, final boolean head)
+    throws IOException {
+        exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+        exchange.sendResponseHeaders(200, (head || content.length == 0) ? -1 : content.length);
+
+        try (OutputStream os = exchange.getResponseBody()) {
+            if (!head) {
+                os.write(content);
+            }
+        }
+    }
+
+    /**
+     * Streams the file straight from a FileChannel into the response body,
+     * without decoding or copying it in the heap
+     */
+    private void sendFile(final HttpExchange exchange, final Path file, final boolean head)
+    throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long length = channel.size();
+
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(200, (head || length == 0) ? -1 : length);
+
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (!head) {
+                    transfer(channel, 0, length, os);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the given byte ranges of the file, each one read at its position
+     * in the file channel: a single range as is, multiple ranges as a
+     * multipart/byteranges body. The length of the response is computed
+     * upfront so that it is not chunked.
+     */
+    private void sendRanges(
+        final HttpExchange exchange, final Path file, final String contentType,
+        final List<long[]> ranges, final long size, final boolean head
+    ) throws IOException {
+        if (ranges.isEmpty()) {
+            exchange.getResponseHeaders().set("Content-Range", "bytes */" + size);
+            sendError(exchange, 416, "Range Not Satisfiable");
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ranges.size() == 1) {
+                final long[] range = ranges.get(0);
+                final long length = range[1] - range[0] + 1;
+                exchange.getResponseHeaders().set(
+                    "Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + size
+                );
+                exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+                exchange.sendResponseHeaders(206, head ? -1 : length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    if (!head) {
+                        transfer(channel, range[0], length, os);
+                    }
+                }
+                return;
+            }
+
+            final String boundary = "XTEST_" + Long.toHexString(System.nanoTime());
+            final byte[][] parts = new byte[ranges.size()][];
+            long length = 0;
+            for (int i = 0; i < parts.length; ++i) {
+                final long[] range = ranges.get(i);
+                parts[i] = (
+                    "\r\n--" + boundary + "\r\n"
+                    + "Content-Type: " + contentType + "\r\n"
+                    + "Content-Range: bytes " + range[0] + "-" + range[1] + "/" + size + "\r\n\r\n"
+                ).getBytes(StandardCharsets.US_ASCII);
+                length += parts[i].length + range[1] - range[0] + 1;
+            }
+            final byte[] end = ("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII);
+            length += end.length;
+
+            exchange.getResponseHeaders().set("Content-Type", "multipart/byteranges; boundary=" + boundary);
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(206, head ? -1 : length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (!head) {
+                    for (int i = 0; i < parts.length; ++i) {
+                        final long[] range = ranges.get(i);
+                        os.write(parts[i]);
+                        transfer(channel, range[0], range[1] - range[0] + 1, os);
+                    }
+                    os.write(end);
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends the page with the script spliced in, from the given content or
+     * straight from the file like sendFile()
+     */
+    private void sendInjected(
+        final HttpExchange exchange, final Path file, final byte[] content,
+        final Splice splice, final Script script, final boolean head
+    ) throws IOException {
+        if (content != null) {
+            final long length = splice.length(content.length, script);
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(200, head ? -1 : length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (!head) {
+                    os.write(content, 0, splice.offset);
+                    os.write(splice.before); os.write(script.bytes); os.write(splice.after);
+                    os.write(content, splice.offset, content.length - splice.offset);
+                    os.write(splice.tail);
+                }
+            }
+            return;
+        }
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            final long offset = Math.min(splice.offset, size);
+            final long length = splice.length(size, script);
+
+            exchange.getResponseHeaders().set("Content-Length", String.valueOf(length));
+            exchange.sendResponseHeaders(200, head ? -1 : length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (!head) {
+                    transfer(channel, 0, offset, os);
+                    os.write(splice.before); os.write(script.bytes); os.write(splice.after);
+                    transfer(channel, offset, size - offset, os);
+                    os.write(splice.tail);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compresses the file while streaming it; the length is unknown so the
+     * response is chunked
+     */
+    private void sendCompressedFile(
+        final HttpExchange exchange, final Path file, final String encoding, final boolean head
+    ) throws IOException {
+        exchange.getResponseHeaders().remove("Content-Length");
+        exchange.sendResponseHeaders(200, head ? -1 : 0);
+
+        if (head) {
+            exchange.getResponseBody().close();
+            return;
         }
-        script.append("</script>\n");
+        try (OutputStream os = encoder(exchange.getResponseBody(), encoding)) {
+            Files.copy(file, os);
+        }
+    }
 
-        return script.toString();
+    private void transfer(final FileChannel channel, long position, final long length, final OutputStream os)
+    throws IOException {
+        final WritableByteChannel out = Channels.newChannel(os);
+        final long end = position + length;
+        while (position < end) {
+            final long n = channel.transferTo(position, end - position, out);
+            if (n <= 0) {
+                throw new EOFException("file truncated while serving it");
+            }
+            position += n;
+        }
     }
 
     private void sendError(HttpExchange exchange, int code, String message)
@@ -185,4 +771,64 @@ public class XTestFileHandler implements HttpHandler {
             os.write(messageBytes);
         }
     }
-}
\ No newline at end of file
+
+    // ----------------------------------------------------------------- Script
+
+    /**
+     * The bootstrap script built from a given list of scripts
+     */
+    private static final class Script {
+        final List<String> scripts;
+        final byte[] bytes;
+        final String hash;
+
+        Script(final List<String> scripts) {
+            this.scripts = new ArrayList<>(scripts);
+
+            final StringBuilder script = new StringBuilder("<script>\n");
+            for (final String s: this.scripts) {
+                script.append(s).append("\n");
+            }
+            script.append("</script>\n");
+
+            final String text = script.toString();
+            this.bytes = text.getBytes(StandardCharsets.UTF_8);
+            //
+            // the first 64 bits of the SHA-256 of the script identify it in
+            // ETags and cached variants; String.hashCode() collides too easily
+            //
+            try {
+                this.hash = Long.toHexString(ByteBuffer.wrap(
+                    MessageDigest.getInstance("SHA-256").digest(bytes)
+                ).getLong());
+            } catch (NoSuchAlgorithmException x) {
+                throw new IllegalStateException("SHA-256 not available", x);
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------- Splice
+
+    /**
+     * Where the script goes in a given version of a page: at offset, between
+     * before and after, with tail appended to the page
+     */
+    private static final class Splice {
+        final FileTime modified;
+        final long size;
+        final int offset;
+        final byte[] before, after, tail;
+
+        Splice(
+            final BasicFileAttributes attributes, final int offset,
+            final byte[] before, final byte[] after, final byte[] tail
+        ) {
+            this.modified = attributes.lastModifiedTime(); this.size = attributes.size();
+            this.offset = offset; this.before = before; this.after = after; this.tail = tail;
+        }
+
+        long length(final long size, final Script script) {
+            return size + before.length + script.bytes.length + after.length + tail.length;
+        }
+    }
+}
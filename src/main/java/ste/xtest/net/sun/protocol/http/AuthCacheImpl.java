@@ -25,84 +25,113 @@
 
 package ste.xtest.net.sun.protocol.http;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.ListIterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
+ * The authentication cache, keyed by protection space (see AuthCache for the
+ * format of the primary key) and path.
+ * <p>
+ * Entries of a protection space are kept in an immutable list replaced on
+ * each change, so that get() does not need any lock; put() and remove() are
+ * atomic per protection space.
+ * <p>
+ * In preemptive mode (off by default) the credentials cached for a server
+ * are sent also with the first request to paths outside the one they were
+ * obtained for, instead of waiting for the 401 challenge. Use it with test
+ * servers that protect all their paths with the same credentials.
+ *
  * @author Michael McMahon
  */
 
 public class AuthCacheImpl implements AuthCache {
-    HashMap<String,LinkedList<AuthCacheValue>> hashtable;
+    final ConcurrentHashMap<String,List<AuthCacheValue>> hashtable;
+
+    private volatile boolean preemptive = false;
 
     public AuthCacheImpl () {
-        hashtable = new HashMap<String,LinkedList<AuthCacheValue>>();
+        hashtable = new ConcurrentHashMap<>();
     }
 
     public void setMap (HashMap<String,LinkedList<AuthCacheValue>> map) {
-        hashtable = map;
+        hashtable.clear();
+        for (String key: map.keySet()) {
+            hashtable.put(key, Collections.unmodifiableList(new ArrayList<>(map.get(key))));
+        }
+    }
+
+    /**
+     * Turns preemptive mode on or off
+     *
+     * @param preemptive true to send cached credentials to any path of
+     *        the same server
+     *
+     * @return this
+     */
+    public AuthCacheImpl preemptive(final boolean preemptive) {
+        this.preemptive = preemptive;
+        return this;
+    }
+
+    public boolean preemptive() {
+        return preemptive;
     }
 
     // put a value in map according to primary key + secondary key which
     // is the path field of AuthenticationInfo
 
-    public synchronized void put (String pkey, AuthCacheValue value) {
-        LinkedList<AuthCacheValue> list = hashtable.get (pkey);
+    public void put (String pkey, AuthCacheValue value) {
         String skey = value.getPath();
-        if (list == null) {
-            list = new LinkedList<AuthCacheValue>();
-            hashtable.put(pkey, list);
-        }
-        // Check if the path already exists or a super-set of it exists
-        ListIterator<AuthCacheValue> iter = list.listIterator();
-        while (iter.hasNext()) {
-            AuthenticationInfo inf = (AuthenticationInfo)iter.next();
-            if (inf.path == null || inf.path.startsWith (skey)) {
-                iter.remove ();
+        hashtable.compute(pkey, (key, list) -> {
+            ArrayList<AuthCacheValue> l = new ArrayList<>();
+            if (list != null) {
+                // Check if the path already exists or a super-set of it exists
+                for (AuthCacheValue v: list) {
+                    String path = v.getPath();
+                    if (!(path == null || path.startsWith (skey))) {
+                        l.add(v);
+                    }
+                }
             }
-        }
-        iter.add(value);
+            l.add(value);
+            return Collections.unmodifiableList(l);
+        });
     }
 
     // get a value from map checking both primary
-    // and secondary (urlpath) key
+    // and secondary (urlpath) key; in preemptive mode the most recent entry
+    // is returned if none matches the path
 
-    public synchronized AuthCacheValue get (String pkey, String skey) {
-        AuthenticationInfo result = null;
-        LinkedList<AuthCacheValue> list = hashtable.get (pkey);
-        if (list == null || list.size() == 0) {
+    public AuthCacheValue get (String pkey, String skey) {
+        List<AuthCacheValue> list = hashtable.get (pkey);
+        if (list == null || list.isEmpty()) {
             return null;
         }
         if (skey == null) {
             // list should contain only one element
-            return (AuthenticationInfo)list.get (0);
+            return list.get (0);
         }
-        ListIterator<AuthCacheValue> iter = list.listIterator();
-        while (iter.hasNext()) {
-            AuthenticationInfo inf = (AuthenticationInfo)iter.next();
-            if (skey.startsWith (inf.path)) {
-                return inf;
+        for (AuthCacheValue v: list) {
+            String path = v.getPath();
+            if (path == null || skey.startsWith (path)) {
+                return v;
             }
         }
-        return null;
+        return preemptive ? list.get(list.size()-1) : null;
     }
 
-    public synchronized void remove (String pkey, AuthCacheValue entry) {
-        LinkedList<AuthCacheValue> list = hashtable.get (pkey);
-        if (list == null) {
-            return;
-        }
-        if (entry == null) {
-            list.clear();
-            return;
-        }
-        ListIterator<AuthCacheValue> iter = list.listIterator ();
-        while (iter.hasNext()) {
-            AuthenticationInfo inf = (AuthenticationInfo)iter.next();
-            if (entry.equals(inf)) {
-                iter.remove ();
+    public void remove (String pkey, AuthCacheValue entry) {
+        hashtable.computeIfPresent(pkey, (key, list) -> {
+            if (entry == null) {
+                return null;
             }
-        }
+            ArrayList<AuthCacheValue> l = new ArrayList<>(list);
+            l.removeIf(v -> entry.equals(v));
+            return l.isEmpty() ? null : Collections.unmodifiableList(l);
+        });
     }
 }
@@ -112,8 +112,9 @@ class DigestAuthentication extends AuthenticationInfo {
         boolean authQop () {
             return serverQop;
         }
-        synchronized void incrementNC() {
-            NCcount ++;
+        /* increments and returns the nonce-count in one step */
+        synchronized int nextNC() {
+            return ++NCcount;
         }
         synchronized int getNCCount () {
             return NCcount;
@@ -352,11 +353,16 @@ class DigestAuthentication extends AuthenticationInfo {
         char[] passwd = pw.getPassword();
         boolean qop = params.authQop();
         String opaque = params.getOpaque();
-        String cnonce = params.getCnonce ();
-        String nonce = params.getNonce ();
         String algorithm = params.getAlgorithm ();
-        params.incrementNC ();
-        int  nccount = params.getNCCount ();
+        String cnonce, nonce;
+        int nccount;
+        // the same params may be used by concurrent (preemptive) requests;
+        // each request must get its own nonce-count for the current nonce
+        synchronized (params) {
+            cnonce = params.getCnonce ();
+            nonce = params.getNonce ();
+            nccount = params.nextNC ();
+        }
         String ncstring=null;
 
         if (nccount != -1) {
@@ -417,26 +423,49 @@ class DigestAuthentication extends AuthenticationInfo {
 
     public void checkResponse (String header, String method, String uri)
                                                         throws IOException {
+        checkResponse (header, method, uri, null);
+    }
+
+    public void checkResponse (String header, String method, URL url,
+                               String authorization) throws IOException {
+        checkResponse (header, method, url.getFile(), authorization);
+    }
+
+    /**
+     * Checks the rspauth of the Authentication-Info response header.
+     *
+     * @param authorization the authorization header sent with the request the
+     *        response is for; the cnonce and the nonce-count are taken from it
+     *        because the same parameters may be used by concurrent requests
+     *        in the meantime. If null the current parameters are used.
+     */
+    public void checkResponse (String header, String method, String uri,
+                               String authorization) throws IOException {
         char[] passwd = pw.getPassword();
         String username = pw.getUserName();
-        boolean qop = params.authQop();
-        String opaque = params.getOpaque();
         String cnonce = params.cnonce;
         String nonce = params.getNonce ();
-        String algorithm = params.getAlgorithm ();
         int  nccount = params.getNCCount ();
         String ncstring=null;
 
-        if (header == null) {
-            throw new ProtocolException ("No authentication information in response");
-        }
-
         if (nccount != -1) {
-            ncstring = Integer.toHexString (nccount).toUpperCase();
+            ncstring = Integer.toHexString (nccount).toLowerCase();
             int len = ncstring.length();
             if (len < 8)
                 ncstring = zeroPad [len] + ncstring;
         }
+
+        if (authorization != null) {
+            HeaderParser sent = new HeaderParser (authorization);
+            nonce = sent.findValue ("nonce", nonce);
+            cnonce = sent.findValue ("cnonce", cnonce);
+            ncstring = sent.findValue ("nc", ncstring);
+        }
+
+        if (header == null) {
+            throw new ProtocolException ("No authentication information in response");
+        }
+
         try {
             String expected = computeDigest(false, username,passwd,realm,
                                         method, uri, nonce, cnonce, ncstring);
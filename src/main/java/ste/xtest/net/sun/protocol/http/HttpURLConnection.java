@@ -2565,7 +2565,8 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
                 if (inClose || (raw != null)) {
                     DigestAuthentication da = (DigestAuthentication)
                         currentProxyCredentials;
-                    da.checkResponse (raw, method, getRequestURI());
+                    da.checkResponse (raw, method, getRequestURI(),
+                                      requests.findValue (da.getHeaderName()));
                     currentProxyCredentials = null;
                 }
             }
@@ -2575,7 +2576,8 @@ public class HttpURLConnection extends java.net.HttpURLConnection {
                 if (inClose || (raw != null)) {
                     DigestAuthentication da = (DigestAuthentication)
                         currentServerCredentials;
-                    da.checkResponse (raw, method, url);
+                    da.checkResponse (raw, method, url,
+                                      requests.findValue (da.getHeaderName()));
                     currentServerCredentials = null;
                 }
             }
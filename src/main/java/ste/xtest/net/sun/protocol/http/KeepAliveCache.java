@@ -24,22 +24,33 @@
  */
 package ste.xtest.net.sun.protocol.http;
 
-import java.io.IOException;
-import java.io.NotSerializableException;
 import java.net.URL;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
- * A class that implements a cache of idle Http connections for keep-alive
+ * A class that implements a cache of idle Http connections for keep-alive.
+ *
+ * Idle connections are kept per route (protocol, host, port and additional
+ * key) and each route has its own lock, so that connections to different
+ * destinations do not contend. At most {@code maxConnections()} idle
+ * connections are kept per route (system property "http.maxConnections",
+ * default 5); connections idle for longer than their keep-alive timeout
+ * are closed by a sweeper shared by all caches, scheduled only while the
+ * cache is not empty.
  *
  * @author Stephen R. Pietrowicz (NCSA)
  * @author Dave Brown
  */
-public class KeepAliveCache
-    extends HashMap<KeepAliveKey, ClientVector>
-    implements Runnable {
-    private static final long serialVersionUID = -2937172892064557949L;
+public class KeepAliveCache {
 
     /* maximum # keep-alive connections to maintain at once
      * This should be 2 by the HTTP spec, but because we don't support pipe-lining
@@ -48,250 +59,256 @@ public class KeepAliveCache
      * It can be reset by setting system property "http.maxConnections".
      */
     static final int MAX_CONNECTIONS = 5;
-    static int result = -1;
     static int getMaxConnections() {
-        //
-        //  let's simplify this...
-        //
-        /*
-        if (result == -1) {
-            result = java.security.AccessController.doPrivileged(
-                new sun.security.action.GetIntegerAction("http.maxConnections",
-                                                         MAX_CONNECTIONS))
-                .intValue();
-            if (result <= 0)
-                result = MAX_CONNECTIONS;
-        }
-        */
-        return MAX_CONNECTIONS;
+        final int max = Integer.getInteger("http.maxConnections", MAX_CONNECTIONS);
+        return (max <= 0) ? MAX_CONNECTIONS : max;
     }
 
     static final int LIFETIME = 5000;
 
-    private Thread keepAliveTimer = null;
+    private static final ScheduledExecutorService SWEEPER = Executors.newSingleThreadScheduledExecutor((task) -> {
+        final Thread t = new Thread(task, "Keep-Alive-Timer");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY - 2);
+        // Set the context class loader to null in order to avoid
+        // keeping a strong reference to an application classloader.
+        t.setContextClassLoader(null);
+        return t;
+    });
+
+    private final Map<KeepAliveKey, KeepAliveRoute> routes = new ConcurrentHashMap<>();
+    private final long sweepInterval;
+    private volatile int maxConnections;
+    private volatile ScheduledFuture<?> sweeper = null;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
     /**
      * Constructor
      */
-    public KeepAliveCache() {}
+    public KeepAliveCache() {
+        this(getMaxConnections(), LIFETIME);
+    }
+
+    KeepAliveCache(final int maxConnections, final long sweepInterval) {
+        maxConnections(maxConnections);
+        this.sweepInterval = sweepInterval;
+    }
 
     /**
      * Register this URL and HttpClient (that supports keep-alive) with the cache
      * @param url  The URL contains info about the host and port
      * @param http The HttpClient to be cached
      */
-    public synchronized void put(final URL url, Object obj, HttpClient http) {
-        boolean startThread = (keepAliveTimer == null);
-        if (!startThread) {
-            if (!keepAliveTimer.isAlive()) {
-                startThread = true;
-            }
-        }
-        if (startThread) {
-            clear();
-            /* Unfortunately, we can't always believe the keep-alive timeout we got
-             * back from the server.  If I'm connected through a Netscape proxy
-             * to a server that sent me a keep-alive
-             * time of 15 sec, the proxy unilaterally terminates my connection
-             * The robustness to get around this is in HttpClient.parseHTTP()
-             */
-            final KeepAliveCache cache = this;
-            java.security.AccessController.doPrivileged(
-                new java.security.PrivilegedAction<Void>() {
-                public Void run() {
-                   // We want to create the Keep-Alive-Timer in the
-                    // system threadgroup
-                    ThreadGroup grp = Thread.currentThread().getThreadGroup();
-                    ThreadGroup parent = null;
-                    while ((parent = grp.getParent()) != null) {
-                        grp = parent;
-                    }
-
-                    keepAliveTimer = new Thread(grp, cache, "Keep-Alive-Timer");
-                    keepAliveTimer.setDaemon(true);
-                    keepAliveTimer.setPriority(Thread.MAX_PRIORITY - 2);
-                    // Set the context class loader to null in order to avoid
-                    // keeping a strong reference to an application classloader.
-                    keepAliveTimer.setContextClassLoader(null);
-                    keepAliveTimer.start();
-                    return null;
-                }
-            });
-        }
+    public void put(final URL url, Object obj, HttpClient http) {
+        final KeepAliveKey key = new KeepAliveKey(url, obj);
 
-        KeepAliveKey key = new KeepAliveKey(url, obj);
-        ClientVector v = super.get(key);
+        boolean kept;
+        do {
+            final KeepAliveRoute route = routes.computeIfAbsent(key, (k) -> {
+                final int keepAliveTimeout = http.getKeepAliveTimeout();
+                return new KeepAliveRoute(keepAliveTimeout > 0 ? keepAliveTimeout*1000 : LIFETIME);
+            });
+            synchronized (route) {
+                if (route.removed) {
+                    continue;  // swept in the meantime, let's get a new one
+                }
+                kept = route.idle.size() < maxConnections;
+                if (kept) {
+                    route.idle.push(new KeepAliveEntry(http, System.currentTimeMillis()));
+                }
+            }
+            break;
+        } while (true);
 
-        if (v == null) {
-            int keepAliveTimeout = http.getKeepAliveTimeout();
-            v = new ClientVector(keepAliveTimeout > 0?
-                                 keepAliveTimeout*1000 : LIFETIME);
-            v.put(http);
-            super.put(key, v);
+        if (kept) {
+            startSweeper();
         } else {
-            v.put(http);
+            evictions.increment();
+            http.closeServer(); // otherwise the connection remains in limbo
         }
     }
 
-    /* remove an obsolete HttpClient from its VectorCache */
-    public synchronized void remove (HttpClient h, Object obj) {
-        KeepAliveKey key = new KeepAliveKey(h.url, obj);
-        ClientVector v = super.get(key);
-        if (v != null) {
-            v.remove(h);
-            if (v.empty()) {
-                removeVector(key);
+    /* remove an obsolete HttpClient from its route */
+    public void remove (HttpClient h, Object obj) {
+        final KeepAliveRoute route = routes.get(new KeepAliveKey(h.url, obj));
+        if (route != null) {
+            synchronized (route) {
+                route.idle.removeIf((e) -> e.hc == h);
             }
         }
     }
 
-    /* called by a clientVector thread when all its connections have timed out
-     * and that vector of connections should be removed.
-     */
-    synchronized void removeVector(KeepAliveKey k) {
-        super.remove(k);
-    }
-
     /**
      * Check to see if this URL has a cached HttpClient
      */
-    public synchronized HttpClient get(URL url, Object obj) {
-
-        KeepAliveKey key = new KeepAliveKey(url, obj);
-        ClientVector v = super.get(key);
-        if (v == null) { // nothing in cache yet
+    public HttpClient get(URL url, Object obj) {
+        final KeepAliveRoute route = routes.get(new KeepAliveKey(url, obj));
+        if (route == null) { // nothing in cache yet
+            misses.increment();
             return null;
         }
-        return v.get();
-    }
-
-    /* Sleeps for an alloted timeout, then checks for timed out connections.
-     * Errs on the side of caution (leave connections idle for a relatively
-     * short time).
-     */
-    @Override
-    public void run() {
-        do {
-            try {
-                Thread.sleep(LIFETIME);
-            } catch (InterruptedException e) {}
-            synchronized (this) {
-                /* Remove all unused HttpClients.  Starting from the
-                 * bottom of the stack (the least-recently used first).
-                 * REMIND: It'd be nice to not remove *all* connections
-                 * that aren't presently in use.  One could have been added
-                 * a second ago that's still perfectly valid, and we're
-                 * needlessly axing it.  But it's not clear how to do this
-                 * cleanly, and doing it right may be more trouble than it's
-                 * worth.
-                 */
-
-                long currentTime = System.currentTimeMillis();
-
-                ArrayList<KeepAliveKey> keysToRemove
-                    = new ArrayList<KeepAliveKey>();
-
-                for (KeepAliveKey key : keySet()) {
-                    ClientVector v = get(key);
-                    synchronized (v) {
-                        int i;
-
-                        for (i = 0; i < v.size(); i++) {
-                            KeepAliveEntry e = v.elementAt(i);
-                            if ((currentTime - e.idleStartTime) > v.nap) {
-                                HttpClient h = e.hc;
-                                h.closeServer();
-                            } else {
-                                break;
-                            }
-                        }
-                        v.subList(0, i).clear();
-
-                        if (v.size() == 0) {
-                            keysToRemove.add(key);
-                        }
-                    }
-                }
 
-                for (KeepAliveKey key : keysToRemove) {
-                    removeVector(key);
+        // Loop until we find a connection that has not timed out
+        final List<HttpClient> expired = new ArrayList<>();
+        HttpClient hc = null;
+        synchronized (route) {
+            final long currentTime = System.currentTimeMillis();
+            while ((hc == null) && !route.idle.isEmpty()) {
+                final KeepAliveEntry e = route.idle.pop();
+                if ((currentTime - e.idleStartTime) > route.nap) {
+                    expired.add(e.hc);
+                } else {
+                    hc = e.hc;
                 }
             }
-        } while (size() > 0);
+        }
+        close(expired);
 
-        return;
+        if (hc == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return hc;
     }
 
-    /*
-     * Do not serialize this class!
+    /**
+     * @param maxConnections the maximum number of idle connections kept per
+     *        route; connections exceeding it are closed
+     *
+     * @throws IllegalArgumentException if maxConnections is not positive
      */
-    private void writeObject(java.io.ObjectOutputStream stream)
-    throws IOException {
-        throw new NotSerializableException();
+    public void maxConnections(final int maxConnections) {
+        if (maxConnections <= 0) {
+            throw new IllegalArgumentException("maxConnections must be greater than 0");
+        }
+        this.maxConnections = maxConnections;
     }
 
-    private void readObject(java.io.ObjectInputStream stream)
-    throws IOException, ClassNotFoundException {
-        throw new NotSerializableException();
+    public int maxConnections() {
+        return maxConnections;
     }
-}
 
-/* FILO order for recycling HttpClients, should run in a thread
- * to time them out.  If > maxConns are in use, block.
- */
+    /**
+     * @return the number of connections taken from the cache
+     */
+    public long hits() {
+        return hits.sum();
+    }
 
+    /**
+     * @return the number of times no connection was available in the cache
+     */
+    public long misses() {
+        return misses.sum();
+    }
 
-class ClientVector extends java.util.Stack<KeepAliveEntry> {
-    private static final long serialVersionUID = -8680532108106489459L;
+    /**
+     * @return the number of connections closed because timed out or exceeding
+     *         the per route limit
+     */
+    public long evictions() {
+        return evictions.sum();
+    }
 
-    // sleep time in milliseconds, before cache clear
-    int nap;
+    /**
+     * @return the number of idle connections in the cache
+     */
+    public int size() {
+        int size = 0;
+        for (KeepAliveRoute route: routes.values()) {
+            synchronized (route) {
+                size += route.idle.size();
+            }
+        }
+        return size;
+    }
 
+    /* Checks for timed out connections, starting from the bottom of each
+     * route (the least-recently used first), and drops the routes left
+     * empty.
+     */
+    void sweep(final long currentTime) {
+        final List<HttpClient> expired = new ArrayList<>();
+        for (Map.Entry<KeepAliveKey, KeepAliveRoute> entry: routes.entrySet()) {
+            final KeepAliveRoute route = entry.getValue();
+            synchronized (route) {
+                while (!route.idle.isEmpty() && (currentTime - route.idle.peekLast().idleStartTime) > route.nap) {
+                    expired.add(route.idle.pollLast().hc);
+                }
+                if (route.idle.isEmpty()) {
+                    route.removed = true;
+                    routes.remove(entry.getKey(), route);
+                }
+            }
+        }
+        close(expired);
 
+        if (routes.isEmpty()) {
+            stopSweeper();
+        }
+    }
 
-    ClientVector (int nap) {
-        this.nap = nap;
+    // --------------------------------------------------------- private methods
+
+    private void close(final List<HttpClient> expired) {
+        for (HttpClient h: expired) {
+            evictions.increment();
+            h.closeServer();
+        }
     }
 
-    synchronized HttpClient get() {
-        if (empty()) {
-            return null;
-        } else {
-            // Loop until we find a connection that has not timed out
-            HttpClient hc = null;
-            long currentTime = System.currentTimeMillis();
-            do {
-                KeepAliveEntry e = pop();
-                if ((currentTime - e.idleStartTime) > nap) {
-                    e.hc.closeServer();
-                } else {
-                    hc = e.hc;
+    private void startSweeper() {
+        if (sweeper == null) {
+            synchronized (this) {
+                if (sweeper == null) {
+                    sweeper = SWEEPER.scheduleWithFixedDelay(
+                        () -> sweep(System.currentTimeMillis()),
+                        sweepInterval, sweepInterval, TimeUnit.MILLISECONDS
+                    );
                 }
-            } while ((hc== null) && (!empty()));
-            return hc;
+            }
         }
     }
 
-    /* return a still valid, unused HttpClient */
-    synchronized void put(HttpClient h) {
-        if (size() >= KeepAliveCache.getMaxConnections()) {
-            h.closeServer(); // otherwise the connection remains in limbo
-        } else {
-            push(new KeepAliveEntry(h, System.currentTimeMillis()));
+    private void stopSweeper() {
+        synchronized (this) {
+            if ((sweeper != null) && routes.isEmpty()) {
+                sweeper.cancel(false);
+                sweeper = null;
+            }
+        }
+        //
+        // a connection may have been put after the check above but before
+        // the sweeper was reset; it would not be swept
+        //
+        if (!routes.isEmpty()) {
+            startSweeper();
         }
     }
 
-    /*
-     * Do not serialize this class!
-     */
-    private void writeObject(java.io.ObjectOutputStream stream)
-    throws IOException {
-        throw new NotSerializableException();
+    boolean sweeping() {
+        return sweeper != null;
     }
+}
 
-    private void readObject(java.io.ObjectInputStream stream)
-    throws IOException, ClassNotFoundException {
-        throw new NotSerializableException();
+/* The idle connections of a route in FILO order for recycling HttpClients
+ * (the most recently used at the head); all access is synchronized on the
+ * route.
+ */
+class KeepAliveRoute {
+    final ArrayDeque<KeepAliveEntry> idle = new ArrayDeque<>();
+
+    // idle time in milliseconds, before a connection is closed
+    final int nap;
+
+    boolean removed = false;
+
+    KeepAliveRoute(int nap) {
+        this.nap = nap;
     }
 }
 
@@ -114,6 +114,10 @@ class NTLMAuthenticationProxy {
      * Loads the NTLM authentiation implementation through reflection. If
      * the class is present, then it must have the required constructors and
      * method. Otherwise, it is considered an error.
+     * <p>
+     * Note that the JDK implementation extends the JDK AuthenticationInfo,
+     * not the one of this package, therefore it can not be used here and
+     * NTLM is reported as not supported.
      */
     @SuppressWarnings("unchecked")
     private static NTLMAuthenticationProxy tryLoadNTLMAuthentication() {
@@ -121,7 +125,7 @@ class NTLMAuthenticationProxy {
         Constructor<? extends AuthenticationInfo> fourArg, sixArg;
         try {
             cl = (Class<? extends AuthenticationInfo>)Class.forName(clazzStr, true, null);
-            if (cl != null) {
+            if (cl != null && AuthenticationInfo.class.isAssignableFrom(cl)) {
                 fourArg = cl.getConstructor(boolean.class,
                                              URL.class,
                                              PasswordAuthentication.class,
@@ -261,6 +261,79 @@ class ChunkedInputStream extends InputStream implements Hurryable {
         }
     }
 
+    /**
+     * Bulk read: fills the caller's buffer with as many chunk payloads as
+     * possible without going through <code>chunkData</code>. Chunk headers
+     * and trailers are parsed in <code>rawData</code>; once the size of a
+     * chunk is known its payload is copied from <code>rawData</code> (the
+     * bytes read together with the header) and then read from the
+     * underlying stream straight into <code>b</code>.
+     * <p>
+     * It blocks only until the first byte is available; after that it moves
+     * to the following chunks only if they can be reached without blocking.
+     *
+     * @return the number of bytes read or -1 at the end of the stream
+     */
+    private int bulkRead(byte[] b, int off, int len) throws IOException {
+        int n = 0;
+
+        /* first what has already been buffered by read() or available() */
+        int avail = chunkCount - chunkPos;
+        if (avail > 0) {
+            n = (avail < len) ? avail : len;
+            System.arraycopy(chunkData, chunkPos, b, off, n);
+            chunkPos += n;
+        }
+
+        while ((n < len) && (state != STATE_DONE)) {
+            if (state == STATE_READING_CHUNK) {
+                int cnt = Math.min(chunkSize - chunkRead, len - n);
+                if (rawPos < rawCount) {
+                    cnt = Math.min(cnt, rawCount - rawPos);
+                    System.arraycopy(rawData, rawPos, b, off + n, cnt);
+                    rawPos += cnt;
+                    chunkRead += cnt;
+                    if (chunkRead >= chunkSize) {
+                        state = STATE_AWAITING_CHUNK_EOL;
+                    }
+                } else {
+                    if ((n > 0) && (in.available() <= 0)) {
+                        break;
+                    }
+                    cnt = fastRead(b, off + n, cnt);
+                }
+                n += cnt;
+                continue;
+            }
+
+            /* chunk header, chunk EOL or trailers */
+            int before = rawCount - rawPos;
+            int lastState = state;
+            processRaw(true);
+            if ((state == lastState) && ((rawCount - rawPos) == before)) {
+                /* not enough raw data to move on */
+                if ((n > 0) && (in.available() <= 0)) {
+                    break;
+                }
+                ensureRawAvailable(32);
+                int nread;
+                try {
+                    nread = in.read(rawData, rawCount, rawData.length-rawCount);
+                } catch (IOException e) {
+                    error = true;
+                    throw e;
+                }
+                if (nread < 0) {
+                    error = true;
+                    throw new IOException("Premature EOF");
+                }
+                rawCount += nread;
+            }
+        }
+
+        return ((n == 0) && (state == STATE_DONE)) ? -1 : n;
+    }
+
     /**
      * Process any outstanding bytes that have already been read into
      * <code>rawData</code>.
@@ -275,6 +348,15 @@ class ChunkedInputStream extends InputStream implements Hurryable {
      * bytes have been read into <code>rawData</code>.
      */
     private void processRaw() throws IOException {
+        processRaw(false);
+    }
+
+    /**
+     * As {@link #processRaw()}, but if <code>direct</code> is true returns as
+     * soon as chunk data is expected, leaving it in <code>rawData</code> so
+     * that it can be copied straight into the caller's buffer.
+     */
+    private void processRaw(boolean direct) throws IOException {
         int pos;
         int i;
 
@@ -344,8 +426,8 @@ class ChunkedInputStream extends InputStream implements Hurryable {
                  * total read from the underlying stream to date.
                  */
                 case STATE_READING_CHUNK :
-                    /* no data available yet */
-                    if (rawPos >= rawCount) {
+                    /* no data available yet or to be read directly */
+                    if (direct || (rawPos >= rawCount)) {
                         return;
                     }
 
@@ -679,31 +761,7 @@ class ChunkedInputStream extends InputStream implements Hurryable {
             return 0;
         }
 
-        int avail = chunkCount - chunkPos;
-        if (avail <= 0) {
-            /*
-             * Optimization: if we're in the middle of the chunk read
-             * directly from the underlying stream into the caller's
-             * buffer
-             */
-            if (state == STATE_READING_CHUNK) {
-                return fastRead( b, off, len );
-            }
-
-            /*
-             * We're not in the middle of a chunk so we must read ahead
-             * until there is some chunk data available.
-             */
-            avail = readAhead(true);
-            if (avail < 0) {
-                return -1;      /* EOF */
-            }
-        }
-        int cnt = (avail < len) ? avail : len;
-        System.arraycopy(chunkData, chunkPos, b, off, cnt);
-        chunkPos += cnt;
-
-        return cnt;
+        return bulkRead(b, off, len);
     }
 
     /**
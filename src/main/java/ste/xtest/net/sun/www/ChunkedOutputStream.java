@@ -216,6 +216,24 @@ public class ChunkedOutputStream extends PrintStream {
         int inputIndex = off;  /* the index of the byte[] currently being written */
 
         do {
+            /* gathering write: nothing buffered and enough data for whole
+             * chunks, each chunk is written as header, a slice of b[] and
+             * footer without copying the data into buf[] */
+            if ((size == 0) && (bytesToWrite >= preferredChunkDataSize)) {
+                do {
+                    out.write(completeHeader, 0, preferedHeaderSize);
+                    out.write(b, inputIndex, preferredChunkDataSize);
+                    out.write(FOOTER, 0, FOOTER_SIZE);
+                    inputIndex += preferredChunkDataSize;
+                    bytesToWrite -= preferredChunkDataSize;
+                } while (bytesToWrite >= preferredChunkDataSize);
+
+                out.flush();
+                if (checkError() || (bytesToWrite == 0)) {
+                    break;
+                }
+            }
+
             /* enough data to complete a chunk */
             if (bytesToWrite >= spaceInCurrentChunk) {
 
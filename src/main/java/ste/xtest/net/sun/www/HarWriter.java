@@ -0,0 +1,274 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.www;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Writes the exchanges captured on a connection as entries of a HAR 1.2
+ * file. Only the heads of requests and responses are kept in memory, bodies
+ * are just counted; an exchange is complete when a new request is sent on the
+ * connection, when the connection input is closed (HttpCapture.close()) or on
+ * HttpCapture.drain().
+ *
+ * The file is kept a valid HAR document after each entry: the first entry
+ * creates it, the following ones are appended before the closing brackets.
+ * HarWriter is not thread safe, it is used by the HttpCapture writer thread.
+ */
+class HarWriter implements HttpCapture.Sink {
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private static final byte[] HEAD = (
+        "{\"log\":{\"version\":\"1.2\",\"creator\":{\"name\":\"xtest\",\"version\":\"1.0\"},\"entries\":["
+    ).getBytes(StandardCharsets.UTF_8);
+    private static final byte[] TAIL = "]}}".getBytes(StandardCharsets.UTF_8);
+
+    private final File file;
+    private final URL url;
+
+    private final Message request = new Message(), response = new Message();
+    private long startMillis, start, sent, firstReceived, received;
+
+    HarWriter(final File file, final URL url) {
+        this.file = file; this.url = url;
+    }
+
+    @Override
+    public void data(final boolean sent, final byte[] data, final long nanos, final long millis)
+    throws IOException {
+        if (sent) {
+            if (response.size() > 0) {
+                complete();
+            }
+            if (request.size() == 0) {
+                startMillis = millis; start = nanos;
+            }
+            request.append(data);
+            this.sent = nanos;
+        } else {
+            if (request.size() == 0) {
+                return; // nothing was asked, e.g. the connection was closed
+            }
+            if (response.size() == 0) {
+                firstReceived = nanos;
+            }
+            response.append(data);
+            received = nanos;
+        }
+    }
+
+    @Override
+    public void flush(final boolean complete) throws IOException {
+        if (complete && (response.size() > 0)) {
+            complete();
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void complete() throws IOException {
+        final StringWriter w = new StringWriter();
+        try (JsonGenerator json = JSON.createGenerator(w)) {
+            final String[] requestLine = request.line();
+            final String[] statusLine = response.line();
+            final String target = (requestLine.length > 1) ? requestLine[1] : "/";
+
+            json.writeStartObject();
+            json.writeStringField("startedDateTime", Instant.ofEpochMilli(startMillis).toString());
+            json.writeNumberField("time", millis(received - start));
+
+            json.writeObjectFieldStart("request");
+            json.writeStringField("method", requestLine[0]);
+            json.writeStringField("url", absolute(target));
+            json.writeStringField("httpVersion", (requestLine.length > 2) ? requestLine[2] : "");
+            json.writeArrayFieldStart("cookies"); json.writeEndArray();
+            request.headers(json);
+            json.writeArrayFieldStart("queryString");
+            final int q = target.indexOf('?');
+            if (q >= 0) {
+                for (String param: target.substring(q + 1).split("&")) {
+                    if (!param.isEmpty()) {
+                        final int eq = param.indexOf('=');
+                        json.writeStartObject();
+                        json.writeStringField("name", (eq < 0) ? param : param.substring(0, eq));
+                        json.writeStringField("value", (eq < 0) ? "" : param.substring(eq + 1));
+                        json.writeEndObject();
+                    }
+                }
+            }
+            json.writeEndArray();
+            json.writeNumberField("headersSize", request.head.size());
+            json.writeNumberField("bodySize", request.body);
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("response");
+            int status = 0;
+            try {
+                status = Integer.parseInt((statusLine.length > 1) ? statusLine[1] : "0");
+            } catch (NumberFormatException x) {
+                // not a valid status line, 0 it is
+            }
+            json.writeNumberField("status", status);
+            json.writeStringField("statusText", (statusLine.length > 2) ? statusLine[2] : "");
+            json.writeStringField("httpVersion", statusLine[0]);
+            json.writeArrayFieldStart("cookies"); json.writeEndArray();
+            response.headers(json);
+            json.writeObjectFieldStart("content");
+            json.writeNumberField("size", response.body);
+            final String type = response.header("Content-Type");
+            json.writeStringField("mimeType", (type == null) ? "" : type);
+            json.writeEndObject();
+            final String location = response.header("Location");
+            json.writeStringField("redirectURL", (location == null) ? "" : location);
+            json.writeNumberField("headersSize", response.head.size());
+            json.writeNumberField("bodySize", response.body);
+            json.writeEndObject();
+
+            json.writeObjectFieldStart("cache"); json.writeEndObject();
+
+            json.writeObjectFieldStart("timings");
+            json.writeNumberField("send", millis(sent - start));
+            json.writeNumberField("wait", millis(firstReceived - sent));
+            json.writeNumberField("receive", millis(received - firstReceived));
+            json.writeEndObject();
+
+            json.writeEndObject();
+        } finally {
+            request.reset(); response.reset();
+        }
+
+        append(w.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void append(final byte[] entry) throws IOException {
+        try (RandomAccessFile f = new RandomAccessFile(file, "rw")) {
+            final long length = f.length();
+            if (length < HEAD.length + TAIL.length) {
+                f.setLength(0);
+                f.write(HEAD);
+            } else {
+                f.seek(length - TAIL.length);
+                f.write(',');
+            }
+            f.write(entry);
+            f.write(TAIL);
+        }
+    }
+
+    private String absolute(final String target) {
+        if (target.startsWith("http://") || target.startsWith("https://")) {
+            return target;  // through a proxy
+        }
+        return url.getProtocol() + "://" + url.getHost()
+             + ((url.getPort() < 0) ? "" : ":" + url.getPort())
+             + target;
+    }
+
+    private static double millis(final long nanos) {
+        return Math.max(0, nanos) / 1_000_000.0;
+    }
+
+    // ---------------------------------------------------------------- Message
+
+    /**
+     * The head of a request or response, up to the empty line, and the
+     * number of bytes of the body
+     */
+    private static final class Message {
+        final ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+        long body = 0;
+        boolean complete = false;
+
+        void append(final byte[] data) {
+            if (complete) {
+                body += data.length;
+                return;
+            }
+
+            final int from = Math.max(0, head.size() - 3);
+            head.write(data, 0, data.length);
+
+            final byte[] bytes = head.toByteArray();
+            for (int i = from; i <= bytes.length - 4; ++i) {
+                if (bytes[i] == '\r' && bytes[i+1] == '\n' && bytes[i+2] == '\r' && bytes[i+3] == '\n') {
+                    complete = true;
+                    body = bytes.length - (i + 4);
+                    head.reset();
+                    head.write(bytes, 0, i + 4);
+                    return;
+                }
+            }
+        }
+
+        long size() {
+            return head.size() + body;
+        }
+
+        void reset() {
+            head.reset(); body = 0; complete = false;
+        }
+
+        String[] lines() {
+            return head.toString(StandardCharsets.ISO_8859_1).split("\r\n");
+        }
+
+        String[] line() {
+            return lines()[0].split(" ", 3);
+        }
+
+        String header(final String name) {
+            final String[] lines = lines();
+            for (int i = 1; i < lines.length; ++i) {
+                final int colon = lines[i].indexOf(':');
+                if ((colon > 0) && lines[i].substring(0, colon).trim().equalsIgnoreCase(name)) {
+                    return lines[i].substring(colon + 1).trim();
+                }
+            }
+            return null;
+        }
+
+        void headers(final JsonGenerator json) throws IOException {
+            json.writeArrayFieldStart("headers");
+            final String[] lines = lines();
+            for (int i = 1; i < lines.length; ++i) {
+                final int colon = lines[i].indexOf(':');
+                if (colon > 0) {
+                    json.writeStartObject();
+                    json.writeStringField("name", lines[i].substring(0, colon).trim());
+                    json.writeStringField("value", lines[i].substring(colon + 1).trim());
+                    json.writeEndObject();
+                }
+            }
+            json.writeEndArray();
+        }
+    }
+}
@@ -27,7 +27,16 @@ package ste.xtest.net.sun.www;
 
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.*;
 import java.util.regex.*;
 import org.apache.commons.lang3.exception.ExceptionUtils;
@@ -46,23 +55,43 @@ import ste.xtest.net.sun.NetProperties;
  * - if the file name contains a '%d', then that sequence will be replaced by a
  *   unique random number for each URL. This allow for multi-threaded captures
  *   of URLs matching the same pattern.
+ * - if the file name ends with .har, the exchanges are written in HAR 1.2
+ *   format with their timings, otherwise the raw traffic is written as text
  * - Rules are checked in sequence, in the same order as in the file, until a
  *   match is found or the end of the list is reached.
  *
  * Examples of rules:
  * www\.sun\.com , sun%d.log
  * yahoo\.com\/.*asf , yahoo.log
+ * localhost , /tmp/local.har
+ *
+ * The captured buffers are handed over through a lock-free ring to a single
+ * background writer, so that capturing costs the connections a copy of each
+ * buffer and not a disk write; use {@code drain()} to wait for the captured
+ * traffic to be written.
  *
  * @author jccollet
  */
 public class HttpCapture {
-    private File file = null;
-    private boolean incoming = true;
-    private BufferedWriter out = null;
+    private static final int SENT = 0, RECEIVED = 1, FLUSH = 2, CLOSE = 3, DRAIN = 4;
+    private static final int RING_CAPACITY = 4096;
+
     private static boolean initialized = false;
     private static volatile ArrayList<Pattern> patterns = null;
     private static volatile ArrayList<String> capFiles = null;
 
+    private static final Ring RING = new Ring(RING_CAPACITY);
+    private static volatile boolean idle = false;
+    private static volatile boolean writing = false;
+
+    private final File file;
+    private final java.net.URL url;
+
+    //
+    // accessed by the writer thread only
+    //
+    private Sink sink = null;
+
     private static synchronized void init() {
         initialized = true;
         String rulesFile = java.security.AccessController.doPrivileged(
@@ -111,36 +140,63 @@ public class HttpCapture {
         return initialized;
     }
 
-    private HttpCapture(File f, java.net.URL url) {
+    HttpCapture(File f, java.net.URL url) {
         file = f;
-        try {
-            out = new BufferedWriter(new FileWriter(file, true));
-            out.write("URL: " + url + "\n");
-        } catch (IOException ex) {
-            Logger.getLogger(HttpCapture.class.getName()).severe(ExceptionUtils.getStackTrace(ex));
-        }
+        this.url = url;
     }
 
-    public synchronized void sent(int c) throws IOException {
-        if (incoming) {
-            out.write("\n------>\n");
-            incoming = false;
-            out.flush();
+    public void sent(int c) throws IOException {
+        offer(new Record(this, SENT, new byte[] { (byte)c }, null));
+    }
+
+    public void received(int c) throws IOException {
+        offer(new Record(this, RECEIVED, new byte[] { (byte)c }, null));
+    }
+
+    /**
+     * Captures a buffer of sent bytes; the bytes are copied so the buffer
+     * can be reused as soon as the call returns
+     */
+    public void sent(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            offer(new Record(this, SENT, Arrays.copyOfRange(b, off, off + len), null));
         }
-        out.write(c);
     }
 
-    public synchronized void received(int c) throws IOException {
-        if (!incoming) {
-            out.write("\n<------\n");
-            incoming = true;
-            out.flush();
+    /**
+     * Captures a buffer of received bytes; the bytes are copied so the buffer
+     * can be reused as soon as the call returns
+     */
+    public void received(byte[] b, int off, int len) throws IOException {
+        if (len > 0) {
+            offer(new Record(this, RECEIVED, Arrays.copyOfRange(b, off, off + len), null));
         }
-        out.write(c);
     }
 
-    public synchronized void flush() throws IOException {
-        out.flush();
+    public void flush() throws IOException {
+        offer(new Record(this, FLUSH, null, null));
+    }
+
+    /**
+     * Tells the input of the connection has been closed: the pending
+     * exchange, if any, is complete and can be written
+     */
+    public void close() throws IOException {
+        offer(new Record(this, CLOSE, null, null));
+    }
+
+    /**
+     * Waits until all traffic captured so far is written
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static void drain() throws InterruptedException {
+        if (!writing) {
+            return;
+        }
+        final CountDownLatch done = new CountDownLatch(1);
+        offer(new Record(null, DRAIN, null, done));
+        done.await();
     }
 
     public static HttpCapture getCapture(java.net.URL url) {
@@ -170,4 +226,216 @@ public class HttpCapture {
         }
         return null;
     }
+
+    // --------------------------------------------------------- private methods
+
+    private static void offer(final Record r) {
+        final Thread writer = Writer.THREAD;
+        while (!RING.offer(r)) {
+            //
+            // the writer is behind, let's give it some time
+            //
+            LockSupport.unpark(writer);
+            Thread.yield();
+        }
+        if (idle) {
+            LockSupport.unpark(writer);
+        }
+    }
+
+    private static void write() {
+        final Set<HttpCapture> active = new HashSet<>();
+        while (true) {
+            Record r = RING.poll();
+            if (r == null) {
+                idle = true;
+                if ((r = RING.poll()) == null) {
+                    LockSupport.park();
+                }
+                idle = false;
+                if (r == null) {
+                    continue;
+                }
+            }
+
+            try {
+                if (r.type == DRAIN) {
+                    for (HttpCapture capture: active) {
+                        capture.sink.flush(true);
+                    }
+                    active.clear();
+                    r.done.countDown();
+                    continue;
+                }
+
+                final HttpCapture capture = r.capture;
+                if (capture.sink == null) {
+                    capture.sink = capture.file.getName().endsWith(".har")
+                                 ? new HarWriter(capture.file, capture.url)
+                                 : new TextSink(capture.file, capture.url);
+                }
+                if (r.type == CLOSE) {
+                    capture.sink.flush(true);
+                    active.remove(capture);
+                    continue;
+                }
+                active.add(capture);
+                if (r.type == FLUSH) {
+                    capture.sink.flush(false);
+                } else {
+                    capture.sink.data(r.type == SENT, r.data, r.nanos, r.millis);
+                }
+            } catch (Throwable x) {
+                Logger.getLogger(HttpCapture.class.getName()).severe(ExceptionUtils.getStackTrace(x));
+            }
+        }
+    }
+
+    // ----------------------------------------------------------------- Writer
+
+    /**
+     * The writer thread, started with the first capture
+     */
+    private static final class Writer {
+        static final Thread THREAD = start();
+
+        private static Thread start() {
+            final Thread t = new Thread(HttpCapture::write, "HttpCapture-Writer");
+            t.setDaemon(true);
+            t.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    drain();
+                } catch (InterruptedException x) {
+                    // exiting anyway
+                }
+            }));
+            writing = true;
+            return t;
+        }
+    }
+
+    // ----------------------------------------------------------------- Record
+
+    private static final class Record {
+        final HttpCapture capture;
+        final int type;
+        final byte[] data;
+        final CountDownLatch done;
+        final long nanos = System.nanoTime();
+        final long millis = System.currentTimeMillis();
+
+        Record(final HttpCapture capture, final int type, final byte[] data, final CountDownLatch done) {
+            this.capture = capture; this.type = type; this.data = data; this.done = done;
+        }
+    }
+
+    // ------------------------------------------------------------------- Ring
+
+    /**
+     * A bounded lock-free queue (D. Vyukov's array based MPMC queue): each
+     * slot has a sequence number telling producers and consumers whether it
+     * is free for the current lap
+     */
+    private static final class Ring {
+        private final AtomicReferenceArray<Record> slots;
+        private final AtomicLongArray sequences;
+        private final int mask;
+        private final AtomicLong head = new AtomicLong(), tail = new AtomicLong();
+
+        Ring(final int capacity) {
+            slots = new AtomicReferenceArray<>(capacity);
+            sequences = new AtomicLongArray(capacity);
+            for (int i = 0; i < capacity; ++i) {
+                sequences.set(i, i);
+            }
+            mask = capacity - 1;
+        }
+
+        boolean offer(final Record r) {
+            long position = tail.get();
+            while (true) {
+                final int slot = (int)position & mask;
+                final long diff = sequences.get(slot) - position;
+                if (diff == 0) {
+                    if (tail.compareAndSet(position, position + 1)) {
+                        slots.set(slot, r);
+                        sequences.set(slot, position + 1);
+                        return true;
+                    }
+                    position = tail.get();
+                } else if (diff < 0) {
+                    return false;  // full
+                } else {
+                    position = tail.get();
+                }
+            }
+        }
+
+        Record poll() {
+            long position = head.get();
+            while (true) {
+                final int slot = (int)position & mask;
+                final long diff = sequences.get(slot) - (position + 1);
+                if (diff == 0) {
+                    if (head.compareAndSet(position, position + 1)) {
+                        final Record r = slots.get(slot);
+                        slots.set(slot, null);
+                        sequences.set(slot, position + mask + 1);
+                        return r;
+                    }
+                    position = head.get();
+                } else if (diff < 0) {
+                    return null;  // empty
+                } else {
+                    position = head.get();
+                }
+            }
+        }
+    }
+
+    // ------------------------------------------------------------------- Sink
+
+    interface Sink {
+        void data(boolean sent, byte[] data, long nanos, long millis) throws IOException;
+
+        /**
+         * @param complete true if no more data is expected for the current
+         *        exchange
+         */
+        void flush(boolean complete) throws IOException;
+    }
+
+    /**
+     * The raw traffic as text, with the direction changes marked
+     */
+    private static final class TextSink implements Sink {
+        private final BufferedWriter out;
+        private boolean incoming = true;
+
+        TextSink(final File file, final java.net.URL url) throws IOException {
+            out = new BufferedWriter(new FileWriter(file, true));
+            out.write("URL: " + url + "\n");
+        }
+
+        @Override
+        public void data(final boolean sent, final byte[] data, final long nanos, final long millis)
+        throws IOException {
+            if (sent && incoming) {
+                out.write("\n------>\n");
+                incoming = false;
+                out.flush();
+            } else if (!sent && !incoming) {
+                out.write("\n<------\n");
+                incoming = true;
+                out.flush();
+            }
+            out.write(new String(data, StandardCharsets.ISO_8859_1));
+        }
+
+        @Override
+        public void flush(final boolean complete) throws IOException {
+            out.flush();
+        }
+    }
 }
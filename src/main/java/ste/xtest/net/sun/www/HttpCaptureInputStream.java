@@ -29,7 +29,7 @@ import java.io.*;
 
 /**
  * A Simple FilterInputStream subclass to capture HTTP traffic.
- * Every byte read is also passed to the HttpCapture class.
+ * Every buffer read is also passed to the HttpCapture class.
  *
  * @author jccollet
  */
@@ -44,14 +44,16 @@ public class HttpCaptureInputStream extends FilterInputStream {
     @Override
     public int read() throws IOException {
         int i = super.read();
-        capture.received(i);
+        if (i >= 0) {
+            capture.received(i);
+        }
         return i;
     }
 
     @Override
     public void close() throws IOException {
         try {
-            capture.flush();
+            capture.close();
         } catch (IOException iOException) {
         }
         super.close();
@@ -59,18 +61,14 @@ public class HttpCaptureInputStream extends FilterInputStream {
 
     @Override
     public int read(byte[] b) throws IOException {
-        int ret = super.read(b);
-        for (int i = 0; i < ret; i++) {
-            capture.received(b[i]);
-        }
-        return ret;
+        return read(b, 0, b.length);
     }
 
     @Override
     public int read(byte[] b, int off, int len) throws IOException {
         int ret = super.read(b, off, len);
-        for (int i = 0; i < ret; i++) {
-            capture.received(b[off+i]);
+        if (ret > 0) {
+            capture.received(b, off, ret);
         }
         return ret;
     }
@@ -29,7 +29,7 @@ import java.io.*;
 
 /**
  * A Simple FilterOutputStream subclass to capture HTTP traffic.
- * Every byte written is also passed to the HttpCapture class.
+ * Every buffer written is also passed to the HttpCapture class.
  *
  * @author jccollet
  */
@@ -49,17 +49,13 @@ public class HttpCaptureOutputStream extends FilterOutputStream {
 
     @Override
     public void write(byte[] ba) throws IOException {
-        for (byte b : ba) {
-            capture.sent(b);
-        }
+        capture.sent(ba, 0, ba.length);
         out.write(ba);
     }
 
     @Override
     public void write(byte[] b, int off, int len) throws IOException {
-        for (int i = off; i < len; i++) {
-            capture.sent(b[i]);
-        }
+        capture.sent(b, off, len);
         out.write(b, off, len);
     }
 
@@ -45,6 +45,12 @@ class MessageHeader {
     private String values[];
     private int nkeys;
 
+    /* positions of the keys by canonical (lower case) name, in order */
+    private final HashMap<String, Positions> index = new HashMap<>();
+
+    /* immutable view of the current content, null when it must be rebuilt */
+    private volatile Snapshot snapshot;
+
     public MessageHeader () {
         grow();
     }
@@ -56,10 +62,11 @@ class MessageHeader {
     /**
      * Returns list of header names in a comma separated list
      */
-    public synchronized String getHeaderNamesInList() {
+    public String getHeaderNamesInList() {
+        Snapshot s = snapshot();
         StringJoiner joiner = new StringJoiner(",");
-        for (int i=0; i<nkeys; i++) {
-            joiner.add(keys[i]);
+        for (int i=0; i<s.nkeys; i++) {
+            joiner.add(s.keys[i]);
         }
         return joiner.toString();
     }
@@ -72,6 +79,24 @@ class MessageHeader {
         values = null;
         nkeys = 0;
         grow();
+        reindex();
+    }
+
+    /**
+     * Returns an immutable view of the current key/value pairs. The view is
+     * shared by all readers until the header is changed again, so reading
+     * it does not need any lock.
+     */
+    public Snapshot snapshot() {
+        Snapshot s = snapshot;
+        if (s == null) {
+            synchronized (this) {
+                if ((s = snapshot) == null) {
+                    snapshot = s = new Snapshot(keys, values, nkeys, index);
+                }
+            }
+        }
+        return s;
     }
 
     /**
@@ -80,36 +105,21 @@ class MessageHeader {
      * @param k the key to find.
      * @return null if not found.
      */
-    public synchronized String findValue(String k) {
-        if (k == null) {
-            for (int i = nkeys; --i >= 0;)
-                if (keys[i] == null)
-                    return values[i];
-        } else
-            for (int i = nkeys; --i >= 0;) {
-                if (k.equalsIgnoreCase(keys[i]))
-                    return values[i];
-            }
-        return null;
+    public String findValue(String k) {
+        return snapshot().findValue(k);
     }
 
     // return the location of the key
-    public synchronized int getKey(String k) {
-        for (int i = nkeys; --i >= 0;)
-            if ((keys[i] == k) ||
-                (k != null && k.equalsIgnoreCase(keys[i])))
-                return i;
-        return -1;
+    public int getKey(String k) {
+        return snapshot().getKey(k);
     }
 
-    public synchronized String getKey(int n) {
-        if (n < 0 || n >= nkeys) return null;
-        return keys[n];
+    public String getKey(int n) {
+        return snapshot().getKey(n);
     }
 
-    public synchronized String getValue(int n) {
-        if (n < 0 || n >= nkeys) return null;
-        return values[n];
+    public String getValue(int n) {
+        return snapshot().getValue(n);
     }
 
     /** Deprecated: Use multiValueIterator() instead.
@@ -123,22 +133,15 @@ class MessageHeader {
      *          }
      *  </pre>
      */
-    public synchronized String findNextValue(String k, String v) {
+    public String findNextValue(String k, String v) {
+        Snapshot s = snapshot();
+        int[] at = s.positions(k);
         boolean foundV = false;
-        if (k == null) {
-            for (int i = nkeys; --i >= 0;)
-                if (keys[i] == null)
-                    if (foundV)
-                        return values[i];
-                    else if (values[i] == v)
-                        foundV = true;
-        } else
-            for (int i = nkeys; --i >= 0;)
-                if (k.equalsIgnoreCase(keys[i]))
-                    if (foundV)
-                        return values[i];
-                    else if (values[i] == v)
-                        foundV = true;
+        for (int i = at.length; --i >= 0;)
+            if (foundV)
+                return s.values[at[i]];
+            else if (s.values[at[i]] == v)
+                foundV = true;
         return null;
     }
 
@@ -147,7 +150,7 @@ class MessageHeader {
      * appears. All Performed on headers with key being k.
      * @return true if there is a change
      */
-    public boolean filterNTLMResponses(String k) {
+    public synchronized boolean filterNTLMResponses(String k) {
         boolean found = false;
         for (int i=0; i<nkeys; i++) {
             if (k.equalsIgnoreCase(keys[i])
@@ -173,51 +176,34 @@ class MessageHeader {
             }
             if (j != nkeys) {
                 nkeys = j;
+                reindex();
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Iterates the values of a key as they were when the iterator was
+     * created; later changes of the header are not seen.
+     */
     class HeaderIterator implements Iterator<String> {
         int index = 0;
-        int next = -1;
-        String key;
-        boolean haveNext = false;
-        Object lock;
+        final Snapshot s;
+        final int[] at;
 
         public HeaderIterator (String k, Object lock) {
-            key = k;
-            this.lock = lock;
+            s = snapshot();
+            at = s.positions(k);
         }
         public boolean hasNext () {
-            synchronized (lock) {
-                if (haveNext) {
-                    return true;
-                }
-                while (index < nkeys) {
-                    if (key.equalsIgnoreCase (keys[index])) {
-                        haveNext = true;
-                        next = index++;
-                        return true;
-                    }
-                    index ++;
-                }
-                return false;
-            }
+            return index < at.length;
         }
         public String next() {
-            synchronized (lock) {
-                if (haveNext) {
-                    haveNext = false;
-                    return values [next];
-                }
-                if (hasNext()) {
-                    return next();
-                } else {
-                    throw new NoSuchElementException ("No more elements");
-                }
+            if (index < at.length) {
+                return s.values[at[index++]];
             }
+            throw new NoSuchElementException ("No more elements");
         }
         public void remove () {
             throw new UnsupportedOperationException ("remove not allowed");
@@ -232,69 +218,28 @@ class MessageHeader {
         return new HeaderIterator (k, this);
     }
 
-    public synchronized Map<String, List<String>> getHeaders() {
-        return getHeaders(null);
+    public Map<String, List<String>> getHeaders() {
+        return snapshot().getHeaders();
     }
 
-    public synchronized Map<String, List<String>> getHeaders(String[] excludeList) {
+    public Map<String, List<String>> getHeaders(String[] excludeList) {
         return filterAndAddHeaders(excludeList, null);
     }
 
-    public synchronized Map<String, List<String>> filterAndAddHeaders(
+    public Map<String, List<String>> filterAndAddHeaders(
             String[] excludeList, Map<String, List<String>>  include) {
-        boolean skipIt = false;
-        Map<String, List<String>> m = new HashMap<>();
-        for (int i = nkeys; --i >= 0;) {
-            if (excludeList != null) {
-                // check if the key is in the excludeList.
-                // if so, don't include it in the Map.
-                for (int j = 0; j < excludeList.length; j++) {
-                    if ((excludeList[j] != null) &&
-                        (excludeList[j].equalsIgnoreCase(keys[i]))) {
-                        skipIt = true;
-                        break;
-                    }
-                }
-            }
-            if (!skipIt) {
-                List<String> l = m.get(keys[i]);
-                if (l == null) {
-                    l = new ArrayList<>();
-                    m.put(keys[i], l);
-                }
-                l.add(values[i]);
-            } else {
-                // reset the flag
-                skipIt = false;
-            }
-        }
-
-        if (include != null) {
-                for (Map.Entry<String,List<String>> entry: include.entrySet()) {
-                List<String> l = m.get(entry.getKey());
-                if (l == null) {
-                    l = new ArrayList<>();
-                    m.put(entry.getKey(), l);
-                }
-                l.addAll(entry.getValue());
-            }
-        }
-
-        for (String key : m.keySet()) {
-            m.put(key, Collections.unmodifiableList(m.get(key)));
-        }
-
-        return Collections.unmodifiableMap(m);
+        return snapshot().filterAndAddHeaders(excludeList, include);
     }
 
     /** Prints the key-value pairs represented by this
         header.  Also prints the RFC required blank line
         at the end. Omits pairs with a null key. */
-    public synchronized void print(PrintStream p) {
-        for (int i = 0; i < nkeys; i++)
-            if (keys[i] != null) {
-                p.print(keys[i] +
-                    (values[i] != null ? ": "+values[i]: "") + "\r\n");
+    public void print(PrintStream p) {
+        Snapshot s = snapshot();
+        for (int i = 0; i < s.nkeys; i++)
+            if (s.keys[i] != null) {
+                p.print(s.keys[i] +
+                    (s.values[i] != null ? ": "+s.values[i]: "") + "\r\n");
             }
         p.print("\r\n");
         p.flush();
@@ -306,7 +251,9 @@ class MessageHeader {
         grow();
         keys[nkeys] = k;
         values[nkeys] = v;
+        index.computeIfAbsent(canonical(k), key -> new Positions()).add(nkeys);
         nkeys++;
+        snapshot = null;
     }
 
     /** Prepends a key value pair to the beginning of the
@@ -320,6 +267,7 @@ class MessageHeader {
         keys[0] = k;
         values[0] = v;
         nkeys++;
+        reindex();
     }
 
     /** Overwrite the previous key/val pair at location 'i'
@@ -334,8 +282,14 @@ class MessageHeader {
         } else if (i >= nkeys) {
             add(k, v);
         } else {
+            boolean sameKey = Objects.equals(canonical(k), canonical(keys[i]));
             keys[i] = k;
             values[i] = v;
+            if (sameKey) {
+                snapshot = null;
+            } else {
+                reindex();
+            }
         }
     }
 
@@ -355,6 +309,16 @@ class MessageHeader {
         }
     }
 
+    /** rebuild the index after pairs have been moved or removed */
+
+    private void reindex() {
+        index.clear();
+        for (int i = 0; i < nkeys; i++) {
+            index.computeIfAbsent(canonical(keys[i]), key -> new Positions()).add(i);
+        }
+        snapshot = null;
+    }
+
     /**
      * Remove the key from the header. If there are multiple values under
      * the same key, they are all removed.
@@ -363,27 +327,27 @@ class MessageHeader {
      * @param k the key to remove
      */
     public synchronized void remove(String k) {
-        if(k == null) {
-            for (int i = 0; i < nkeys; i++) {
-                while (keys[i] == null && i < nkeys) {
-                    for(int j=i; j<nkeys-1; j++) {
-                        keys[j] = keys[j+1];
-                        values[j] = values[j+1];
-                    }
-                    nkeys--;
-                }
+        Positions at = index.get(canonical(k));
+        if (at == null) {
+            return;
+        }
+        int j = 0;
+        for (int i = 0, r = 0; i < nkeys; i++) {
+            if ((r < at.n) && (at.at[r] == i)) {
+                r++;
+                continue;
             }
-        } else {
-            for (int i = 0; i < nkeys; i++) {
-                while (k.equalsIgnoreCase(keys[i]) && i < nkeys) {
-                    for(int j=i; j<nkeys-1; j++) {
-                        keys[j] = keys[j+1];
-                        values[j] = values[j+1];
-                    }
-                    nkeys--;
-                }
+            if (i != j) {
+                keys[j] = keys[i];
+                values[j] = values[i];
             }
+            j++;
+        }
+        for (int i = j; i < nkeys; i++) {
+            keys[i] = values[i] = null;
         }
+        nkeys = j;
+        reindex();
     }
 
     /** Sets the value of a key.  If the key already
@@ -391,11 +355,12 @@ class MessageHeader {
         changed.  Otherwise a new key/value pair will
         be added to the end of the header. */
     public synchronized void set(String k, String v) {
-        for (int i = nkeys; --i >= 0;)
-            if (k.equalsIgnoreCase(keys[i])) {
-                values[i] = v;
-                return;
-            }
+        Positions at = index.get(canonical(k));
+        if (at != null) {
+            values[at.at[at.n-1]] = v;
+            snapshot = null;
+            return;
+        }
         add(k, v);
     }
 
@@ -404,7 +369,8 @@ class MessageHeader {
      */
 
     public synchronized void setIfNotSet(String k, String v) {
-        if (findValue(k) == null) {
+        Positions at = index.get(canonical(k));
+        if (at == null || values[at.at[at.n-1]] == null) {
             add(k, v);
         }
     }
@@ -435,6 +401,7 @@ class MessageHeader {
     public void parseHeader(InputStream is) throws java.io.IOException {
         synchronized (this) {
             nkeys = 0;
+            reindex();
         }
         mergeHeader(is);
     }
@@ -518,4 +485,149 @@ class MessageHeader {
         }
         return result;
     }
-}
\ No newline at end of file
+
+    /** The canonical form of a key in the index */
+    private static String canonical(String k) {
+        return (k == null) ? null : k.toLowerCase(Locale.ROOT);
+    }
+
+    // ------------------------------------------------------------- Positions
+
+    /** Positions of the pairs with the same canonical key, in order */
+    private static final class Positions {
+        int[] at = new int[2];
+        int n;
+
+        void add(int i) {
+            if (n == at.length) {
+                at = Arrays.copyOf(at, n * 2);
+            }
+            at[n++] = i;
+        }
+    }
+
+    // -------------------------------------------------------------- Snapshot
+
+    /**
+     * An immutable view of a MessageHeader with its key index. Lookups by
+     * key are case insensitive (keys are compared in lower case, as HTTP
+     * header names are ASCII) and do not scan the pairs; getHeaders() is
+     * built once per snapshot.
+     */
+    public static final class Snapshot {
+        private static final int[] NONE = new int[0];
+
+        private final String[] keys;
+        private final String[] values;
+        private final int nkeys;
+        private final Map<String, int[]> index;
+        private volatile Map<String, List<String>> headers;
+
+        private Snapshot(String[] keys, String[] values, int nkeys, Map<String, Positions> index) {
+            this.keys = (nkeys == 0) ? new String[0] : Arrays.copyOf(keys, nkeys);
+            this.values = (nkeys == 0) ? new String[0] : Arrays.copyOf(values, nkeys);
+            this.nkeys = nkeys;
+            HashMap<String, int[]> m = new HashMap<>((int)(index.size() / 0.75f) + 1);
+            for (Map.Entry<String, Positions> e: index.entrySet()) {
+                m.put(e.getKey(), Arrays.copyOf(e.getValue().at, e.getValue().n));
+            }
+            this.index = m;
+        }
+
+        public int size() {
+            return nkeys;
+        }
+
+        public String getKey(int n) {
+            if (n < 0 || n >= nkeys) return null;
+            return keys[n];
+        }
+
+        public String getValue(int n) {
+            if (n < 0 || n >= nkeys) return null;
+            return values[n];
+        }
+
+        /** @return the position of the last pair with key k or -1 */
+        public int getKey(String k) {
+            int[] at = positions(k);
+            return (at.length == 0) ? -1 : at[at.length-1];
+        }
+
+        /** @return the value of the last pair with key k or null */
+        public String findValue(String k) {
+            int[] at = positions(k);
+            return (at.length == 0) ? null : values[at[at.length-1]];
+        }
+
+        /** @return all the values of k in order, empty if none */
+        public List<String> findValues(String k) {
+            int[] at = positions(k);
+            String[] l = new String[at.length];
+            for (int i = 0; i < at.length; i++) {
+                l[i] = values[at[i]];
+            }
+            return Collections.unmodifiableList(Arrays.asList(l));
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            Map<String, List<String>> m = headers;
+            if (m == null) {
+                headers = m = filterAndAddHeaders(null, null);
+            }
+            return m;
+        }
+
+        public Map<String, List<String>> filterAndAddHeaders(
+                String[] excludeList, Map<String, List<String>>  include) {
+            boolean skipIt = false;
+            Map<String, List<String>> m = new HashMap<>();
+            for (int i = nkeys; --i >= 0;) {
+                if (excludeList != null) {
+                    // check if the key is in the excludeList.
+                    // if so, don't include it in the Map.
+                    for (int j = 0; j < excludeList.length; j++) {
+                        if ((excludeList[j] != null) &&
+                            (excludeList[j].equalsIgnoreCase(keys[i]))) {
+                            skipIt = true;
+                            break;
+                        }
+                    }
+                }
+                if (!skipIt) {
+                    List<String> l = m.get(keys[i]);
+                    if (l == null) {
+                        l = new ArrayList<>();
+                        m.put(keys[i], l);
+                    }
+                    l.add(values[i]);
+                } else {
+                    // reset the flag
+                    skipIt = false;
+                }
+            }
+
+            if (include != null) {
+                    for (Map.Entry<String,List<String>> entry: include.entrySet()) {
+                    List<String> l = m.get(entry.getKey());
+                    if (l == null) {
+                        l = new ArrayList<>();
+                        m.put(entry.getKey(), l);
+                    }
+                    l.addAll(entry.getValue());
+                }
+            }
+
+            for (String key : m.keySet()) {
+                m.put(key, Collections.unmodifiableList(m.get(key)));
+            }
+
+            return Collections.unmodifiableMap(m);
+        }
+
+        private int[] positions(String k) {
+            int[] at = index.get(canonical(k));
+            return (at == null) ? NONE : at;
+        }
+    }
+}
@@ -21,7 +21,10 @@
  */
 package ste.xtest.web;
 
+import com.sun.net.httpserver.SimpleFileServer;
+import com.sun.net.httpserver.SimpleFileServer.OutputLevel;
 import ste.xtest.net.http.LocalFileServer;
+import ste.xtest.net.http.ServerMetrics;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.net.URI;
@@ -124,9 +127,11 @@ public class BugFreeWeb extends ApplicationTest {
             // Create a LocalFileServer serving from a temporary directory
             //
             localFileServerRoot = Files.createTempDirectory("xtest-http-root");
-            localFileServer = new LocalFileServer(
-                localFileServerRoot.toString(), preLoadScripts
-            );
+            localFileServer = LocalFileServer.builder(localFileServerRoot.toString())
+                .bootstrapScripts(preLoadScripts)
+                .accessLog(SimpleFileServer.createOutputFilter(System.out, OutputLevel.VERBOSE))
+                .metrics(new ServerMetrics())
+                .build();
 
             //
             // Let's make sure the directory is deleted at JVM shutdown
@@ -146,6 +151,10 @@ public class BugFreeWeb extends ApplicationTest {
     @Before
     public void before() throws Exception {
         errors.clear();
+        //
+        // localFileServer.metrics (also at /__xtest__/metrics) are per test
+        //
+        localFileServer.metrics.reset();
     }
 
     @After
@@ -23,11 +23,27 @@ package ste.xtest.net;
 
 import java.io.IOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
 import static org.assertj.core.data.MapEntry.entry;
 import static org.junit.Assert.fail;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import ste.xtest.net.StubStreamHandler.URLMap.Scope;
 
 /**
  *
@@ -46,7 +62,13 @@ public class BugFreeStubStreamHandler {
 
     @Before
     public void before() throws Exception {
-        StubStreamHandler.URLMap.getMapping().clear();
+        StubStreamHandler.URLMap.close();
+        StubStreamHandler.URLMap.clear();
+    }
+
+    @After
+    public void after() throws Exception {
+        StubStreamHandler.URLMap.close();
     }
 
     @Test
@@ -139,4 +161,155 @@ public class BugFreeStubStreamHandler {
             .containsKeys("http://server1/index.html#/fragment", "http://server2/index.html#something?else");
 
     }
+
+    @Test
+    public void thread_scope() throws Exception {
+        final StubURLConnection G = new StubURLConnection(new URL(TEST_URL_HTTP1)).status(201);
+        StubStreamHandler.URLMap.add(G);
+
+        StubStreamHandler.URLMap.open(Scope.THREAD);
+        then(StubStreamHandler.URLMap.getMapping()).isEmpty();
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP1).getResponseCode()).isEqualTo(201); // global
+
+        StubStreamHandler.URLMap.add(new StubURLConnection(new URL(TEST_URL_HTTP1)).status(202));
+        StubStreamHandler.URLMap.add(new StubURLConnection(new URL(TEST_URL_HTTP2)).status(203));
+        then(StubStreamHandler.URLMap.getMapping()).hasSize(2);
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP1).getResponseCode()).isEqualTo(202);
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP2).getResponseCode()).isEqualTo(203);
+
+        //
+        // not visible to other threads, not even children
+        //
+        final AtomicReference<StubURLConnection> other = new AtomicReference<>();
+        Thread t = new Thread(() -> other.set(StubStreamHandler.URLMap.get(TEST_URL_HTTP2)));
+        t.start(); t.join();
+        then(other.get()).isNull();
+
+        StubStreamHandler.URLMap.close();
+        then(StubStreamHandler.URLMap.getMapping()).containsOnly(entry(TEST_URL_HTTP1, G));
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP1).getResponseCode()).isEqualTo(201);
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP2)).isNull();
+    }
+
+    @Test
+    public void inheritable_scope() throws Exception {
+        StubStreamHandler.URLMap.open(Scope.INHERITABLE);
+        StubStreamHandler.URLMap.add(new StubURLConnection(new URL(TEST_URL_HTTP1)).status(202));
+
+        final AtomicReference<StubURLConnection> child = new AtomicReference<>();
+        final Thread t = new Thread(() -> child.set(StubStreamHandler.URLMap.get(TEST_URL_HTTP1)));
+        t.start(); t.join();
+        then(child.get().getResponseCode()).isEqualTo(202);
+
+        //
+        // opening the global scope closes the current one
+        //
+        StubStreamHandler.URLMap.open(Scope.GLOBAL);
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP1)).isNull();
+    }
+
+    @Test
+    public void scope_per_test() throws Throwable {
+        final TestRule RULE = StubStreamHandler.URLMap.scoped(Scope.THREAD);
+        final AtomicReference<StubURLConnection> inTest = new AtomicReference<>();
+
+        RULE.apply(new Statement() {
+            @Override
+            public void evaluate() throws Throwable {
+                StubStreamHandler.URLMap.add(new StubURLConnection(new URL(TEST_URL_HTTP1)));
+                inTest.set(StubStreamHandler.URLMap.get(TEST_URL_HTTP1));
+            }
+        }, Description.EMPTY).evaluate();
+
+        then(inTest.get()).isNotNull();
+        then(StubStreamHandler.URLMap.get(TEST_URL_HTTP1)).isNull();
+        then(StubStreamHandler.URLMap.getMapping()).isEmpty();
+    }
+
+    @Test
+    public void parallel_scopes() throws Exception {
+        final int THREADS = 8;
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        final List<Future<Boolean>> results = new ArrayList<>();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int i = 0; i < THREADS; ++i) {
+                final int status = 200 + i;
+                results.add(executor.submit(() -> {
+                    StubStreamHandler.URLMap.open(Scope.THREAD);
+                    try {
+                        StubStreamHandler.URLMap.add(new StubURLConnection(new URL(TEST_URL_HTTP1)).status(status));
+                        barrier.await();
+                        for (int j = 0; j < 100; ++j) {
+                            if (StubStreamHandler.URLMap.get(TEST_URL_HTTP1).getStatus() != status) {
+                                return false;
+                            }
+                        }
+                        return true;
+                    } finally {
+                        StubStreamHandler.URLMap.close();
+                    }
+                }));
+            }
+            for (Future<Boolean> result: results) {
+                then(result.get(60, TimeUnit.SECONDS)).isTrue();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void route_by_url_template() throws Exception {
+        final Map<String, String> called = new HashMap<>();
+        StubStreamHandler.URLMap.route(
+            new StubURLConnection(new URL("http://192.168.0.1/users/{id}/{tab}")).status(201)
+            .exec((c) -> { called.putAll(c.getVariables()); called.put("url", c.getURL().toString()); })
+        );
+        StubStreamHandler.URLMap.add(new StubURLConnection(new URL("http://192.168.0.1/users/me/home")).status(202));
+
+        final StubStreamHandler h = new StubStreamHandler();
+
+        StubURLConnection c = (StubURLConnection)h.openConnection(new URL("http://192.168.0.1/users/42/home?x=y"));
+        then(c.getResponseCode()).isEqualTo(201);
+        then(c.getURL().toString()).isEqualTo("http://192.168.0.1/users/42/home?x=y");
+        then(c.getVariables()).containsOnly(entry("id", "42"), entry("tab", "home"));
+        then(called).containsOnly(
+            entry("id", "42"), entry("tab", "home"), entry("url", "http://192.168.0.1/users/42/home?x=y")
+        );
+
+        //
+        // exact URLs first
+        //
+        c = (StubURLConnection)h.openConnection(new URL("http://192.168.0.1/users/me/home"));
+        then(c.getResponseCode()).isEqualTo(202);
+        then(c.getVariables()).isEmpty();
+
+        then(h.openConnection(new URL("http://192.168.0.1/users/42")))
+            .isInstanceOf(ste.xtest.net.sun.protocol.http.HttpURLConnection.class);
+
+        //
+        // routes are scoped too
+        //
+        StubStreamHandler.URLMap.open(Scope.THREAD);
+        StubStreamHandler.URLMap.route(new StubURLConnection(new URL("http://192.168.0.1/users/{id}/{tab}")).status(203));
+        then(StubStreamHandler.URLMap.get("http://192.168.0.1/users/1/home").getResponseCode()).isEqualTo(203);
+        StubStreamHandler.URLMap.clear();
+        then(StubStreamHandler.URLMap.get("http://192.168.0.1/users/1/home").getResponseCode()).isEqualTo(201);
+        StubStreamHandler.URLMap.close();
+
+        StubStreamHandler.URLMap.clear();
+        then(StubStreamHandler.URLMap.get("http://192.168.0.1/users/1/home")).isNull();
+        then(StubStreamHandler.URLMap.getMapping()).isEmpty();
+    }
+
+    @Test
+    public void invalid_scope() {
+        thenThrownBy(() -> StubStreamHandler.URLMap.open(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("scope can not be null");
+        thenThrownBy(() -> StubStreamHandler.URLMap.scoped(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("scope can not be null");
+    }
 }
@@ -0,0 +1,156 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net;
+
+import java.net.URL;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import static org.assertj.core.data.MapEntry.entry;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeURLRouter {
+
+    @Test
+    public void route_by_template() throws Exception {
+        final URLRouter R = new URLRouter();
+        final StubURLConnection USERS = stub("http://api.com/users"),
+                                USER = stub("http://api.com/users/{id}"),
+                                POSTS = stub("http://api.com/users/{user}/posts/{post}"),
+                                ME = stub("http://api.com/users/me");
+        R.add("http://api.com/users", USERS);
+        R.add("http://api.com/users/{id}", USER);
+        R.add("http://api.com/users/{user}/posts/{post}", POSTS);
+        R.add("http://api.com/users/me", ME);
+        then(R.size()).isEqualTo(4);
+
+        then(R.find("http://api.com/users").stub).isSameAs(USERS);
+        then(R.find("http://api.com/users").variables).isEmpty();
+
+        URLRouter.Match m = R.find("http://api.com/users/42");
+        then(m.stub).isSameAs(USER);
+        then(m.variables).containsOnly(entry("id", "42"));
+
+        m = R.find("http://api.com/users/42/posts/abc");
+        then(m.stub).isSameAs(POSTS);
+        then(m.variables).containsOnly(entry("user", "42"), entry("post", "abc"));
+
+        //
+        // literals win over variables
+        //
+        then(R.find("http://api.com/users/me").stub).isSameAs(ME);
+        then(R.find("http://api.com/users/me").variables).isEmpty();
+
+        then(R.find("http://api.com/users/42/posts")).isNull();
+        then(R.find("http://api.com/other")).isNull();
+        then(R.find("http://api.com")).isNull();
+        then(R.find("http://other.com/users/42")).isNull();
+        then(R.find("https://api.com/users/42")).isNull();
+    }
+
+    @Test
+    public void query_and_fragment_are_ignored() throws Exception {
+        final URLRouter R = new URLRouter();
+        final StubURLConnection S = stub("http://api.com/search?q=1");
+        R.add("http://api.com/search?q=1", S);
+
+        then(R.find("http://api.com/search").stub).isSameAs(S);
+        then(R.find("http://api.com/search?q=2&page=3").stub).isSameAs(S);
+        then(R.find("http://api.com/search#top").stub).isSameAs(S);
+        then(R.find("http://api.com/search/?q=2").stub).isSameAs(S);
+        then(R.find("HTTP://API.com/search").stub).isSameAs(S);
+        then(R.find("http://api.com/search2?q=1")).isNull();
+    }
+
+    @Test
+    public void route_by_wildcards() throws Exception {
+        final URLRouter R = new URLRouter();
+        final StubURLConnection ANY = stub("http://cdn.com/img/*/thumb"),
+                                TAIL = stub("http://cdn.com/static/**"),
+                                ROOT = stub("http://cdn.com/**"),
+                                CSS = stub("http://cdn.com/static/css/main.css");
+        R.add("http://cdn.com/img/*/thumb", ANY);
+        R.add("http://cdn.com/static/**", TAIL);
+        R.add("http://cdn.com/**", ROOT);
+        R.add("http://cdn.com/static/css/main.css", CSS);
+
+        then(R.find("http://cdn.com/img/1/thumb").stub).isSameAs(ANY);
+        then(R.find("http://cdn.com/img/1/thumb").variables).isEmpty();
+        then(R.find("http://cdn.com/static").stub).isSameAs(TAIL);
+        then(R.find("http://cdn.com/static/js/app.js").stub).isSameAs(TAIL);
+        then(R.find("http://cdn.com/static/css/main.css").stub).isSameAs(CSS);
+        then(R.find("http://cdn.com/static/css/other.css").stub).isSameAs(TAIL);
+
+        //
+        // backtracking to the closest **
+        //
+        then(R.find("http://cdn.com/img/1/large").stub).isSameAs(ROOT);
+        then(R.find("http://cdn.com/").stub).isSameAs(ROOT);
+        then(R.find("http://cdn.com").stub).isSameAs(ROOT);
+    }
+
+    @Test
+    public void replace_and_clear() throws Exception {
+        final URLRouter R = new URLRouter();
+        final StubURLConnection S1 = stub("http://api.com/users/{id}"),
+                                S2 = stub("http://api.com/users/{user}");
+        R.add("http://api.com/users/{id}", S1);
+        R.add("http://api.com/users/{user}", S2);
+
+        then(R.size()).isEqualTo(1);
+        then(R.find("http://api.com/users/1").stub).isSameAs(S2);
+        then(R.find("http://api.com/users/1").variables).containsOnly(entry("user", "1"));
+
+        R.clear();
+        then(R.size()).isZero();
+        then(R.find("http://api.com/users/1")).isNull();
+    }
+
+    @Test
+    public void many_templates() throws Exception {
+        final URLRouter R = new URLRouter();
+        for (int i = 0; i < 20000; ++i) {
+            R.add("http://api" + (i % 10) + ".com/items/" + i + "/{detail}", stub("http://api.com/" + i));
+        }
+        then(R.size()).isEqualTo(20000);
+
+        final URLRouter.Match m = R.find("http://api7.com/items/12347/color?x=1");
+        then(m.stub.getURL().toString()).isEqualTo("http://api.com/12347");
+        then(m.variables).containsOnly(entry("detail", "color"));
+        then(R.find("http://api8.com/items/12347/color")).isNull();
+    }
+
+    @Test
+    public void invalid_template() {
+        thenThrownBy(() -> new URLRouter().add("http://api.com/**/more", stub("http://api.com")))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("** can only be the last segment of http://api.com/**/more");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private StubURLConnection stub(final String url) throws Exception {
+        return new StubURLConnection(new URL(url));
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ *
+ */
+public class BugFreeCassette {
+
+    private static final String URL1 = "http://localhost/one";
+    private static final String URL2 = "http://localhost/two";
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void record_and_replay() throws Exception {
+        final Path CASSETTE = TMP.newFile().toPath();
+
+        //
+        // the "real" client here is a stubbed one
+        //
+        final HttpClient REAL = new HttpClientStubber()
+            .withStub(URL1, new StubHttpResponse().text("hello world").header("X-Test", "one"))
+            .withStub(new ANDMatcher(new URIMatcher(URL2), new MethodMatcher("POST")),
+                new StubHttpResponse().json("{\"created\": true}").statusCode(201))
+            .withStub(new ANDMatcher(new URIMatcher(URL2), new MethodMatcher("GET")),
+                new StubHttpResponse().text("two"))
+            .build();
+
+        try (RecordingHttpClient HTTP = new RecordingHttpClient(REAL, CASSETTE)) {
+            then(HTTP.send(get(URL1), BodyHandlers.ofString()).body()).isEqualTo("hello world");
+            then(HTTP.sendAsync(
+                HttpRequest.newBuilder(URI.create(URL2)).POST(HttpRequest.BodyPublishers.ofString("{}")).build(),
+                BodyHandlers.ofString()
+            ).get().statusCode()).isEqualTo(201);
+            try (InputStream is = HTTP.send(get(URL2), BodyHandlers.ofInputStream()).body()) {
+                then(new String(is.readAllBytes())).isEqualTo("two");
+            }
+            then(HTTP.recorded()).isEqualTo(3);
+        }
+
+        final Cassette C = Cassette.load(CASSETTE);
+        then(C.size()).isEqualTo(3);
+        then(C.entries().get(0).method).isEqualTo("GET");
+        then(C.entries().get(0).uri).isEqualTo(URI.create(URL1));
+        then(C.entries().get(1).toString()).isEqualTo("POST " + URL2);
+        then(C.entries().get(2).toString()).isEqualTo("GET " + URL2);
+
+        final HttpClient REPLAY = new HttpClientStubber().withCassette(C).build();
+
+        HttpResponse<String> response = REPLAY.send(get(URL1), BodyHandlers.ofString());
+        then(response.statusCode()).isEqualTo(200);
+        then(response.body()).isEqualTo("hello world");
+        then(response.headers().firstValue("X-Test")).hasValue("one");
+        then(response.headers().firstValue("Content-type")).hasValue("text/plain");
+
+        response = REPLAY.send(
+            HttpRequest.newBuilder(URI.create(URL2)).POST(HttpRequest.BodyPublishers.noBody()).build(),
+            BodyHandlers.ofString()
+        );
+        then(response.statusCode()).isEqualTo(201);
+        then(response.body()).isEqualTo("{\"created\": true}");
+
+        then(REPLAY.send(get(URL2), BodyHandlers.ofString()).body()).isEqualTo("two");
+
+        thenThrownBy(() -> REPLAY.send(get("http://localhost/three"), BodyHandlers.ofString()))
+            .isInstanceOf(IOException.class)
+            .hasMessageStartingWith("no stub found for request");
+    }
+
+    @Test
+    public void empty_cassette() throws Exception {
+        final Path CASSETTE = TMP.newFile().toPath();
+
+        new RecordingHttpClient(new HttpClientStubber().build(), CASSETTE).close();
+
+        final Cassette C = Cassette.load(CASSETTE);
+        then(C.size()).isZero();
+        then(C.stubs()).isEmpty();
+    }
+
+    @Test
+    public void load_reads_only_the_offset_table() throws Exception {
+        final Path CASSETTE = TMP.newFile().toPath();
+        try (Cassette.Writer W = new Cassette.Writer(CASSETTE)) {
+            W.append("GET", URI.create(URL1), 200, java.util.Map.of(), "one".getBytes());
+            W.append("GET", URI.create(URL2), 200, java.util.Map.of(), "two".getBytes());
+        }
+
+        final Cassette C = Cassette.load(CASSETTE);
+
+        //
+        // corrupt the first exchange: loading still works, replaying it does not
+        //
+        final byte[] content = Files.readAllBytes(CASSETTE);
+        content[Cassette.HEADER_SIZE + 4] = 0x7f; // header count
+        Files.write(CASSETTE, content);
+
+        final HttpClient REPLAY = new HttpClientStubber().withCassette(Cassette.load(CASSETTE)).build();
+        then(REPLAY.send(get(URL2), BodyHandlers.ofString()).body()).isEqualTo("two");
+        thenThrownBy(() -> REPLAY.send(get(URL1), BodyHandlers.ofString()))
+            .hasMessageStartingWith("unable to read GET " + URL1);
+
+        then(C.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void record_strings_longer_than_64k() throws Exception {
+        final Path CASSETTE = TMP.newFile().toPath();
+        final String LONG = "\u00e8".repeat(40000); // 80000 bytes in UTF-8
+        final URI LONG_URI = URI.create(URL1 + "?q=" + "x".repeat(70000));
+
+        try (Cassette.Writer W = new Cassette.Writer(CASSETTE)) {
+            W.append("GET", LONG_URI, 200, java.util.Map.of("X-Long", java.util.List.of(LONG)), "long".getBytes());
+        }
+
+        final Cassette C = Cassette.load(CASSETTE);
+        then(C.entries().get(0).uri).isEqualTo(LONG_URI);
+
+        final HttpResponse<String> response = new HttpClientStubber().withCassette(C).build()
+            .send(HttpRequest.newBuilder(LONG_URI).GET().build(), BodyHandlers.ofString());
+        then(response.headers().firstValue("X-Long")).hasValue(LONG);
+        then(response.body()).isEqualTo("long");
+    }
+
+    @Test
+    public void load_invalid_cassettes() throws Exception {
+        thenThrownBy(() -> Cassette.load(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("file can not be null");
+
+        final File F = TMP.newFile();
+        thenThrownBy(() -> Cassette.load(F.toPath()))
+            .isInstanceOf(IOException.class)
+            .hasMessage(F + " is not a cassette");
+
+        Files.write(F.toPath(), "this is not a cassette, really".getBytes());
+        thenThrownBy(() -> Cassette.load(F.toPath()))
+            .isInstanceOf(IOException.class)
+            .hasMessage(F + " is not a cassette");
+    }
+
+    @Test
+    public void invalid_arguments() throws Exception {
+        thenThrownBy(() -> new RecordingHttpClient(null, TMP.newFile().toPath()))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("client can not be null");
+        thenThrownBy(() -> new RecordingHttpClient(new HttpClientStubber().build(), null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("file can not be null");
+        thenThrownBy(() -> new HttpClientStubber().withCassette(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("cassette can not be null");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private HttpRequest get(final String url) {
+        return HttpRequest.newBuilder(URI.create(url)).GET().build();
+    }
+}
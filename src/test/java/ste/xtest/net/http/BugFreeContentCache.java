@@ -0,0 +1,112 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeContentCache {
+
+    private static final Path A = Path.of("/a"), B = Path.of("/b"), C = Path.of("/c");
+    private static final FileTime T1 = FileTime.fromMillis(1000), T2 = FileTime.fromMillis(2000);
+
+    @Test
+    public void constructor() {
+        then(new ContentCache(100).budget).isEqualTo(100);
+
+        thenThrownBy(() -> new ContentCache(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("budget must be greater than 0");
+    }
+
+    @Test
+    public void get_and_put() {
+        final ContentCache CACHE = new ContentCache(100);
+
+        then(CACHE.get(A, null, T1, 10)).isNull();
+        CACHE.put(A, null, T1, 10, new byte[10]);
+        CACHE.put(A, "injected", T1, 10, new byte[20]);
+
+        then(CACHE.get(A, null, T1, 10)).hasSize(10);
+        then(CACHE.get(A, "injected", T1, 10)).hasSize(20);
+        then(CACHE.get(A, "other", T1, 10)).isNull();
+        then(CACHE.size()).isEqualTo(2);
+        then(CACHE.bytes()).isEqualTo(30);
+        then(CACHE.hits()).isEqualTo(2);
+        then(CACHE.misses()).isEqualTo(2);
+
+        //
+        // replace
+        //
+        CACHE.put(A, null, T1, 10, new byte[5]);
+        then(CACHE.get(A, null, T1, 10)).hasSize(5);
+        then(CACHE.bytes()).isEqualTo(25);
+
+        CACHE.clear();
+        then(CACHE.size()).isZero();
+        then(CACHE.bytes()).isZero();
+    }
+
+    @Test
+    public void changed_files_are_stale() {
+        final ContentCache CACHE = new ContentCache(100);
+
+        CACHE.put(A, null, T1, 10, new byte[10]);
+        then(CACHE.get(A, null, T2, 10)).isNull();
+        then(CACHE.size()).isZero();
+
+        CACHE.put(A, null, T1, 10, new byte[10]);
+        then(CACHE.get(A, null, T1, 11)).isNull();
+        then(CACHE.bytes()).isZero();
+    }
+
+    @Test
+    public void least_recently_used_are_evicted_within_budget() {
+        final ContentCache CACHE = new ContentCache(100);
+
+        then(CACHE.fits(100)).isTrue();
+        then(CACHE.fits(101)).isFalse();
+
+        CACHE.put(A, null, T1, 40, new byte[40]);
+        CACHE.put(B, null, T1, 40, new byte[40]);
+        then(CACHE.get(A, null, T1, 40)).isNotNull(); // B is now the eldest
+        CACHE.put(C, null, T1, 40, new byte[40]);
+
+        then(CACHE.get(B, null, T1, 40)).isNull();
+        then(CACHE.get(A, null, T1, 40)).isNotNull();
+        then(CACHE.get(C, null, T1, 40)).isNotNull();
+        then(CACHE.bytes()).isEqualTo(80);
+
+        //
+        // too big
+        //
+        CACHE.put(B, null, T1, 200, new byte[200]);
+        then(CACHE.get(B, null, T1, 200)).isNull();
+        then(CACHE.bytes()).isEqualTo(80);
+    }
+}
@@ -208,6 +208,14 @@ public class BugFreeHttpExchangeStub {
         then(X.getResponseCode()).isEqualTo(200);
     }
 
+    @Test
+    public void provide_method() {
+        final HttpExchangeStub X = new HttpExchangeStub("http://somewhere/something");
+
+        then(X.withMethod("HEAD")).isSameAs(X);
+        then(X.getRequestMethod()).isEqualTo("HEAD");
+    }
+
     @Test
     public void get_set_attributes() {
         final HttpExchangeStub X = new HttpExchangeStub("http://somewhere/something");
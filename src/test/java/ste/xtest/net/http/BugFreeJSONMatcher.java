@@ -0,0 +1,214 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeJSONMatcher {
+
+    private static final String JSON =
+        "{\"user\": {\"name\": \"Alice\", \"id\": 42, \"admin\": false, \"manager\": null},"
+      + " \"items\": [{\"sku\": \"a\"}, {\"sku\": \"b\"}, {\"sku\": \"c\"}],"
+      + " \"total\": 12.50}";
+
+    @Test
+    public void equal_to() {
+        then(new JSONMatcher().equalTo("/user/name", "Alice").match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/user/id", 42).match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/user/id", 42L).match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/total", 12.5).match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/user/admin", false).match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/user/manager", null).match(post(JSON))).isTrue();
+        then(new JSONMatcher().equalTo("/items/1/sku", "b").match(post(JSON))).isTrue();
+
+        then(new JSONMatcher().equalTo("/user/name", "Bob").match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/user/id", "42").match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/user/id", 43).match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/user/admin", true).match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/user", null).match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/user/surname", "Smith").match(post(JSON))).isFalse();
+        then(new JSONMatcher().equalTo("/items/3/sku", "d").match(post(JSON))).isFalse();
+    }
+
+    @Test
+    public void present_and_absent() {
+        then(new JSONMatcher().present("/user/manager").match(post(JSON))).isTrue();
+        then(new JSONMatcher().present("/items/2").match(post(JSON))).isTrue();
+        then(new JSONMatcher().present("").match(post(JSON))).isTrue();
+        then(new JSONMatcher().present("/user/surname").match(post(JSON))).isFalse();
+
+        then(new JSONMatcher().absent("/user/surname").match(post(JSON))).isTrue();
+        then(new JSONMatcher().absent("/items/3").match(post(JSON))).isTrue();
+        then(new JSONMatcher().absent("/user/name").match(post(JSON))).isFalse();
+    }
+
+    @Test
+    public void size() {
+        then(new JSONMatcher().size("/items", 3).match(post(JSON))).isTrue();
+        then(new JSONMatcher().size("/user", 4).match(post(JSON))).isTrue();
+        then(new JSONMatcher().size("/items/0", 1).match(post(JSON))).isTrue();
+        then(new JSONMatcher().size("/items", 2).match(post(JSON))).isFalse();
+        then(new JSONMatcher().size("/user/name", 5).match(post(JSON))).isFalse();
+        then(new JSONMatcher().size("/nothing", 0).match(post(JSON))).isFalse();
+        then(new JSONMatcher().size("", 0).match(post("[]"))).isTrue();
+    }
+
+    @Test
+    public void body_with_error_does_not_match() {
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost/json")).POST(new BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return -1;
+            }
+
+            @Override
+            public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                        subscriber.onError(new IllegalStateException("broken body"));
+                    }
+
+                    @Override
+                    public void cancel() {}
+                });
+            }
+        }).build();
+
+        then(new JSONMatcher().absent("/user").match(request)).isFalse();
+        then(new JSONMatcher().present("/user").match(request)).isFalse();
+    }
+
+    @Test
+    public void all_predicates_must_hold() {
+        final JSONMatcher M = new JSONMatcher()
+            .equalTo("/user/name", "Alice")
+            .size("/items", 3)
+            .equalTo("/items/2/sku", "c")
+            .absent("/user/password");
+
+        then(M.match(post(JSON))).isTrue();
+        then(M.match(post(JSON.replace("\"c\"", "\"x\"")))).isFalse();
+        then(M.match(post(JSON.replace("\"Alice\"", "\"Alice\", \"password\": \"secret\"")))).isFalse();
+    }
+
+    @Test
+    public void stop_reading_as_soon_as_the_outcome_is_known() {
+        //
+        // the content after the relevant values is not valid JSON, it is not
+        // read if the scan stops in time
+        //
+        final String BROKEN = "{\"a\": 1, \"b\": {\"c\": [1, 2]}, \"d\": ]]]";
+
+        then(new JSONMatcher().equalTo("/a", 1).match(post(BROKEN))).isTrue();
+        then(new JSONMatcher().equalTo("/a", 2).match(post(BROKEN))).isFalse();
+        then(new JSONMatcher().equalTo("/a", 1).size("/b/c", 2).match(post(BROKEN))).isTrue();
+
+        //
+        // absent() needs the whole body
+        //
+        then(new JSONMatcher().equalTo("/a", 1).absent("/x").match(post(BROKEN))).isFalse();
+        then(new JSONMatcher().present("/d").match(post(BROKEN))).isFalse();
+    }
+
+    @Test
+    public void no_match_without_a_json_body() {
+        final JSONMatcher M = new JSONMatcher().present("");
+
+        then(M.match(HttpRequest.newBuilder(URI.create("http://localhost/json")).GET().build())).isFalse();
+        then(M.match(post(""))).isFalse();
+        then(M.match(post("not json"))).isFalse();
+        then(new JSONMatcher().absent("/a").match(post("{\"b\": "))).isFalse();
+    }
+
+    @Test
+    public void invalid_arguments() {
+        final JSONMatcher M = new JSONMatcher();
+
+        thenThrownBy(() -> M.match(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("request can not be null");
+        thenThrownBy(() -> M.present(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("pointer can not be null");
+        thenThrownBy(() -> M.present("user"))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessageStartingWith("invalid pointer 'user'");
+        thenThrownBy(() -> M.equalTo("/a", new Object()))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("value must be a String, Number, Boolean or null");
+        thenThrownBy(() -> M.size("/a", -1))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("size can not be negative");
+    }
+
+    @Test
+    public void toString_and_cost() {
+        final JSONMatcher M = new JSONMatcher()
+            .equalTo("/name", "Alice").equalTo("/id", 42).present("/a").absent("/b").size("/c", 2);
+
+        then(M.toString()).isEqualTo(
+            "with json body having\n"
+          + "  /name equal to 'Alice'\n"
+          + "  /id equal to 42\n"
+          + "  /a present\n"
+          + "  /b absent\n"
+          + "  /c of size 2"
+        );
+        then(M.cost()).isEqualTo(RequestMatcher.COST_BODY);
+    }
+
+    @Test
+    public void works_in_stubs() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(new ANDMatcher(
+                new URIMatcher("http://localhost/json"),
+                new JSONMatcher().equalTo("/user/name", "Bob")
+            ), new StubHttpClient.StubHttpResponse().text("bob"))
+            .withStub(new ANDMatcher(
+                new URIMatcher("http://localhost/json"),
+                new JSONMatcher().equalTo("/user/name", "Alice")
+            ), new StubHttpClient.StubHttpResponse().text("alice"));
+
+        then(stubber.build().send(
+            post(JSON), java.net.http.HttpResponse.BodyHandlers.ofString()
+        ).body()).isEqualTo("alice");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private HttpRequest post(final String body) {
+        return HttpRequest.newBuilder(URI.create("http://localhost/json"))
+            .POST(HttpRequest.BodyPublishers.ofString(body))
+            .build();
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.time.Duration;
+import java.util.Map;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeLatencyModel {
+
+    @Test
+    public void none() {
+        then(LatencyModel.NONE.next()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void fixed() {
+        final LatencyModel L = LatencyModel.fixed(Duration.ofMillis(150));
+        for (int i = 0; i < 10; ++i) {
+            then(L.next()).isEqualTo(Duration.ofMillis(150));
+        }
+        then(LatencyModel.fixed(Duration.ZERO).next()).isEqualTo(Duration.ZERO);
+
+        thenThrownBy(() -> LatencyModel.fixed(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("latency can not be null or negative");
+        thenThrownBy(() -> LatencyModel.fixed(Duration.ofMillis(-1)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("latency can not be null or negative");
+    }
+
+    @Test
+    public void uniform() {
+        final Duration MIN = Duration.ofMillis(10), MAX = Duration.ofMillis(20);
+        final LatencyModel L = LatencyModel.uniform(MIN, MAX);
+        for (int i = 0; i < 1000; ++i) {
+            then(L.next()).isGreaterThanOrEqualTo(MIN).isLessThan(MAX);
+        }
+        then(LatencyModel.uniform(MIN, MIN).next()).isEqualTo(MIN);
+
+        thenThrownBy(() -> LatencyModel.uniform(null, MAX))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("min can not be null or negative");
+        thenThrownBy(() -> LatencyModel.uniform(MIN, null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("max can not be null or negative");
+        thenThrownBy(() -> LatencyModel.uniform(MAX, MIN))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("max can not be smaller than min");
+    }
+
+    @Test
+    public void percentiles() {
+        final LatencyModel L = LatencyModel.percentiles(Map.of(
+            50.0, Duration.ofMillis(20), 99.0, Duration.ofMillis(200), 100.0, Duration.ofMillis(1000)
+        ));
+
+        //
+        // check the fraction of samples below the given percentiles
+        //
+        final int N = 100000;
+        int below20 = 0, below200 = 0;
+        for (int i = 0; i < N; ++i) {
+            final Duration d = L.next();
+            then(d).isGreaterThanOrEqualTo(Duration.ZERO).isLessThanOrEqualTo(Duration.ofMillis(1000));
+            if (d.compareTo(Duration.ofMillis(20)) <= 0) ++below20;
+            if (d.compareTo(Duration.ofMillis(200)) <= 0) ++below200;
+        }
+
+        then(below20 * 100.0 / N).isBetween(48.0, 52.0);
+        then(below200 * 100.0 / N).isBetween(98.5, 99.5);
+    }
+
+    @Test
+    public void percentiles_above_the_highest_one_are_capped() {
+        final LatencyModel L = LatencyModel.percentiles(Map.of(0.0, Duration.ofMillis(10), 50.0, Duration.ofMillis(10)));
+        for (int i = 0; i < 100; ++i) {
+            then(L.next()).isEqualTo(Duration.ofMillis(10));
+        }
+    }
+
+    @Test
+    public void percentiles_with_invalid_arguments() {
+        thenThrownBy(() -> LatencyModel.percentiles(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentiles can not be null or empty");
+        thenThrownBy(() -> LatencyModel.percentiles(Map.of()))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentiles can not be null or empty");
+        thenThrownBy(() -> LatencyModel.percentiles(Map.of(101.0, Duration.ZERO)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentiles must be in the range [0, 100]");
+        thenThrownBy(() -> LatencyModel.percentiles(Map.of(-1.0, Duration.ZERO)))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentiles must be in the range [0, 100]");
+        thenThrownBy(() -> LatencyModel.percentiles(Map.of(50.0, Duration.ofMillis(-1))))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("latency can not be null or negative");
+        thenThrownBy(() -> LatencyModel.percentiles(Map.of(50.0, Duration.ofMillis(20), 90.0, Duration.ofMillis(10))))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("latencies must not decrease with percentiles");
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import com.sun.net.httpserver.Filter;
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.json.JSONObject;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeLocalFileServer {
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    private LocalFileServer server = null;
+    private HttpClient http = null;
+
+    @Before
+    public void before() throws Exception {
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), "<html><head></head><body>hello</body></html>");
+        http = HttpClient.newHttpClient();
+    }
+
+    @After
+    public void after() {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void builder_with_defaults() throws Exception {
+        server = LocalFileServer.builder(TMP.getRoot().getAbsolutePath()).build();
+        server.start();
+
+        then(server.root).isEqualTo(TMP.getRoot().toPath().toAbsolutePath());
+        then(server.handler.root).isEqualTo(TMP.getRoot().getAbsolutePath());
+        then(server.handler.bootstrapScripts).isEmpty();
+        then(server.server.getAddress().getPort()).isPositive();
+
+        final HttpResponse<String> response = http.send(request("/index.html"), BodyHandlers.ofString());
+        then(response.statusCode()).isEqualTo(200);
+        then(response.body()).isEqualTo("<html><head></head><body>hello</body></html>");
+    }
+
+    @Test
+    public void builder_with_options() throws Exception {
+        final AtomicInteger executed = new AtomicInteger();
+        final Executor EXECUTOR = (task) -> { executed.incrementAndGet(); task.run(); };
+        final List<String> LOG = new CopyOnWriteArrayList<>();
+        final List<String> SCRIPTS = List.of("script1");
+
+        server = LocalFileServer.builder(TMP.getRoot().getAbsolutePath())
+            .bootstrapScripts(SCRIPTS)
+            .executor(EXECUTOR)
+            .backlog(256)
+            .accessLog(LOG::add)
+            .build();
+        server.start();
+
+        then(server.handler.bootstrapScripts).isSameAs(SCRIPTS);
+
+        then(http.send(request("/index.html?__XTEST_BOOTSTRAP__=1"), BodyHandlers.ofString()).body())
+            .contains("<script>\nscript1\n</script>");
+        then(http.send(request("/none.html"), BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+
+        then(executed.get()).isEqualTo(2);
+        then(LOG).hasSize(2);
+        then(LOG.get(0)).matches("127\\.0\\.0\\.1 - - \\[.*\\] \"GET /index.html\\?__XTEST_BOOTSTRAP__=1 HTTP/1.1\" 200 \\d+");
+        then(LOG.get(1)).matches("127\\.0\\.0\\.1 - - \\[.*\\] \"GET /none.html HTTP/1.1\" 404 9");
+    }
+
+    @Test
+    public void requests_are_handled_in_parallel() throws Exception {
+        //
+        // the first requests are held until all of them are in the handler;
+        // with a serial executor this would never happen
+        //
+        final int PARALLEL = 8;
+        final CountDownLatch inHandler = new CountDownLatch(PARALLEL);
+
+        server = LocalFileServer.builder(TMP.getRoot().getAbsolutePath())
+            .accessLog(Filter.beforeHandler("barrier", (exchange) -> {
+                inHandler.countDown();
+                try {
+                    inHandler.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                }
+            }))
+            .build();
+        server.start();
+
+        final List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < PARALLEL; ++i) {
+            responses.add(http.sendAsync(request("/index.html"), BodyHandlers.ofString()));
+        }
+        for (CompletableFuture<HttpResponse<String>> r: responses) {
+            then(r.get(10, TimeUnit.SECONDS).statusCode()).isEqualTo(200);
+        }
+        then(inHandler.getCount()).isZero();
+    }
+
+    @Test
+    public void serve_metrics() throws Exception {
+        final ServerMetrics METRICS = new ServerMetrics();
+
+        server = LocalFileServer.builder(TMP.getRoot().getAbsolutePath()).metrics(METRICS).build();
+        server.start();
+        then(server.metrics).isSameAs(METRICS);
+
+        http.send(request("/index.html"), BodyHandlers.ofString());
+        http.send(request("/index.html"), BodyHandlers.ofString());
+        http.send(request("/none.html"), BodyHandlers.ofString());
+
+        final HttpResponse<String> response = http.send(request(ServerMetrics.PATH), BodyHandlers.ofString());
+        then(response.statusCode()).isEqualTo(200);
+        then(response.headers().firstValue("Content-Type")).hasValue("application/json");
+
+        final JSONObject json = new JSONObject(response.body());
+        then(json.getLong("requests")).isEqualTo(3);  // the metrics endpoint is not measured
+        then(json.getLong("bytes")).isEqualTo(2*44 + 9);
+        then(json.getJSONObject("status").getLong("200")).isEqualTo(2);
+        then(json.getJSONObject("status").getLong("404")).isEqualTo(1);
+        then(json.getJSONObject("paths").getJSONObject("/index.html").getLong("requests")).isEqualTo(2);
+        then(json.getJSONObject("paths").getJSONObject("/index.html").getJSONObject("ttfb").getLong("count")).isEqualTo(2);
+
+        then(
+            http.send(
+                HttpRequest.newBuilder(response.uri()).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                BodyHandlers.ofString()
+            ).statusCode()
+        ).isEqualTo(405);
+    }
+
+    @Test
+    public void no_metrics_by_default() throws Exception {
+        server = LocalFileServer.builder(TMP.getRoot().getAbsolutePath()).build();
+        server.start();
+
+        then(server.metrics).isNull();
+        then(http.send(request(ServerMetrics.PATH), BodyHandlers.ofString()).statusCode()).isEqualTo(404);
+    }
+
+    @Test
+    public void invalid_arguments() {
+        thenThrownBy(() -> LocalFileServer.builder(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("root can not be null");
+        thenThrownBy(() -> LocalFileServer.builder(".").port(-1))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("port must be in the range [0, 65535]");
+        thenThrownBy(() -> LocalFileServer.builder(".").port(65536))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("port must be in the range [0, 65535]");
+        thenThrownBy(() -> LocalFileServer.builder(".").accessLog((Filter)null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("filter can not be null");
+        thenThrownBy(() -> LocalFileServer.builder(".").accessLog((Consumer<String>)null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("sink can not be null");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private HttpRequest request(final String path) {
+        return HttpRequest.newBuilder(
+            URI.create("http://localhost:" + server.server.getAddress().getPort() + path)
+        ).build();
+    }
+}
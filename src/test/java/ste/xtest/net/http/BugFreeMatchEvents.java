@@ -0,0 +1,134 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+import ste.xtest.net.http.MatchEvents.Event;
+import ste.xtest.net.http.MatchEvents.Outcome;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ *
+ */
+public class BugFreeMatchEvents {
+
+    private static final HttpRequest REQUEST =
+        HttpRequest.newBuilder(URI.create("http://localhost/events")).build();
+
+    @Test
+    public void capacity_is_a_power_of_two() {
+        then(new MatchEvents().capacity()).isEqualTo(MatchEvents.DEFAULT_CAPACITY);
+        then(new MatchEvents(1).capacity()).isEqualTo(1);
+        then(new MatchEvents(100).capacity()).isEqualTo(128);
+        then(new MatchEvents(128).capacity()).isEqualTo(128);
+
+        thenThrownBy(() -> new MatchEvents(0)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("capacity must be in the range [1, 2^30]");
+        thenThrownBy(() -> new MatchEvents(-1)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("capacity must be in the range [1, 2^30]");
+    }
+
+    @Test
+    public void record_events_in_order() {
+        final MatchEvents E = new MatchEvents(4);
+
+        then(E.events()).isEmpty();
+        then(E.toString()).isEmpty();
+
+        E.tried(REQUEST, 0, false);
+        E.tried(REQUEST, 1, true);
+        E.unmatched(REQUEST);
+
+        final List<Event> events = E.events();
+        then(events).hasSize(3);
+        then(events.get(0).sequence).isEqualTo(0);
+        then(events.get(0).stub).isEqualTo(0);
+        then(events.get(0).outcome).isEqualTo(Outcome.MISS);
+        then(events.get(0).method).isEqualTo("GET");
+        then(events.get(0).uri).isEqualTo(REQUEST.uri());
+        then(events.get(1).stub).isEqualTo(1);
+        then(events.get(1).outcome).isEqualTo(Outcome.MATCH);
+        then(events.get(2).stub).isEqualTo(-1);
+        then(events.get(2).outcome).isEqualTo(Outcome.NO_MATCH);
+
+        final String[] lines = E.toString().split("\n");
+        then(lines).hasSize(3);
+        then(lines[0]).startsWith("#0 ").endsWith(" GET http://localhost/events stub #0 did not match");
+        then(lines[1]).startsWith("#1 ").endsWith(" GET http://localhost/events stub #1 matched");
+        then(lines[2]).startsWith("#2 ").endsWith(" GET http://localhost/events no match found");
+    }
+
+    @Test
+    public void oldest_events_are_overwritten() {
+        final MatchEvents E = new MatchEvents(4);
+
+        for (int i = 0; i < 10; ++i) {
+            E.tried(REQUEST, i, false);
+        }
+
+        final List<Event> events = E.events();
+        then(events).hasSize(4);
+        for (int i = 0; i < 4; ++i) {
+            then(events.get(i).sequence).isEqualTo(6 + i);
+            then(events.get(i).stub).isEqualTo(6 + i);
+        }
+
+        E.clear();
+        then(E.events()).isEmpty();
+
+        E.unmatched(REQUEST);
+        then(E.events()).hasSize(1);
+        then(E.events().get(0).sequence).isEqualTo(10);
+    }
+
+    @Test
+    public void stubber_records_match_attempts() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(new HeaderMatcher("X-Test", "yes"), new StubHttpResponse().text("header"))
+            .withStub("http://localhost/events", new StubHttpResponse().text("uri"));
+        final HttpClient HTTP = stubber.build();
+
+        then(HTTP.send(REQUEST, BodyHandlers.ofString()).body()).isEqualTo("uri");
+
+        final HttpRequest other = HttpRequest.newBuilder(URI.create("http://localhost/other")).build();
+        thenThrownBy(() -> HTTP.send(other, BodyHandlers.ofString())).isInstanceOf(IOException.class);
+
+        final List<Event> events = stubber.events().events();
+        then(events).hasSize(4);
+        then(events.get(0).stub).isEqualTo(0);
+        then(events.get(0).outcome).isEqualTo(Outcome.MISS);
+        then(events.get(1).stub).isEqualTo(1);
+        then(events.get(1).outcome).isEqualTo(Outcome.MATCH);
+        then(events.get(2).uri).isEqualTo(other.uri());
+        then(events.get(2).outcome).isEqualTo(Outcome.MISS);
+        then(events.get(3).uri).isEqualTo(other.uri());
+        then(events.get(3).outcome).isEqualTo(Outcome.NO_MATCH);
+    }
+}
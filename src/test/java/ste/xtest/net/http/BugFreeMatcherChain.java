@@ -0,0 +1,165 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+
+/**
+ *
+ */
+public class BugFreeMatcherChain {
+
+    private static final String URL = "http://localhost/chain";
+
+    @Test
+    public void builtin_matchers_costs() {
+        then(new URIMatcher(URL).cost()).isEqualTo(RequestMatcher.COST_URI);
+        then(new URIPrefixMatcher(URL).cost()).isEqualTo(RequestMatcher.COST_URI);
+        then(new MethodMatcher("GET").cost()).isEqualTo(RequestMatcher.COST_METHOD);
+        then(new HeaderMatcher("X-Test", null).cost()).isEqualTo(RequestMatcher.COST_HEADER);
+        then(new BodyMatcher("body").cost()).isEqualTo(RequestMatcher.COST_BODY);
+        then(((RequestMatcher)(r) -> true).cost()).isEqualTo(RequestMatcher.COST_CUSTOM);
+        then(new ANDMatcher(new URIMatcher(URL), new HeaderMatcher("X-Test", null)).cost())
+            .isEqualTo(RequestMatcher.COST_HEADER);
+
+        then(RequestMatcher.COST_URI).isLessThan(RequestMatcher.COST_METHOD);
+        then(RequestMatcher.COST_METHOD).isLessThan(RequestMatcher.COST_HEADER);
+        then(RequestMatcher.COST_HEADER).isLessThan(RequestMatcher.COST_CUSTOM);
+        then(RequestMatcher.COST_CUSTOM).isLessThan(RequestMatcher.COST_BODY);
+    }
+
+    @Test
+    public void compile_flattens_and_sorts_by_cost() {
+        final BodyMatcher BODY = new BodyMatcher("body");
+        final HeaderMatcher HEADER1 = new HeaderMatcher("X-One", "1");
+        final HeaderMatcher HEADER2 = new HeaderMatcher("X-Two", "2");
+        final MethodMatcher METHOD = new MethodMatcher("POST");
+        final URIMatcher URI = new URIMatcher(URL);
+        final RequestMatcher CUSTOM = (r) -> true;
+
+        final RequestMatcher C = MatcherChain.compile(new ANDMatcher(
+            BODY, HEADER1, new ANDMatcher(CUSTOM, new ANDMatcher(HEADER2, METHOD)), URI
+        ), null);
+
+        then(C).isInstanceOf(MatcherChain.class);
+        then(((MatcherChain)C).conditions()).containsExactly(URI, METHOD, HEADER1, HEADER2, CUSTOM, BODY);
+        then(C.cost()).isEqualTo(RequestMatcher.COST_BODY);
+    }
+
+    @Test
+    public void compile_leaves_out_satisfied_condition() {
+        final URIMatcher URI = new URIMatcher(URL);
+        final HeaderMatcher HEADER = new HeaderMatcher("X-Test", "yes");
+
+        RequestMatcher C = MatcherChain.compile(new ANDMatcher(HEADER, URI), URI);
+        then(((MatcherChain)C).conditions()).containsExactly(HEADER);
+
+        C = MatcherChain.compile(new ANDMatcher(URI, URI), URI);
+        then(((MatcherChain)C).conditions()).isEmpty();
+        then(C.match(HttpRequest.newBuilder(java.net.URI.create(URL)).build())).isTrue();
+    }
+
+    @Test
+    public void compile_keeps_other_matchers() {
+        final URIMatcher URI = new URIMatcher(URL);
+        final RequestMatcher CUSTOM = (r) -> true;
+        final ANDMatcher SUBCLASS = new ANDMatcher(URI, CUSTOM) {};
+
+        then(MatcherChain.compile(URI, URI)).isSameAs(URI);
+        then(MatcherChain.compile(CUSTOM, null)).isSameAs(CUSTOM);
+        then(MatcherChain.compile(SUBCLASS, null)).isSameAs(SUBCLASS);
+    }
+
+    @Test
+    public void chain_short_circuits() {
+        final AtomicInteger bodyCalls = new AtomicInteger();
+        final RequestMatcher C = MatcherChain.compile(new ANDMatcher(
+            new CountingBodyMatcher(".*", bodyCalls), new MethodMatcher("POST"), new URIMatcher(URL)
+        ), null);
+
+        then(C.match(HttpRequest.newBuilder(URI.create("http://localhost/other")).build())).isFalse();
+        then(C.match(HttpRequest.newBuilder(URI.create(URL)).GET().build())).isFalse();
+        then(bodyCalls.get()).isZero();
+
+        then(C.match(
+            HttpRequest.newBuilder(URI.create(URL)).POST(HttpRequest.BodyPublishers.ofString("hello")).build()
+        )).isTrue();
+        then(bodyCalls.get()).isEqualTo(1);
+
+        thenThrownBy(() -> C.match(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("request can not be null");
+    }
+
+    @Test
+    public void body_matchers_run_only_after_cheaper_checks() throws Exception {
+        final AtomicInteger bodyCalls = new AtomicInteger();
+
+        //
+        // thousands of stubs declaring the body regex first; none of them is
+        // routed by URI, so all of them are candidates for every request
+        //
+        final HttpClientStubber stubber = new HttpClientStubber();
+        for (int i = 0; i < 5000; ++i) {
+            stubber.withStub(new ANDMatcher(
+                new CountingBodyMatcher(".*\"id\":" + i + ".*", bodyCalls),
+                new HeaderMatcher("X-Stub", String.valueOf(i))
+            ), new StubHttpResponse().text("stub " + i));
+        }
+        final HttpClient HTTP = stubber.build();
+
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create(URL))
+                .header("X-Stub", "4999")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"id\":4999}"))
+                .build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("stub 4999");
+        then(bodyCalls.get()).isEqualTo(1);
+    }
+
+    // ------------------------------------------------------ CountingBodyMatcher
+
+    private static class CountingBodyMatcher extends BodyMatcher {
+        private final AtomicInteger calls;
+
+        CountingBodyMatcher(final String regex, final AtomicInteger calls) {
+            super(Pattern.compile(regex));
+            this.calls = calls;
+        }
+
+        @Override
+        public boolean match(HttpRequest request) {
+            calls.incrementAndGet();
+            return super.match(request);
+        }
+    }
+}
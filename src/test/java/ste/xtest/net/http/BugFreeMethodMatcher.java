@@ -0,0 +1,64 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeMethodMatcher {
+
+    private static final URI URL = URI.create("http://example.com/test");
+
+    @Test
+    public void constructor_sets_method_in_upper_case() {
+        then(new MethodMatcher("get").method).isEqualTo("GET");
+        then(new MethodMatcher("POST").method).isEqualTo("POST");
+
+        thenThrownBy(() -> new MethodMatcher(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("method can not be null");
+    }
+
+    @Test
+    public void match_the_request_method() {
+        final MethodMatcher M = new MethodMatcher("post");
+
+        then(M.match(HttpRequest.newBuilder(URL).POST(HttpRequest.BodyPublishers.noBody()).build())).isTrue();
+        then(M.match(HttpRequest.newBuilder(URL).GET().build())).isFalse();
+        then(new MethodMatcher("GET").match(HttpRequest.newBuilder(URL).build())).isTrue();
+
+        thenThrownBy(() -> M.match(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("request can not be null");
+    }
+
+    @Test
+    public void toString_returns_the_method() {
+        then(new MethodMatcher("delete").toString()).isEqualTo("with method 'DELETE'");
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeNetworkProfile {
+
+    @Test
+    public void default_values() {
+        final NetworkProfile P = new NetworkProfile();
+
+        then(P.ttfb()).isEqualTo(Duration.ZERO);
+        then(P.jitter()).isEqualTo(Duration.ZERO);
+        then(P.bandwidth()).isZero();
+        then(P.truncateAfter()).isEqualTo(-1);
+        then(P.firstByte()).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    public void set_values() {
+        final NetworkProfile P = new NetworkProfile();
+
+        then(P.ttfb(Duration.ofMillis(100))).isSameAs(P);
+        then(P.ttfb()).isEqualTo(Duration.ofMillis(100));
+        then(P.jitter(Duration.ofMillis(10))).isSameAs(P);
+        then(P.jitter()).isEqualTo(Duration.ofMillis(10));
+        then(P.bandwidth(1024)).isSameAs(P);
+        then(P.bandwidth()).isEqualTo(1024);
+        then(P.truncateAfter(100)).isSameAs(P);
+        then(P.truncateAfter()).isEqualTo(100);
+        then(P.truncateAfter(-10).truncateAfter()).isEqualTo(-1);
+
+        for (int i = 0; i < 100; ++i) {
+            then(P.firstByte()).isBetween(Duration.ofMillis(100), Duration.ofMillis(110));
+        }
+    }
+
+    @Test
+    public void invalid_values() {
+        final NetworkProfile P = new NetworkProfile();
+
+        thenThrownBy(() -> P.ttfb(null)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("ttfb can not be null or negative");
+        thenThrownBy(() -> P.ttfb(Duration.ofMillis(-1))).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("ttfb can not be null or negative");
+        thenThrownBy(() -> P.jitter(null)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("jitter can not be null or negative");
+        thenThrownBy(() -> P.jitter(Duration.ofMillis(-1))).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("jitter can not be null or negative");
+        thenThrownBy(() -> P.bandwidth(-1)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("bandwidth can not be negative");
+    }
+
+    @Test
+    public void ideal_network_does_not_change_the_chunks() throws Exception {
+        final ResponseBody.Chunks C = ResponseBody.of(new byte[10]).open();
+        then(new NetworkProfile().ttfb(Duration.ofMillis(10)).apply(C)).isSameAs(C);
+    }
+
+    @Test
+    public void throttled_body_is_delivered_in_slices() throws Exception {
+        final NetworkProfile P = new NetworkProfile().bandwidth(20 * 1000);
+
+        final long start = System.nanoTime();
+        final List<ByteBuffer> slices = slices(P.apply(ResponseBody.of(new byte[10000]).open()));
+        final Duration elapsed = Duration.ofNanos(System.nanoTime() - start);
+
+        then(slices).hasSize(10);
+        then(slices.get(0).remaining()).isEqualTo(1000);
+        then(elapsed).isGreaterThanOrEqualTo(Duration.ofMillis(450));
+    }
+
+    @Test
+    public void truncated_body() throws Exception {
+        final ResponseBody.Chunks C = new NetworkProfile().truncateAfter(4)
+            .apply(ResponseBody.of("hello world".getBytes()).open());
+
+        final ByteBuffer slice = C.next();
+        then(slice.remaining()).isEqualTo(4);
+        thenThrownBy(() -> C.next()).isInstanceOf(IOException.class)
+            .hasMessage("connection closed after 4 bytes");
+
+        //
+        // a body not longer than the limit is not truncated
+        //
+        then(slices(new NetworkProfile().truncateAfter(11).apply(ResponseBody.of("hello world".getBytes()).open())))
+            .hasSize(1);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<ByteBuffer> slices(final ResponseBody.Chunks chunks) throws IOException {
+        final List<ByteBuffer> ret = new ArrayList<>();
+        ByteBuffer slice;
+        while ((slice = chunks.next()) != null) {
+            ret.add(slice);
+        }
+        return ret;
+    }
+}
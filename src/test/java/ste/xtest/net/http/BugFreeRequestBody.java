@@ -0,0 +1,152 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublisher;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeRequestBody {
+
+    private static final URI U = URI.create("http://localhost/body");
+
+    @Test
+    public void snapshot_of_a_request_with_body() {
+        final RequestBody B = RequestBody.of(
+            HttpRequest.newBuilder(U).POST(BodyPublishers.ofString("hello world")).build()
+        );
+
+        then(B.isPresent()).isTrue();
+        then(B.error()).isEmpty();
+        then(B.length()).isEqualTo(11);
+        then(B.text()).isEqualTo("hello world");
+        then(B.text()).isSameAs(B.text());
+        then(B.text(StandardCharsets.ISO_8859_1)).isEqualTo("hello world");
+
+        final ByteBuffer bytes = B.bytes();
+        then(bytes.isReadOnly()).isTrue();
+        then(bytes.remaining()).isEqualTo(11);
+        bytes.get(new byte[5]);
+        then(B.bytes().remaining()).isEqualTo(11);
+    }
+
+    @Test
+    public void snapshot_of_a_request_with_a_multi_buffer_body() {
+        final RequestBody B = RequestBody.of(
+            HttpRequest.newBuilder(U).POST(BodyPublishers.ofByteArrays(java.util.List.of(
+                "hello".getBytes(), " ".getBytes(), "world".getBytes()
+            ))).build()
+        );
+
+        then(B.text()).isEqualTo("hello world");
+    }
+
+    @Test
+    public void snapshot_of_a_request_without_body() {
+        final RequestBody B = RequestBody.of(HttpRequest.newBuilder(U).GET().build());
+
+        then(B.isPresent()).isFalse();
+        then(B.error()).isEmpty();
+        then(B.length()).isZero();
+        then(B.text()).isEmpty();
+        then(B.bytes().remaining()).isZero();
+    }
+
+    @Test
+    public void snapshot_of_a_request_with_error() {
+        final RequestBody B = RequestBody.of(
+            HttpRequest.newBuilder(U).POST(new BodyPublisher() {
+                @Override
+                public long contentLength() {
+                    return -1;
+                }
+
+                @Override
+                public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                    subscriber.onSubscribe(new Flow.Subscription() {
+                        @Override
+                        public void request(long n) {
+                            subscriber.onError(new IllegalStateException("broken body"));
+                        }
+
+                        @Override
+                        public void cancel() {}
+                    });
+                }
+            }).build()
+        );
+
+        then(B.isPresent()).isFalse();
+        then(B.error().get()).isInstanceOf(IllegalStateException.class).hasMessage("broken body");
+    }
+
+    @Test
+    public void buffered_request_drains_the_body_only_once() {
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final BodyPublisher publisher = BodyPublishers.ofString("hello world");
+        final HttpRequest request = HttpRequest.newBuilder(U).POST(new BodyPublisher() {
+            @Override
+            public long contentLength() {
+                return publisher.contentLength();
+            }
+
+            @Override
+            public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                subscriptions.incrementAndGet(); publisher.subscribe(subscriber);
+            }
+        }).build();
+
+        final BufferedHttpRequest buffered = new BufferedHttpRequest(request);
+        then(subscriptions.get()).isEqualTo(0);
+
+        then(RequestBody.of(buffered)).isSameAs(RequestBody.of(buffered));
+        then(RequestBody.of(buffered).text()).isEqualTo("hello world");
+
+        //
+        // the body publisher of the buffered request replays the snapshot
+        //
+        then(RequestBody.read(buffered).text()).isEqualTo("hello world");
+        then(buffered.bodyPublisher().get().contentLength()).isEqualTo(11);
+        then(subscriptions.get()).isEqualTo(1);
+        then(buffered.request()).isSameAs(request);
+        then(buffered.uri()).isEqualTo(U);
+        then(buffered.method()).isEqualTo("POST");
+    }
+
+    @Test
+    public void of_throws_illegal_argument_exception_for_null_request() {
+        thenThrownBy(() -> RequestBody.of(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("request can not be null");
+    }
+}
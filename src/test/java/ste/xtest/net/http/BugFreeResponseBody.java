@@ -0,0 +1,142 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeResponseBody {
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void byte_array_body() throws Exception {
+        final byte[] CONTENT = "hello world".getBytes();
+        final ResponseBody B = ResponseBody.of(CONTENT);
+
+        then(B.length()).isEqualTo(11);
+        then(B.bytes()).isSameAs(CONTENT);
+        then(chunks(B)).hasSize(1);
+        then(chunks(B).get(0).isReadOnly()).isTrue();
+
+        then(chunks(ResponseBody.of(new byte[0]))).isEmpty();
+    }
+
+    @Test
+    public void file_body_is_delivered_in_chunks() throws Exception {
+        final File F = TMP.newFile();
+        final byte[] CONTENT = new byte[10000];
+        for (int i = 0; i < CONTENT.length; ++i) {
+            CONTENT[i] = (byte)i;
+        }
+        Files.write(F.toPath(), CONTENT);
+
+        final ResponseBody B = ResponseBody.file(F.toPath(), 4096);
+        then(B.length()).isEqualTo(10000);
+
+        final List<ByteBuffer> chunks = chunks(B);
+        then(chunks).hasSize(3);
+        then(chunks.get(0).remaining()).isEqualTo(4096);
+        then(chunks.get(1).remaining()).isEqualTo(4096);
+        then(chunks.get(2).remaining()).isEqualTo(10000 - 2*4096);
+        then(B.bytes()).isEqualTo(CONTENT);
+
+        then(ResponseBody.file(F.toPath()).bytes()).isEqualTo(CONTENT);
+        then(chunks(ResponseBody.file(TMP.newFile().toPath()))).isEmpty();
+    }
+
+    @Test
+    public void file_region_body() throws Exception {
+        final File F = TMP.newFile();
+        Files.write(F.toPath(), "0123456789".getBytes());
+
+        ResponseBody B = ResponseBody.file(F.toPath(), 2, 5);
+        then(B.length()).isEqualTo(5);
+        then(new String(B.bytes())).isEqualTo("23456");
+
+        B = ResponseBody.file(F.toPath(), 8, 5);
+        then(new String(B.bytes())).isEqualTo("89");
+
+        then(ResponseBody.file(F.toPath(), 3, 0).bytes()).isEmpty();
+    }
+
+    @Test
+    public void generated_body() throws Exception {
+        final ResponseBody B = ResponseBody.generate(-10, () -> List.of(
+            ByteBuffer.wrap("hello".getBytes()), ByteBuffer.wrap(" world".getBytes())
+        ).iterator());
+
+        then(B.length()).isEqualTo(-1);
+        then(chunks(B)).hasSize(2);
+        then(new String(B.bytes())).isEqualTo("hello world");
+
+        then(ResponseBody.generate(0, () -> Collections.emptyIterator()).length()).isZero();
+    }
+
+    @Test
+    public void invalid_arguments() {
+        thenThrownBy(() -> ResponseBody.file(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("file can not be null");
+        thenThrownBy(() -> ResponseBody.file(new File("somefile").toPath(), 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("chunkSize must be greater than 0");
+        thenThrownBy(() -> ResponseBody.file(null, 0, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("file can not be null");
+        thenThrownBy(() -> ResponseBody.file(new File("somefile").toPath(), -1, 0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("offset and length can not be negative");
+        thenThrownBy(() -> ResponseBody.file(new File("somefile").toPath(), 0, -1))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("offset and length can not be negative");
+        thenThrownBy(() -> ResponseBody.generate(10, null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("generator can not be null");
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private List<ByteBuffer> chunks(final ResponseBody body) throws Exception {
+        final List<ByteBuffer> ret = new ArrayList<>();
+        try (ResponseBody.Chunks chunks = body.open()) {
+            ByteBuffer chunk;
+            while ((chunk = chunks.next()) != null) {
+                ret.add(chunk);
+            }
+        }
+        return ret;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import com.sun.net.httpserver.Filter;
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeServerMetrics {
+
+    @Test
+    public void record_and_snapshot() {
+        final ServerMetrics M = new ServerMetrics();
+
+        ServerMetrics.Snapshot s = M.snapshot();
+        then(s.total.requests).isZero();
+        then(s.total.bytes).isZero();
+        then(s.total.status).isEmpty();
+        then(s.total.handler.count()).isZero();
+        then(s.paths).isEmpty();
+
+        M.record("/index.html", 200, 100, 2_000_000, 1_000_000);
+        M.record("/index.html", 304, 0, 1_000_000, 1_000_000);
+        M.record("/app.js", 200, 50, 4_000_000, 3_000_000);
+        M.record("/none.html", 404, 9, 500_000, 500_000);
+
+        s = M.snapshot();
+        then(s.total.requests).isEqualTo(4);
+        then(s.total.bytes).isEqualTo(159);
+        then(s.total.status).containsOnlyKeys(200, 304, 404);
+        then(s.total.status.get(200)).isEqualTo(2);
+        then(s.total.handler.count()).isEqualTo(4);
+        then(s.total.ttfb.count()).isEqualTo(4);
+        then(s.paths).containsOnlyKeys("/app.js", "/index.html", "/none.html");
+
+        final ServerMetrics.Counts index = s.paths.get("/index.html");
+        then(index.requests).isEqualTo(2);
+        then(index.bytes).isEqualTo(100);
+        then(index.status).containsEntry(200, 1L).containsEntry(304, 1L);
+        then(index.handler.max().toNanos()).isBetween(2_000_000L, 2_100_000L);
+        then(index.ttfb.percentile(50).toNanos()).isBetween(1_000_000L, 1_050_000L);
+
+        M.reset();
+        s = M.snapshot();
+        then(s.total.requests).isZero();
+        then(s.total.status).isEmpty();
+        then(s.total.handler.count()).isZero();
+        then(s.paths).isEmpty();
+    }
+
+    @Test
+    public void snapshot_as_json() {
+        final ServerMetrics M = new ServerMetrics();
+        M.record("/index.html", 200, 100, 2_000_000, 1_000_000);
+        M.record("/a \"quoted\" path", 404, 9, 500_000, 500_000);
+
+        final JSONObject json = new JSONObject(M.snapshot().toJSON());
+        then(json.getLong("requests")).isEqualTo(2);
+        then(json.getLong("bytes")).isEqualTo(109);
+        then(json.getJSONObject("status").getLong("200")).isEqualTo(1);
+        then(json.getJSONObject("status").getLong("404")).isEqualTo(1);
+        then(json.getJSONObject("handler").getLong("count")).isEqualTo(2);
+        then(json.getJSONObject("handler").getLong("max_us")).isBetween(2_000L, 2_100L);
+        then(json.getJSONObject("handler").keySet()).containsOnly("count", "mean_us", "p50_us", "p90_us", "p99_us", "max_us");
+
+        final JSONObject index = json.getJSONObject("paths").getJSONObject("/index.html");
+        then(index.getLong("requests")).isEqualTo(1);
+        then(index.getJSONObject("ttfb").getLong("p50_us")).isBetween(1_000L, 1_050L);
+        then(json.getJSONObject("paths").has("/a \"quoted\" path")).isTrue();
+
+        then(M.snapshot().toString()).isEqualTo(M.snapshot().toJSON());
+    }
+
+    @Test
+    public void filter_measures_exchanges() throws Exception {
+        final ServerMetrics M = new ServerMetrics();
+        final HttpExchangeStub exchange = new HttpExchangeStub("http://somewhere.com/some/page.html")
+            .withOutputStream(new ByteArrayOutputStream());
+
+        M.filter().doFilter(exchange, new Filter.Chain(
+            List.of(),
+            (e) -> {
+                sleep(5);
+                e.sendResponseHeaders(200, 5);
+                sleep(20);
+                e.getResponseBody().write("hello".getBytes());
+                e.getResponseBody().write('!');
+                e.close();
+            }
+        ));
+
+        final ServerMetrics.Counts c = M.snapshot().paths.get("/some/page.html");
+        then(c.requests).isEqualTo(1);
+        then(c.bytes).isEqualTo(6);
+        then(c.status).containsEntry(200, 1L);
+        then(c.ttfb.max().toMillis()).isGreaterThanOrEqualTo(5).isLessThan(c.handler.max().toMillis());
+        then(c.handler.max().toMillis()).isGreaterThanOrEqualTo(25);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void sleep(final long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException x) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -22,17 +22,38 @@
 
 package ste.xtest.net.http;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandler;
 import java.net.http.HttpResponse.BodyHandlers;
+import java.net.http.HttpResponse.BodySubscribers;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import static org.assertj.core.api.BDDAssertions.then;
 import static org.assertj.core.api.BDDAssertions.thenThrownBy;
 import org.junit.After;
@@ -371,14 +392,11 @@ public class BugFreeStubHttpClient extends BugFreeHttpClientBase {
 
         HTTP.send(request, bodyHandler);
 
-        List<String> messages = logHandler.getMessages(Level.INFO);
-        then(messages).containsExactly(
-            "Given " + HTTP,
-            "Given " + HTTP.toString(request),
-            "Trying to match stub #0",
-            "This is NOT a match",
-            "Trying to match stub #1",
-            "This is NOT a match",
+        //
+        // a successful match does not dump stubs and request
+        //
+        then(logHandler.getMessages(Level.INFO)).isEmpty();
+        then(logHandler.getMessages(Level.FINE)).containsExactly(
             "Trying to match stub #2",
             "This is a match"
         );
@@ -416,13 +434,558 @@ public class BugFreeStubHttpClient extends BugFreeHttpClientBase {
         then(messages).containsExactly(
             "Given " + HTTP,
             "Given " + HTTP.toString(request),
-            "Trying to match stub #0",
-            "This is NOT a match",
-            "Trying to match stub #1",
-            "This is NOT a match",
-            "Trying to match stub #2",
-            "This is NOT a match",
             "No match found"
         );
     }
+
+    @Test
+    public void send_routes_to_the_first_registered_matching_stub() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(new URIPrefixMatcher("http://localhost/api/"), new StubHttpResponse().text("prefix"))
+            .withStub("http://localhost/api/users", new StubHttpResponse().text("exact"))
+            .withStub(new HeaderMatcher("X-Test", "fallback"), new StubHttpResponse().text("fallback"))
+            .withStub("http://localhost/other", new StubHttpResponse().text("other"))
+            .withStub(new ANDMatcher(
+                new URIMatcher("http://localhost/and"),
+                new HeaderMatcher("X-Test", "and")
+            ), new StubHttpResponse().text("and"))
+            .withStub("http://localhost/and", new StubHttpResponse().text("and exact"));
+        final HttpClient HTTP = stubber.build();
+
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/api/users")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("prefix");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/other")).header("X-Test", "fallback").GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("fallback");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/other")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("other");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/and")).header("X-Test", "and").GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("and");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/and")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("and exact");
+
+        //
+        // changes to the stubs are taken into account
+        //
+        stubber.stubs().remove(0);
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/api/users")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("exact");
+        stubber.stubs().clear();
+        thenThrownBy(() -> HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/api/users")).GET().build(),
+            BodyHandlers.ofString()
+        )).isInstanceOf(IOException.class).hasMessageStartingWith("no stub found for");
+    }
+
+    @Test
+    public void send_returns_the_subclass_exchange() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://h/tagged", new TaggedResponse("hello").text("tagged"))
+            .build();
+
+        final HttpResponse<String> response = HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/tagged")).GET().build(),
+            BodyHandlers.ofString()
+        );
+        then(response).isInstanceOf(TaggedResponse.class);
+        then(((TaggedResponse)response).tag).isEqualTo("hello");
+        then(response.body()).isEqualTo("tagged");
+        then(response.request().uri()).isEqualTo(URI.create("http://h/tagged"));
+    }
+
+    @Test
+    public void send_routes_overlapping_prefixes_in_registration_order() throws Exception {
+        HttpClient HTTP = new HttpClientStubber()
+            .withStub(new URIPrefixMatcher("http://h/a/b"), new StubHttpResponse().text("first"))
+            .withStub(new URIPrefixMatcher("http://h/a"), new StubHttpResponse().text("second"))
+            .build();
+
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/a/b/c")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("first");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/a/x")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("second");
+
+        HTTP = new HttpClientStubber()
+            .withStub(new URIPrefixMatcher("http://h/a"), new StubHttpResponse().text("first"))
+            .withStub(new URIPrefixMatcher("http://h/a/b"), new StubHttpResponse().text("second"))
+            .withStub("http://h/a/b/c", new StubHttpResponse().text("exact"))
+            .build();
+
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/a/b/c")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("first");
+
+        HTTP = new HttpClientStubber()
+            .withStub("http://h/a/b/c", new StubHttpResponse().text("exact"))
+            .withStub(new URIPrefixMatcher("http://h/a/b"), new StubHttpResponse().text("second"))
+            .withStub(new URIPrefixMatcher("http://h/a"), new StubHttpResponse().text("third"))
+            .build();
+
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/a/b/c")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("exact");
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://h/a/b/d")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("second");
+    }
+
+    @Test
+    public void send_looks_up_among_many_stubs() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber();
+        for (int i = 0; i < 10000; ++i) {
+            stubber.withStub("http://localhost/resource/" + i, new StubHttpResponse().text("resource " + i));
+        }
+        final HttpClient HTTP = stubber.build();
+
+        for (int i = 0; i < 10000; i += 1111) {
+            then(HTTP.send(
+                HttpRequest.newBuilder(URI.create("http://localhost/resource/" + i)).GET().build(),
+                BodyHandlers.ofString()
+            ).body()).isEqualTo("resource " + i);
+        }
+    }
+
+    @Test
+    public void each_exchange_gets_its_own_response() throws Exception {
+        final StubHttpResponse stub = new StubHttpResponse().text("hello");
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub(new URIPrefixMatcher("http://localhost/"), stub)
+            .build();
+
+        final HttpRequest R1 = HttpRequest.newBuilder(URI.create("http://localhost/1")).GET().build();
+        final HttpRequest R2 = HttpRequest.newBuilder(URI.create("http://localhost/2")).GET().build();
+
+        final HttpResponse<String> response1 = HTTP.send(R1, BodyHandlers.ofString());
+        final HttpResponse<byte[]> response2 = HTTP.send(R2, BodyHandlers.ofByteArray());
+
+        then(response1).isNotSameAs(stub).isNotSameAs(response2);
+        then(response1.body()).isEqualTo("hello");
+        then(response1.request()).isSameAs(R1);
+        then(response1.uri()).isEqualTo(R1.uri());
+        then(response2.body()).isEqualTo("hello".getBytes());
+        then(response2.request()).isSameAs(R2);
+        then(stub.body()).isNull();
+        then(stub.request()).isNull();
+    }
+
+    @Test
+    public void concurrent_send_without_cross_talk() throws Exception {
+        final int THREADS = 200, REQUESTS = 10;
+
+        //
+        // stop logging matching details, this is a stress test
+        //
+        Logger.getLogger(StubHttpClient.class.getName()).setLevel(Level.OFF);
+
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(new URIPrefixMatcher("http://localhost/shared/"), new StubHttpResponse().text("shared"));
+        final HttpClient HTTP = stubber.build();
+
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final List<Future<?>> tasks = new ArrayList<>();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int t = 0; t < THREADS; ++t) {
+                final int id = t;
+                tasks.add(executor.submit(() -> {
+                    //
+                    // stubs are added while traffic is flowing
+                    //
+                    final String own = "http://localhost/own/" + id;
+                    stubber.withStub(own, new StubHttpResponse().text("own " + id));
+
+                    for (int i = 0; i < REQUESTS; ++i) {
+                        final String shared = "http://localhost/shared/" + id + "/" + i;
+                        final HttpResponse<String> response = HTTP.send(
+                            HttpRequest.newBuilder(URI.create(shared)).GET().build(),
+                            info -> BodySubscribers.mapping(
+                                BodySubscribers.ofString(StandardCharsets.UTF_8),
+                                body -> body + " " + shared
+                            )
+                        );
+                        if (!("shared " + shared).equals(response.body()) || !response.uri().toString().equals(shared)) {
+                            errors.add(shared + " -> " + response.body());
+                        }
+
+                        final String body = HTTP.send(
+                            HttpRequest.newBuilder(URI.create(own)).GET().build(),
+                            BodyHandlers.ofString()
+                        ).body();
+                        if (!body.equals("own " + id)) {
+                            errors.add(own + " -> " + body);
+                        }
+                    }
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> task: tasks) {
+            task.get();
+        }
+
+        then(errors).isEmpty();
+        then(stubber.stubs()).hasSize(THREADS + 1);
+    }
+
+    @Test
+    public void async_send_runs_on_a_virtual_thread_by_default() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/async", new StubHttpResponse().text("hello async"))
+            .build();
+
+        final Thread[] thread = new Thread[1];
+        final HttpResponse<String> response = HTTP.sendAsync(
+            HttpRequest.newBuilder(URI.create("http://localhost/async")).GET().build(),
+            info -> { thread[0] = Thread.currentThread(); return BodySubscribers.ofString(StandardCharsets.UTF_8); }
+        ).get();
+
+        then(response.body()).isEqualTo("hello async");
+        then(thread[0]).isNotSameAs(Thread.currentThread());
+        then(thread[0].isVirtual()).isTrue();
+    }
+
+    @Test
+    public void async_send_runs_on_the_given_executor() throws Exception {
+        final Thread[] thread = new Thread[1];
+        final ExecutorService executor = Executors.newSingleThreadExecutor((task) -> thread[0] = new Thread(task));
+        try {
+            final HttpClient HTTP = new HttpClientStubber()
+                .executor(executor)
+                .withStub("http://localhost/async", new StubHttpResponse().text("hello async"))
+                .build();
+
+            final Thread[] bodyThread = new Thread[1];
+            then(HTTP.sendAsync(
+                HttpRequest.newBuilder(URI.create("http://localhost/async")).GET().build(),
+                info -> { bodyThread[0] = Thread.currentThread(); return BodySubscribers.ofString(StandardCharsets.UTF_8); }
+            ).get().body()).isEqualTo("hello async");
+            then(bodyThread[0]).isSameAs(thread[0]);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void async_send_fails_with_the_send_exception() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/error", new NetworkError())
+            .build();
+
+        thenThrownBy(() -> HTTP.sendAsync(
+            HttpRequest.newBuilder(URI.create("http://localhost/error")).GET().build(),
+            BodyHandlers.ofString()
+        ).join()).hasCauseInstanceOf(IOException.class)
+        .hasMessageContaining("network error for http://localhost/error");
+    }
+
+    @Test
+    public void send_with_latency() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub(
+                "http://localhost/slow",
+                new StubHttpResponse().text("slow").latency(LatencyModel.fixed(Duration.ofMillis(200)))
+            )
+            .build();
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost/slow")).GET().build();
+
+        long start = System.nanoTime();
+        then(HTTP.send(request, BodyHandlers.ofString()).body()).isEqualTo("slow");
+        then(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+
+        start = System.nanoTime();
+        final CompletableFuture<HttpResponse<String>> future = HTTP.sendAsync(request, BodyHandlers.ofString());
+        then(future).isNotDone();
+        then(future.get().body()).isEqualTo("slow");
+        then(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+    }
+
+    @Test
+    public void send_times_out_if_latency_exceeds_request_timeout() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub(
+                "http://localhost/slow",
+                new StubHttpResponse().text("slow").latency(LatencyModel.fixed(Duration.ofSeconds(10)))
+            )
+            .build();
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost/slow"))
+            .timeout(Duration.ofMillis(100)).GET().build();
+
+        final long start = System.nanoTime();
+        thenThrownBy(() -> HTTP.send(request, BodyHandlers.ofString()))
+            .isInstanceOf(HttpTimeoutException.class)
+            .hasMessage("request timed out");
+        then(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofSeconds(10));
+
+        thenThrownBy(() -> HTTP.sendAsync(request, BodyHandlers.ofString()).join())
+            .hasCauseInstanceOf(HttpTimeoutException.class);
+    }
+
+    @Test
+    public void send_reads_the_request_body_only_once() throws Exception {
+        final AtomicInteger subscriptions = new AtomicInteger();
+        final HttpRequest.BodyPublisher publisher = HttpRequest.BodyPublishers.ofString("{\"name\":\"John Doe\"}");
+
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub(new BodyMatcher("{}"), new StubHttpResponse().text("empty"))
+            .withStub(new BodyMatcher(Pattern.compile(".*Jane.*")), new StubHttpResponse().text("jane"))
+            .withStub(new BodyMatcher(Pattern.compile(".*John.*")), new StubHttpResponse().text("john"))
+            .build();
+
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost/people"))
+            .POST(new HttpRequest.BodyPublisher() {
+                @Override
+                public long contentLength() {
+                    return publisher.contentLength();
+                }
+
+                @Override
+                public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+                    subscriptions.incrementAndGet(); publisher.subscribe(subscriber);
+                }
+            }).build();
+
+        then(HTTP.send(request, BodyHandlers.ofString()).body()).isEqualTo("john");
+        then(subscriptions.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void send_streams_large_content_with_constant_memory() throws Exception {
+        final int CHUNK = 64*1024, CHUNKS = 4*1024; // 256MB
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/dump", new StubHttpResponse().content(
+                ResponseBody.generate((long)CHUNK * CHUNKS, () -> new Iterator<ByteBuffer>() {
+                    private int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < CHUNKS;
+                    }
+
+                    @Override
+                    public ByteBuffer next() {
+                        ++i; return ByteBuffer.allocate(CHUNK);
+                    }
+                })
+            ))
+            .build();
+
+        final HttpResponse<InputStream> response = HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/dump")).GET().build(),
+            BodyHandlers.ofInputStream()
+        );
+        then(response.headers().firstValue("Content-length")).hasValue(String.valueOf((long)CHUNK * CHUNKS));
+
+        long total = 0;
+        try (InputStream is = response.body()) {
+            final byte[] buf = new byte[16*1024];
+            int n;
+            while ((n = is.read(buf)) >= 0) {
+                total += n;
+            }
+        }
+        then(total).isEqualTo((long)CHUNK * CHUNKS);
+    }
+
+    @Test
+    public void send_streams_a_file_by_lines() throws Exception {
+        final File F = File.createTempFile("xtest", ".txt");
+        F.deleteOnExit();
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 100000; ++i) {
+            sb.append("line ").append(i).append('\n');
+        }
+        Files.writeString(F.toPath(), sb);
+
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/lines", new StubHttpResponse().streamFile(F.getAbsolutePath()))
+            .build();
+
+        final HttpResponse<Stream<String>> response = HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/lines")).GET().build(),
+            BodyHandlers.ofLines()
+        );
+        try (Stream<String> lines = response.body()) {
+            final List<String> all = lines.collect(Collectors.toList());
+            then(all).hasSize(100000);
+            then(all.get(0)).isEqualTo("line 0");
+            then(all.get(99999)).isEqualTo("line 99999");
+        }
+    }
+
+    @Test
+    public void send_honours_subscriber_demand() throws Exception {
+        final int CHUNKS = 10;
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/chunks", new StubHttpResponse().content(
+                ResponseBody.generate(-1, () -> Stream.generate(() -> ByteBuffer.wrap("chunk".getBytes())).limit(CHUNKS).iterator())
+            ))
+            .build();
+
+        final AtomicLong requested = new AtomicLong(), received = new AtomicLong();
+        final List<String> errors = new CopyOnWriteArrayList<>();
+        final Flow.Subscription[] subscription = new Flow.Subscription[1];
+        final CompletableFuture<Long> done = new CompletableFuture<>();
+
+        HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/chunks")).GET().build(),
+            info -> new HttpResponse.BodySubscriber<Long>() {
+                @Override
+                public CompletionStage<Long> getBody() {
+                    return done;
+                }
+
+                @Override
+                public void onSubscribe(Flow.Subscription s) {
+                    subscription[0] = s;
+                }
+
+                @Override
+                public void onNext(List<ByteBuffer> item) {
+                    if (received.incrementAndGet() > requested.get()) {
+                        errors.add("received more than requested");
+                    }
+                }
+
+                @Override
+                public void onError(Throwable x) {
+                    done.completeExceptionally(x);
+                }
+
+                @Override
+                public void onComplete() {
+                    done.complete(received.get());
+                }
+            }
+        );
+
+        then(received.get()).isZero();
+        for (int i = 1; i <= CHUNKS; ++i) {
+            requested.incrementAndGet(); subscription[0].request(1);
+            then(received.get()).isEqualTo(i);
+        }
+        then(done).isNotDone();
+        requested.incrementAndGet(); subscription[0].request(1);
+        then(done.get()).isEqualTo(CHUNKS);
+        then(errors).isEmpty();
+    }
+
+    @Test
+    public void send_with_network_profile() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .network(new NetworkProfile().ttfb(Duration.ofMillis(200)))
+            .withStub("http://localhost/slow", new StubHttpResponse().text("slow"))
+            .withStub("http://localhost/throttled", new StubHttpResponse().content(new byte[50000]).network(
+                new NetworkProfile().bandwidth(100000)
+            ));
+        final HttpClient HTTP = stubber.build();
+
+        //
+        // stubber profile
+        //
+        long start = System.nanoTime();
+        then(HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/slow")).GET().build(),
+            BodyHandlers.ofString()
+        ).body()).isEqualTo("slow");
+        then(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(200));
+
+        //
+        // response profile takes precedence
+        //
+        start = System.nanoTime();
+        final HttpResponse<InputStream> response = HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/throttled")).GET().build(),
+            BodyHandlers.ofInputStream()
+        );
+        try (InputStream is = response.body()) {
+            then(is.readAllBytes()).hasSize(50000);
+        }
+        //
+        // 500ms to deliver 50000 bytes at 100000 bytes/s without the 200ms
+        // time to first byte of the stubber profile (the upper bound is just
+        // a sanity check, the test may run on a loaded machine)
+        //
+        then(Duration.ofNanos(System.nanoTime() - start))
+            .isGreaterThanOrEqualTo(Duration.ofMillis(450))
+            .isLessThan(Duration.ofSeconds(5));
+    }
+
+    @Test
+    public void throttled_body_is_not_delivered_in_send() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/throttled", new StubHttpResponse().content(new byte[20000]).network(
+                new NetworkProfile().bandwidth(10000)
+            ))
+            .build();
+
+        long start = System.nanoTime();
+        final HttpResponse<InputStream> response = HTTP.send(
+            HttpRequest.newBuilder(URI.create("http://localhost/throttled")).GET().build(),
+            BodyHandlers.ofInputStream()
+        );
+        then(Duration.ofNanos(System.nanoTime() - start)).isLessThan(Duration.ofMillis(1000));
+
+        try (InputStream is = response.body()) {
+            then(is.readAllBytes()).hasSize(20000);
+        }
+        then(Duration.ofNanos(System.nanoTime() - start)).isGreaterThanOrEqualTo(Duration.ofMillis(1900));
+    }
+
+    @Test
+    public void send_with_dropped_connection() throws Exception {
+        final HttpClient HTTP = new HttpClientStubber()
+            .withStub("http://localhost/dropped", new StubHttpResponse().text("hello world").network(
+                new NetworkProfile().truncateAfter(5)
+            ))
+            .build();
+        final HttpRequest request = HttpRequest.newBuilder(URI.create("http://localhost/dropped")).GET().build();
+
+        thenThrownBy(() -> HTTP.send(request, BodyHandlers.ofString()))
+            .isInstanceOf(IOException.class)
+            .hasMessage("connection closed after 5 bytes");
+
+        try (InputStream is = HTTP.send(request, BodyHandlers.ofInputStream()).body()) {
+            then(is.readNBytes(5)).isEqualTo("hello".getBytes());
+            thenThrownBy(() -> is.read()).isInstanceOf(IOException.class);
+        }
+    }
+
+    // ------------------------------------------------------- TaggedResponse
+
+    private static class TaggedResponse extends StubHttpResponse<String> {
+        final String tag;
+
+        TaggedResponse(final String tag) {
+            this.tag = tag;
+        }
+
+        private TaggedResponse(final TaggedResponse stub, final HttpRequest request) {
+            super(stub, request);
+            this.tag = stub.tag;
+        }
+
+        @Override
+        protected StubHttpResponse<String> exchange(final HttpRequest request) {
+            return new TaggedResponse(this, request);
+        }
+    }
 }
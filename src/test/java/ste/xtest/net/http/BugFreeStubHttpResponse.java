@@ -27,6 +27,7 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.net.http.HttpClient;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -200,6 +201,57 @@ public class BugFreeStubHttpResponse {
         then(R.headers().firstValue("Content-length")).hasValue("0");
     }
 
+    @Test
+    public void with_streamed_file_body() throws IOException {
+        final String TEST_FILE1 = "src/test/resources/html/documentlocation.html";
+        final String TEST_FILE2 = "src/test/resources/images/6096.png";
+        final String TEST_FILE3 = "src/test/resources/notexisting.unknown";
+
+        final StubHttpResponse<String> R = new StubHttpResponse<>();
+
+        then(R.streamFile(TEST_FILE1)).isSameAs(R);
+        then(R.content()).isEqualTo(FileUtils.readFileToByteArray(new File(TEST_FILE1)));
+        then(R.headers().firstValue("Content-type")).hasValue("text/html");
+        then(R.headers().firstValue("Content-length")).hasValue("117");
+
+        then(R.streamFile(TEST_FILE2)).isSameAs(R);
+        then(R.responseBody().length()).isEqualTo(1516957);
+        then(R.headers().firstValue("Content-type")).hasValue("image/png");
+        then(R.headers().firstValue("Content-length")).hasValue("1516957");
+
+        try {
+            R.streamFile(TEST_FILE3);
+            fail("missing error");
+        } catch (IOException x) {
+            then(x).isInstanceOf(FileNotFoundException.class);
+        }
+    }
+
+    @Test
+    public void with_response_body() {
+        final StubHttpResponse<String> R = new StubHttpResponse<>();
+
+        final ResponseBody B1 = ResponseBody.of(TEST_CONTENT1.getBytes());
+        then(R.content(B1)).isSameAs(R);
+        then(R.responseBody()).isSameAs(B1);
+        then(R.content()).isEqualTo(TEST_CONTENT1.getBytes());
+        then(R.headers().firstValue("Content-type")).hasValue("application/octet-stream");
+        then(R.headers().firstValue("Content-length")).hasValue(String.valueOf(TEST_CONTENT1.length()));
+
+        final ResponseBody B2 = ResponseBody.generate(-1, () -> List.of(ByteBuffer.wrap(TEST_CONTENT2.getBytes())).iterator());
+        then(R.content(B2)).isSameAs(R);
+        then(R.responseBody()).isSameAs(B2);
+        then(R.content()).isEqualTo(TEST_CONTENT2.getBytes());
+        then(R.headers().firstValue("Content-length")).isEmpty();
+
+        try {
+            R.content((ResponseBody)null);
+            fail("missing error");
+        } catch (IllegalArgumentException x) {
+            then(x).hasMessage("content can not be null");
+        }
+    }
+
     @Test
     public void add_header_to_headers() {
         final StubHttpResponse R = new StubHttpResponse<>();
@@ -0,0 +1,184 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+import ste.xtest.net.http.StubHttpClient.NetworkError;
+import ste.xtest.net.http.StubHttpClient.StubHttpResponse;
+import ste.xtest.net.http.StubStatistics.HistogramSnapshot;
+import ste.xtest.net.http.StubStatistics.Snapshot;
+import ste.xtest.net.http.StubStatistics.StubSnapshot;
+
+/**
+ *
+ */
+public class BugFreeStubStatistics {
+
+    private static final String URL1 = "http://earth.com";
+    private static final String URL2 = "https://universe.io";
+
+    @Test
+    public void no_statistics_at_start() {
+        final Snapshot S = new HttpClientStubber().statistics().snapshot();
+
+        then(S.stubs).isEmpty();
+        then(S.unmatched).isZero();
+        then(S.toString()).isEqualTo("0 unmatched requests\n");
+    }
+
+    @Test
+    public void count_hits_bytes_and_unmatched() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(URL1, new StubHttpResponse().text("hello world"))
+            .withStub(URL2, new StubHttpResponse().text("hello universe"));
+        final HttpClient HTTP = stubber.build();
+
+        for (int i = 0; i < 3; ++i) {
+            HTTP.send(HttpRequest.newBuilder(URI.create(URL1)).build(), BodyHandlers.ofString());
+        }
+        HTTP.send(HttpRequest.newBuilder(URI.create(URL2)).build(), BodyHandlers.ofString());
+        thenThrownBy(() ->
+            HTTP.send(HttpRequest.newBuilder(URI.create("http://nowhere.com")).build(), BodyHandlers.ofString())
+        ).isInstanceOf(IOException.class);
+
+        final Snapshot S = stubber.statistics().snapshot();
+        then(S.stubs).hasSize(2);
+        then(S.unmatched).isEqualTo(1);
+
+        StubSnapshot stub = S.of(stubber.stubs().get(0));
+        then(stub.hits).isEqualTo(3);
+        then(stub.bytes).isEqualTo(3 * "hello world".length());
+        then(stub.consume.count()).isEqualTo(3);
+
+        stub = S.of(stubber.stubs().get(1));
+        then(stub.hits).isEqualTo(1);
+        then(stub.bytes).isEqualTo("hello universe".length());
+        then(stub.consume.count()).isEqualTo(1);
+
+        then(S.toString()).contains("3 hits, 33 bytes").contains("1 hits, 14 bytes").endsWith("1 unmatched requests\n");
+    }
+
+    @Test
+    public void consume_time_is_recorded_when_the_body_is_consumed() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(URL1, new StubHttpResponse().text("hello world"));
+
+        final InputStream is = stubber.build().send(
+            HttpRequest.newBuilder(URI.create(URL1)).build(), BodyHandlers.ofInputStream()
+        ).body();
+
+        StubSnapshot stub = stubber.statistics().snapshot().of(stubber.stubs().get(0));
+        then(stub.hits).isEqualTo(1);
+        then(stub.consume.count()).isZero();
+
+        Thread.sleep(50);
+        then(new String(is.readAllBytes())).isEqualTo("hello world");
+
+        stub = stubber.statistics().snapshot().of(stubber.stubs().get(0));
+        then(stub.bytes).isEqualTo(11);
+        then(stub.consume.count()).isEqualTo(1);
+        then(stub.consume.max()).isGreaterThanOrEqualTo(Duration.ofMillis(50));
+    }
+
+    @Test
+    public void network_errors_are_hits_without_body() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(URL1, new NetworkError());
+
+        thenThrownBy(() ->
+            stubber.build().send(HttpRequest.newBuilder(URI.create(URL1)).build(), BodyHandlers.ofString())
+        ).isInstanceOf(IOException.class);
+
+        final StubSnapshot stub = stubber.statistics().snapshot().of(stubber.stubs().get(0));
+        then(stub.hits).isEqualTo(1);
+        then(stub.bytes).isZero();
+        then(stub.consume.count()).isZero();
+    }
+
+    @Test
+    public void reset_clears_all_counters() throws Exception {
+        final HttpClientStubber stubber = new HttpClientStubber()
+            .withStub(URL1, new StubHttpResponse().text("hello world"));
+        final HttpClient HTTP = stubber.build();
+
+        HTTP.send(HttpRequest.newBuilder(URI.create(URL1)).build(), BodyHandlers.ofString());
+        thenThrownBy(() ->
+            HTTP.send(HttpRequest.newBuilder(URI.create(URL2)).build(), BodyHandlers.ofString())
+        ).isInstanceOf(IOException.class);
+
+        stubber.statistics().reset();
+
+        final Snapshot S = stubber.statistics().snapshot();
+        then(S.stubs).isEmpty();
+        then(S.unmatched).isZero();
+        then(S.of(stubber.stubs().get(0))).isNull();
+    }
+
+    @Test
+    public void histogram_precision_and_percentiles() {
+        final StubStatistics.Histogram H = new StubStatistics.Histogram();
+
+        then(H.snapshot().count()).isZero();
+        then(H.snapshot().percentile(99)).isEqualTo(Duration.ZERO);
+        then(H.snapshot().max()).isEqualTo(Duration.ZERO);
+
+        for (long v = 1; v <= 1000; ++v) {
+            H.record(v * 1_000_000); // 1ms .. 1s
+        }
+
+        final HistogramSnapshot S = H.snapshot();
+        then(S.count()).isEqualTo(1000);
+        then(S.mean().toNanos()).isEqualTo(500_500_000);
+        then(S.percentile(0).toNanos()).isBetween(1_000_000L, 1_035_000L);
+        then(S.percentile(50).toNanos()).isBetween(500_000_000L, 517_500_000L);
+        then(S.percentile(99).toNanos()).isBetween(990_000_000L, 1_024_650_000L);
+        then(S.max().toNanos()).isBetween(1_000_000_000L, 1_035_000_000L);
+
+        thenThrownBy(() -> S.percentile(-1)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentile must be in the range [0, 100]");
+        thenThrownBy(() -> S.percentile(100.1)).isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("percentile must be in the range [0, 100]");
+    }
+
+    @Test
+    public void histogram_buckets_are_contiguous() {
+        long previous = -1;
+        for (long v: new long[] {0, 1, 63, 64, 65, 127, 128, 1000, 1L << 40, Long.MAX_VALUE}) {
+            final int i = StubStatistics.Histogram.index(v);
+            then(i).isGreaterThan((int)previous - 1);
+            then(StubStatistics.Histogram.highest(i)).isGreaterThanOrEqualTo(v);
+            if (i > 0) {
+                then(StubStatistics.Histogram.highest(i-1)).isLessThan(v);
+            }
+            previous = i;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.http;
+
+import java.net.URI;
+import java.net.http.HttpRequest;
+
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+
+public class BugFreeURIPrefixMatcher {
+
+    @Test
+    public void constructor_sets_the_prefix() {
+        then(new URIPrefixMatcher("http://example.com/api/").prefix).isEqualTo("http://example.com/api/");
+        then(new URIPrefixMatcher("").prefix).isEmpty();
+
+        thenThrownBy(() -> new URIPrefixMatcher(null))
+           .isInstanceOf(IllegalArgumentException.class)
+           .hasMessage("prefix can not be null");
+    }
+
+    @Test
+    public void match_with_matching_prefix() {
+        final URIPrefixMatcher M = new URIPrefixMatcher("http://example.com/api/");
+        then(M.match(HttpRequest.newBuilder(URI.create("http://example.com/api/")).build())).isTrue();
+        then(M.match(HttpRequest.newBuilder(URI.create("http://example.com/api/users/1")).build())).isTrue();
+        then(M.match(HttpRequest.newBuilder(URI.create("http://example.com/api/users?id=1")).build())).isTrue();
+    }
+
+    @Test
+    public void match_with_non_matching_prefix() {
+        final URIPrefixMatcher M = new URIPrefixMatcher("http://example.com/api/");
+        then(M.match(HttpRequest.newBuilder(URI.create("http://example.com/api")).build())).isFalse();
+        then(M.match(HttpRequest.newBuilder(URI.create("https://example.com/api/users")).build())).isFalse();
+        then(M.match(HttpRequest.newBuilder(URI.create("http://example.com/other")).build())).isFalse();
+    }
+
+    @Test
+    public void match_throws_illegal_argument_exception_for_null_request() {
+        thenThrownBy(() -> new URIPrefixMatcher("http://example.com").match(null))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("request can not be null");
+    }
+
+    @Test
+    public void to_string() {
+        then(new URIPrefixMatcher("http://example.com/api/").toString())
+            .isEqualTo("with uri starting with 'http://example.com/api/'");
+    }
+}
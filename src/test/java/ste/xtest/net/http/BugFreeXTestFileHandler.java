@@ -21,21 +21,37 @@
  */
 package ste.xtest.net.http;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 import org.apache.commons.io.IOUtils;
 import static org.assertj.core.api.BDDAssertions.then;
 import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  *
  */
 public class BugFreeXTestFileHandler {
 
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
     @Test
     public void constructor() {
         final List<String> BOOTSTRAP = List.of("script1");
@@ -152,6 +168,494 @@ public class BugFreeXTestFileHandler {
         then(responseParts[1]).startsWith("<html>\n    <head><script>\nscript1\nscript2\n</script>\n");
     }
 
+    @Test
+    public void handle_splices_bootstrap_script_once_per_file_version() throws Exception {
+        final File F = new File(TMP.getRoot(), "page.html");
+        final List<String> SCRIPTS = new ArrayList<>(List.of("script1"));
+        final String SCRIPT = "<script>\nscript1\n</script>\n";
+
+        for (ContentCache cache: new ContentCache[] {null, new ContentCache(1024*1024)}) {
+            final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), SCRIPTS).cache(cache);
+
+            //
+            // in the first head only
+            //
+            Files.writeString(F.toPath(), "<html><head><title>è</title></head><body><head></body></html>");
+            HttpExchangeStub exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null);
+            fh.handle(exchange);
+            byte[] body = body(exchange);
+            then(new String(body, StandardCharsets.UTF_8))
+                .isEqualTo("<html><head>" + SCRIPT + "<title>è</title></head><body><head></body></html>");
+            then(exchange.responseHeaders.getFirst("Content-Length")).isEqualTo(String.valueOf(body.length));
+
+            //
+            // served again from the same splice
+            //
+            exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null);
+            fh.handle(exchange);
+            then(body(exchange)).isEqualTo(body);
+
+            //
+            // a new version of the page is spliced again
+            //
+            Files.writeString(F.toPath(), "<html><body>no head</body></html>");
+            Files.setLastModifiedTime(F.toPath(), FileTime.fromMillis(F.lastModified() + 5000));
+            exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null);
+            fh.handle(exchange);
+            then(new String(body(exchange), StandardCharsets.UTF_8))
+                .isEqualTo("<html><head>" + SCRIPT + "</head><body>no head</body></html>");
+
+            Files.writeString(F.toPath(), "<body>no html</body>");
+            Files.setLastModifiedTime(F.toPath(), FileTime.fromMillis(F.lastModified() + 5000));
+            exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null);
+            fh.handle(exchange);
+            then(new String(body(exchange), StandardCharsets.UTF_8))
+                .isEqualTo("<html>" + SCRIPT + "<body>no html</body></html>");
+
+            //
+            // changes to the scripts are picked up
+            //
+            SCRIPTS.add("script2");
+            exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null);
+            fh.handle(exchange);
+            then(new String(body(exchange), StandardCharsets.UTF_8))
+                .isEqualTo("<html><script>\nscript1\nscript2\n</script>\n<body>no html</body></html>");
+            SCRIPTS.remove(1);
+
+            //
+            // HEAD
+            //
+            exchange = exchange("/page.html?__XTEST_BOOTSTRAP__=1", null).withMethod("HEAD");
+            fh.handle(exchange);
+            then(exchange.responseHeaders.getFirst("Content-Length"))
+                .isEqualTo(String.valueOf(("<html>" + SCRIPT + "<body>no html</body></html>").length()));
+            then(body(exchange)).isEmpty();
+        }
+    }
+
+    @Test
+    public void handle_compresses_injected_pages() throws Exception {
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), "<html><head></head><body>hello</body></html>");
+
+        final ContentCache CACHE = new ContentCache(1024*1024);
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), List.of("script1"))
+            .compression(true).cache(CACHE);
+
+        for (int i = 0; i < 2; ++i) {
+            final HttpExchangeStub exchange = exchange("/index.html?__XTEST_BOOTSTRAP__=1", "gzip");
+            fh.handle(exchange);
+            then(exchange.responseHeaders.getFirst("Content-Encoding")).isEqualTo("gzip");
+            then(new String(new GZIPInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes()))
+                .isEqualTo("<html><head><script>\nscript1\n</script>\n</head><body>hello</body></html>");
+        }
+        then(CACHE.size()).isEqualTo(1);
+        then(CACHE.hits()).isEqualTo(1);
+    }
+
+    @Test
+    public void handle_streams_binary_files_as_they_are() throws Exception {
+        final byte[] CONTENT = new byte[256 * 1024];
+        for (int i = 0; i < CONTENT.length; ++i) {
+            CONTENT[i] = (byte)(i * 31);
+        }
+        Files.write(new File(TMP.getRoot(), "image.png").toPath(), CONTENT);
+        Files.write(new File(TMP.getRoot(), "empty.txt").toPath(), new byte[0]);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), List.of("script1"));
+
+        final ByteArrayOutputStream OUT = new ByteArrayOutputStream();
+        fh.handle(new HttpExchangeStub("http://somewhere.com/image.png?__XTEST_BOOTSTRAP__=1").withOutputStream(OUT));
+
+        byte[] response = OUT.toByteArray();
+        int body = indexOfBody(response);
+        then(new String(response, 0, body)).startsWith("HTTP/1.1 200 OK")
+            .contains("content-type: image/png")
+            .contains("content-length: " + CONTENT.length);
+        then(Arrays.copyOfRange(response, body, response.length)).isEqualTo(CONTENT);
+
+        OUT.reset();
+        fh.handle(new HttpExchangeStub("http://somewhere.com/empty.txt").withOutputStream(OUT));
+
+        response = OUT.toByteArray();
+        body = indexOfBody(response);
+        then(new String(response, 0, body)).startsWith("HTTP/1.1 200 OK").contains("content-length: 0");
+        then(response.length).isEqualTo(body);
+    }
+
+    @Test
+    public void handle_with_cache_revalidates_content() throws Exception {
+        final File F = new File(TMP.getRoot(), "index.html");
+        Files.writeString(F.toPath(), "<html><head></head><body>hello</body></html>");
+
+        final ContentCache CACHE = new ContentCache(1024*1024);
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), List.of("script1"));
+        then(fh.cache()).isNull();
+        then(fh.cache(CACHE)).isSameAs(fh);
+        then(fh.cache()).isSameAs(CACHE);
+
+        final ByteArrayOutputStream OUT = new ByteArrayOutputStream();
+        HttpExchangeStub exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        fh.handle(exchange);
+
+        final String ETAG = exchange.responseHeaders.getFirst("ETag");
+        final String LAST_MODIFIED = exchange.responseHeaders.getFirst("Last-Modified");
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK").endsWith("<body>hello</body></html>");
+        then(exchange.responseHeaders.getFirst("Cache-Control")).isEqualTo("no-cache");
+        then(ETAG).startsWith("\"").endsWith("\"");
+        then(LAST_MODIFIED).endsWith(" GMT");
+        then(CACHE.size()).isEqualTo(1);
+
+        //
+        // served from the cache
+        //
+        OUT.reset();
+        fh.handle(new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT));
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK").endsWith("<body>hello</body></html>");
+        then(CACHE.hits()).isEqualTo(1);
+
+        //
+        // If-None-Match
+        //
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-None-Match", "\"other\", W/" + ETAG);
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 304 Not Modified").endsWith("\r\n\r\n");
+        then(exchange.responseHeaders.getFirst("ETag")).isEqualTo(ETAG);
+
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-None-Match", "\"other\"");
+        exchange.requestHeaders.set("If-Modified-Since", LAST_MODIFIED);
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK"); // If-None-Match wins
+
+        //
+        // If-Modified-Since
+        //
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-Modified-Since", LAST_MODIFIED);
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 304 Not Modified");
+
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-Modified-Since", "Thu, 01 Jan 1970 00:00:00 GMT");
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK");
+
+        //
+        // the injected variant has its own entity tag but shares the cache
+        // entry of the page
+        //
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html?__XTEST_BOOTSTRAP__=1").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-None-Match", ETAG);
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK").contains("<head><script>\nscript1\n</script>\n</head>");
+        then(exchange.responseHeaders.getFirst("ETag")).isNotEqualTo(ETAG);
+        then(CACHE.size()).isEqualTo(1);
+
+        //
+        // a changed file is served again
+        //
+        Files.writeString(F.toPath(), "<html><head></head><body>changed</body></html>");
+        Files.setLastModifiedTime(F.toPath(), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+        OUT.reset();
+        exchange = new HttpExchangeStub("http://somewhere.com/index.html").withOutputStream(OUT);
+        exchange.requestHeaders.set("If-None-Match", ETAG);
+        fh.handle(exchange);
+        then(OUT.toString()).startsWith("HTTP/1.1 200 OK").endsWith("<body>changed</body></html>");
+    }
+
+    @Test
+    public void handle_negotiates_content_encoding() throws Exception {
+        final String HTML = "<html><head></head><body>" + "hello world ".repeat(1000) + "</body></html>";
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), HTML);
+        final byte[] IMAGE = new byte[1000];
+        Files.write(new File(TMP.getRoot(), "image.png").toPath(), IMAGE);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath());
+        then(fh.compression()).isFalse();
+
+        //
+        // disabled by default
+        //
+        HttpExchangeStub exchange = exchange("/index.html", "gzip");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isNull();
+        then(exchange.responseHeaders.getFirst("Vary")).isNull();
+        then(new String(body(exchange))).isEqualTo(HTML);
+
+        then(fh.compression(true)).isSameAs(fh);
+        then(fh.compression()).isTrue();
+
+        //
+        // gzip
+        //
+        exchange = exchange("/index.html", "deflate;q=0.5, gzip");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isEqualTo("gzip");
+        then(exchange.responseHeaders.getFirst("Vary")).isEqualTo("Accept-Encoding");
+        then(new String(new GZIPInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes())).isEqualTo(HTML);
+
+        //
+        // deflate
+        //
+        exchange = exchange("/index.html", "gzip;q=0.1, deflate");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isEqualTo("deflate");
+        then(new String(new InflaterInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes())).isEqualTo(HTML);
+
+        //
+        // identity
+        //
+        for (String accept: new String[] {null, "br", "gzip;q=0, deflate;q=0"}) {
+            exchange = exchange("/index.html", accept);
+            fh.handle(exchange);
+            then(exchange.responseHeaders.getFirst("Content-Encoding")).isNull();
+            then(exchange.responseHeaders.getFirst("Vary")).isEqualTo("Accept-Encoding");
+            then(new String(body(exchange))).isEqualTo(HTML);
+        }
+
+        //
+        // not compressible
+        //
+        exchange = exchange("/image.png", "gzip");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isNull();
+        then(body(exchange)).isEqualTo(IMAGE);
+    }
+
+    @Test
+    public void handle_serves_gzip_siblings() throws Exception {
+        final File BUNDLE = new File(TMP.getRoot(), "bundle.js");
+        final File GZ = new File(TMP.getRoot(), "bundle.js.gz");
+        Files.writeString(BUNDLE.toPath(), "var a = 'uncompressed';");
+        try (OutputStream os = new GZIPOutputStream(new FileOutputStream(GZ))) {
+            os.write("var a = 'precompressed';".getBytes());
+        }
+        GZ.setLastModified(BUNDLE.lastModified() + 1000);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath()).compression(true);
+
+        HttpExchangeStub exchange = exchange("/bundle.js", "gzip, deflate");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isEqualTo("gzip");
+        then(exchange.responseHeaders.getFirst("Content-Length")).isEqualTo(String.valueOf(GZ.length()));
+        then(new String(new GZIPInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes()))
+            .isEqualTo("var a = 'precompressed';");
+
+        //
+        // a stale sibling is ignored
+        //
+        GZ.setLastModified(BUNDLE.lastModified() - 10000);
+        exchange = exchange("/bundle.js", "gzip");
+        fh.handle(exchange);
+        then(new String(new GZIPInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes()))
+            .isEqualTo("var a = 'uncompressed';");
+    }
+
+    @Test
+    public void handle_compresses_once_with_cache() throws Exception {
+        final String JS = "var a = 1;\n".repeat(1000);
+        Files.writeString(new File(TMP.getRoot(), "app.js").toPath(), JS);
+
+        final ContentCache CACHE = new ContentCache(1024*1024);
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath())
+            .compression(true).cache(CACHE);
+
+        HttpExchangeStub exchange = exchange("/app.js", "gzip");
+        fh.handle(exchange);
+        final String GZIP_ETAG = exchange.responseHeaders.getFirst("ETag");
+        final byte[] COMPRESSED = body(exchange);
+        then(new String(new GZIPInputStream(new ByteArrayInputStream(COMPRESSED)).readAllBytes())).isEqualTo(JS);
+
+        exchange = exchange("/app.js", "gzip");
+        fh.handle(exchange);
+        then(body(exchange)).isEqualTo(COMPRESSED);
+        then(CACHE.hits()).isEqualTo(1);
+
+        exchange = exchange("/app.js", null);
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("ETag")).isNotEqualTo(GZIP_ETAG);
+        then(new String(body(exchange))).isEqualTo(JS);
+        then(CACHE.size()).isEqualTo(2);
+
+        exchange = exchange("/app.js", "gzip");
+        exchange.requestHeaders.set("If-None-Match", GZIP_ETAG);
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(304);
+    }
+
+    @Test
+    public void handle_streams_compressed_big_files() throws Exception {
+        final String JS = "var a = 1;\n".repeat(10000);
+        Files.writeString(new File(TMP.getRoot(), "app.js").toPath(), JS);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath())
+            .compression(true).cache(new ContentCache(1024));
+
+        final HttpExchangeStub exchange = exchange("/app.js", "gzip");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Length")).isNull();
+        then(new String(new GZIPInputStream(new ByteArrayInputStream(body(exchange))).readAllBytes())).isEqualTo(JS);
+        then(fh.cache().size()).isZero();
+    }
+
+    @Test
+    public void handle_serves_byte_ranges() throws Exception {
+        final byte[] CONTENT = new byte[1000];
+        for (int i = 0; i < CONTENT.length; ++i) {
+            CONTENT[i] = (byte)i;
+        }
+        Files.write(new File(TMP.getRoot(), "media.bin").toPath(), CONTENT);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath());
+
+        //
+        // no range
+        //
+        HttpExchangeStub exchange = range("/media.bin", null);
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(200);
+        then(exchange.responseHeaders.getFirst("Accept-Ranges")).isEqualTo("bytes");
+        then(body(exchange)).isEqualTo(CONTENT);
+
+        //
+        // single ranges
+        //
+        exchange = range("/media.bin", "bytes=10-19");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(206);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 10-19/1000");
+        then(exchange.responseHeaders.getFirst("Content-Length")).isEqualTo("10");
+        then(body(exchange)).isEqualTo(Arrays.copyOfRange(CONTENT, 10, 20));
+
+        exchange = range("/media.bin", "bytes=990-");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 990-999/1000");
+        then(body(exchange)).isEqualTo(Arrays.copyOfRange(CONTENT, 990, 1000));
+
+        exchange = range("/media.bin", "bytes=-5");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 995-999/1000");
+        then(body(exchange)).isEqualTo(Arrays.copyOfRange(CONTENT, 995, 1000));
+
+        exchange = range("/media.bin", "bytes=900-5000");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 900-999/1000");
+
+        //
+        // overlapping and adjacent ranges are coalesced
+        //
+        exchange = range("/media.bin", "bytes=20-29, 0-9, 5-19");
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 0-29/1000");
+        then(body(exchange)).isEqualTo(Arrays.copyOfRange(CONTENT, 0, 30));
+
+        //
+        // multiple ranges
+        //
+        exchange = range("/media.bin", "bytes=0-1, 998-");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(206);
+        final String contentType = exchange.responseHeaders.getFirst("Content-Type");
+        then(contentType).startsWith("multipart/byteranges; boundary=");
+        final String boundary = contentType.substring(contentType.indexOf('=') + 1);
+        final byte[] body = body(exchange);
+        then(exchange.responseHeaders.getFirst("Content-Length")).isEqualTo(String.valueOf(body.length));
+        then(new String(body, StandardCharsets.ISO_8859_1)).isEqualTo(
+            "\r\n--" + boundary + "\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "Content-Range: bytes 0-1/1000\r\n\r\n"
+            + "\u0000\u0001"
+            + "\r\n--" + boundary + "\r\n"
+            + "Content-Type: application/octet-stream\r\n"
+            + "Content-Range: bytes 998-999/1000\r\n\r\n"
+            + new String(new byte[] {CONTENT[998], CONTENT[999]}, StandardCharsets.ISO_8859_1)
+            + "\r\n--" + boundary + "--\r\n"
+        );
+
+        //
+        // not satisfiable
+        //
+        exchange = range("/media.bin", "bytes=1000-, -0");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(416);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes */1000");
+
+        //
+        // invalid ranges are ignored
+        //
+        for (String invalid: new String[] {"bytes=5-2", "bytes=a-b", "bytes=10", "items=0-1", "bytes=--1"}) {
+            exchange = range("/media.bin", invalid);
+            fh.handle(exchange);
+            then(exchange.getResponseCode()).isEqualTo(200);
+            then(body(exchange)).isEqualTo(CONTENT);
+        }
+
+        //
+        // HEAD
+        //
+        exchange = range("/media.bin", "bytes=0-9");
+        exchange.withMethod("HEAD");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(206);
+        then(exchange.responseHeaders.getFirst("Content-Range")).isEqualTo("bytes 0-9/1000");
+        then(body(exchange)).isEmpty();
+    }
+
+    @Test
+    public void handle_serves_byte_ranges_if_range_matches() throws Exception {
+        final File F = new File(TMP.getRoot(), "media.bin");
+        Files.write(F.toPath(), new byte[100]);
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath()).cache(new ContentCache(1024));
+
+        HttpExchangeStub exchange = range("/media.bin", null);
+        fh.handle(exchange);
+        final String ETAG = exchange.responseHeaders.getFirst("ETag");
+        final String LAST_MODIFIED = exchange.responseHeaders.getFirst("Last-Modified");
+
+        for (String validator: new String[] {ETAG, LAST_MODIFIED}) {
+            exchange = range("/media.bin", "bytes=0-9");
+            exchange.requestHeaders.set("If-Range", validator);
+            fh.handle(exchange);
+            then(exchange.getResponseCode()).isEqualTo(206);
+            then(body(exchange)).hasSize(10);
+        }
+
+        for (String validator: new String[] {"\"other\"", "W/" + ETAG, "Thu, 01 Jan 1970 00:00:00 GMT", "yesterday"}) {
+            exchange = range("/media.bin", "bytes=0-9");
+            exchange.requestHeaders.set("If-Range", validator);
+            fh.handle(exchange);
+            then(exchange.getResponseCode()).isEqualTo(200);
+            then(body(exchange)).hasSize(100);
+        }
+    }
+
+    @Test
+    public void handle_does_not_serve_ranges_of_transformed_content() throws Exception {
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), "<html><head></head><body>hello</body></html>");
+
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), List.of("script1"));
+
+        HttpExchangeStub exchange = range("/index.html?__XTEST_BOOTSTRAP__=1", "bytes=0-9");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(200);
+        then(exchange.responseHeaders.containsKey("Accept-Ranges")).isFalse();
+        then(new String(body(exchange))).contains("script1");
+
+        fh.compression(true);
+        exchange = exchange("/index.html", "gzip");
+        exchange.requestHeaders.set("Range", "bytes=0-9");
+        fh.handle(exchange);
+        then(exchange.getResponseCode()).isEqualTo(200);
+        then(exchange.responseHeaders.getFirst("Content-Encoding")).isEqualTo("gzip");
+    }
+
     @Test
     public void handle_sets_headers() throws Exception {
         final ByteArrayOutputStream OUT = new ByteArrayOutputStream();
@@ -167,4 +671,98 @@ public class BugFreeXTestFileHandler {
         then(exchange.responseHeaders.getFirst("Access-Control-Allow-Methods")).isEqualTo("POST, GET, OPTIONS");
         then(exchange.responseHeaders.getFirst("Access-Control-Allow-Credentials")).isEqualTo("true");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void handle_with_cache_tells_apart_scripts_with_the_same_hashcode() throws Exception {
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), "<html><head></head><body>hello</body></html>");
+
+        then("Aa".hashCode()).isEqualTo("BB".hashCode());
+
+        final List<String> SCRIPTS = new ArrayList<>(List.of("Aa"));
+        final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), SCRIPTS)
+            .cache(new ContentCache(1024*1024));
+
+        HttpExchangeStub exchange = exchange("/index.html?__XTEST_BOOTSTRAP__=1", null);
+        fh.handle(exchange);
+        final String ETAG = exchange.responseHeaders.getFirst("ETag");
+        then(new String(body(exchange))).contains("<script>\nAa\n</script>\n");
+
+        SCRIPTS.set(0, "BB");
+        exchange = exchange("/index.html?__XTEST_BOOTSTRAP__=1", null);
+        fh.handle(exchange);
+        then(exchange.responseHeaders.getFirst("ETag")).isNotEqualTo(ETAG);
+        then(new String(body(exchange))).contains("<script>\nBB\n</script>\n");
+    }
+
+    @Test
+    public void handle_HEAD_sends_no_response_length() throws Exception {
+        final String PAGE = "<html><head></head><body>hello</body></html>";
+        Files.writeString(new File(TMP.getRoot(), "index.html").toPath(), PAGE);
+        final int SCRIPT = "<script>\nscript1\n</script>\n".length();
+
+        for (ContentCache cache: new ContentCache[] {null, new ContentCache(1024*1024)}) {
+            final XTestFileHandler fh = new XTestFileHandler(TMP.getRoot().getAbsolutePath(), List.of("script1"))
+                .cache(cache);
+
+            for (String path: new String[] {"/index.html", "/index.html?__XTEST_BOOTSTRAP__=1"}) {
+                final HeadExchange exchange = new HeadExchange("http://somewhere.com" + path);
+                fh.handle(exchange);
+                then(exchange.length).isEqualTo(-1);
+                then(exchange.responseHeaders.getFirst("Content-Length")).isEqualTo(
+                    String.valueOf(PAGE.length() + (path.contains("BOOTSTRAP") ? SCRIPT : 0))
+                );
+                then(body(exchange)).isEmpty();
+            }
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private HttpExchangeStub exchange(final String path, final String acceptEncoding) {
+        final HttpExchangeStub exchange = new HttpExchangeStub("http://somewhere.com" + path)
+            .withOutputStream(new ByteArrayOutputStream());
+        if (acceptEncoding != null) {
+            exchange.requestHeaders.set("Accept-Encoding", acceptEncoding);
+        }
+        return exchange;
+    }
+
+    private HttpExchangeStub range(final String path, final String range) {
+        final HttpExchangeStub exchange = exchange(path, null);
+        if (range != null) {
+            exchange.requestHeaders.set("Range", range);
+        }
+        return exchange;
+    }
+
+    private byte[] body(final HttpExchangeStub exchange) {
+        final byte[] response = ((ByteArrayOutputStream)exchange.getResponseBody()).toByteArray();
+        return Arrays.copyOfRange(response, indexOfBody(response), response.length);
+    }
+
+    private int indexOfBody(final byte[] response) {
+        for (int i = 0; i < response.length - 3; ++i) {
+            if (response[i] == '\r' && response[i+1] == '\n' && response[i+2] == '\r' && response[i+3] == '\n') {
+                return i + 4;
+            }
+        }
+        return -1;
+    }
+
+    // ---------------------------------------------------------- HeadExchange
+
+    private static class HeadExchange extends HttpExchangeStub {
+        long length = 0;
+
+        HeadExchange(final String uri) {
+            super(uri);
+            withMethod("HEAD").withOutputStream(new ByteArrayOutputStream());
+        }
+
+        @Override
+        public void sendResponseHeaders(int statusCode, long contentLength) throws IOException {
+            length = contentLength;
+            super.sendResponseHeaders(statusCode, contentLength);
+        }
+    }
+}
@@ -0,0 +1,305 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.protocol.http;
+
+import com.sun.net.httpserver.BasicAuthenticator;
+import com.sun.net.httpserver.HttpServer;
+import java.io.InputStream;
+import java.net.Authenticator;
+import java.net.InetSocketAddress;
+import java.net.PasswordAuthentication;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.After;
+import org.junit.Test;
+import ste.xtest.net.sun.www.HeaderParser;
+
+/**
+ *
+ */
+public class BugFreeAuthCacheImpl {
+
+    private static final String KEY = "s:http:somewhere.com:80;auth=test";
+    private static final PasswordAuthentication PW =
+        new PasswordAuthentication("user", "password".toCharArray());
+
+    private HttpServer server;
+
+    @After
+    public void after() {
+        AuthCacheValue.setAuthCache(new AuthCacheImpl());
+        Authenticator.setDefault(null);
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void get_by_path() throws Exception {
+        final AuthCacheImpl cache = new AuthCacheImpl();
+        final BasicAuthentication a = basic("http://somewhere.com/a/index.html");
+        final BasicAuthentication b = basic("http://somewhere.com/b/index.html");
+
+        cache.put(KEY, a); cache.put(KEY, b);
+
+        then(cache.get(KEY, "/a/other.html")).isSameAs(a);
+        then(cache.get(KEY, "/b/other/index.html")).isSameAs(b);
+        then(cache.get(KEY, "/c/index.html")).isNull();
+        then(cache.get(KEY, null)).isSameAs(a);
+        then(cache.get("none", "/a/index.html")).isNull();
+
+        //
+        // a super-set of the path replaces the entry
+        //
+        final BasicAuthentication root = basic("http://somewhere.com/index.html");
+        cache.put(KEY, root);
+        then(cache.get(KEY, "/a/other.html")).isSameAs(root);
+        then(cache.hashtable.get(KEY)).containsExactly(root);
+
+        cache.remove(KEY, root);
+        then(cache.get(KEY, "/a/other.html")).isNull();
+
+        cache.put(KEY, a); cache.remove(KEY, null);
+        then(cache.get(KEY, null)).isNull();
+    }
+
+    @Test
+    public void set_map() throws Exception {
+        final BasicAuthentication a = basic("http://somewhere.com/a/index.html");
+        final HashMap<String, LinkedList<AuthCacheValue>> map = new HashMap<>();
+        map.put(KEY, new LinkedList<>());
+        map.get(KEY).add(a);
+
+        final AuthCacheImpl cache = new AuthCacheImpl();
+        cache.setMap(map);
+        then(cache.get(KEY, "/a/index.html")).isSameAs(a);
+    }
+
+    @Test
+    public void preemptive_returns_the_last_credentials_for_any_path() throws Exception {
+        final AuthCacheImpl cache = new AuthCacheImpl();
+        then(cache.preemptive()).isFalse();
+        then(cache.preemptive(true)).isSameAs(cache);
+        then(cache.preemptive()).isTrue();
+
+        final BasicAuthentication a = basic("http://somewhere.com/a/index.html");
+        final BasicAuthentication b = basic("http://somewhere.com/b/index.html");
+        cache.put(KEY, a); cache.put(KEY, b);
+
+        then(cache.get(KEY, "/a/index.html")).isSameAs(a);
+        then(cache.get(KEY, "/c/index.html")).isSameAs(b);
+        then(cache.get("none", "/c/index.html")).isNull();
+    }
+
+    @Test
+    public void concurrent_put_and_get() throws Exception {
+        final AuthCacheImpl cache = new AuthCacheImpl();
+        final int THREADS = 8, LOOPS = 500;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final AtomicInteger misses = new AtomicInteger();
+        try {
+            for (int t = 0; t < THREADS; ++t) {
+                final String path = "/p" + t + "/";
+                final BasicAuthentication auth = basic("http://somewhere.com" + path + "index.html");
+                executor.submit(() -> {
+                    for (int i = 0; i < LOOPS; ++i) {
+                        cache.put(KEY, auth);
+                        if (cache.get(KEY, path + "index.html") == null) {
+                            misses.incrementAndGet();
+                        }
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            then(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        then(misses.get()).isZero();
+        then(cache.hashtable.get(KEY)).hasSize(THREADS);
+    }
+
+    @Test
+    public void digest_nonce_count_is_unique() throws Exception {
+        final DigestAuthentication.Parameters params = new DigestAuthentication.Parameters();
+        final Set<Integer> counts = ConcurrentHashMap.newKeySet();
+        final int THREADS = 8, LOOPS = 1000;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int t = 0; t < THREADS; ++t) {
+                executor.submit(() -> {
+                    for (int i = 0; i < LOOPS; ++i) {
+                        counts.add(params.nextNC());
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            then(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        then(counts).hasSize(THREADS * LOOPS);
+        then(params.getNCCount()).isEqualTo(THREADS * LOOPS);
+
+        //
+        // concurrent requests sharing the same credentials: each response is
+        // checked against the nc and cnonce of its own request
+        //
+        params.setQop("auth"); params.setNonce("a-nonce"); params.setAlgorithm("MD5");
+        final URL url = new URL("http://somewhere.com/a/index.html");
+        final DigestAuthentication digest = new DigestAuthentication(
+            false, url, "test", "Digest", PW, params, "test"
+        );
+        final CyclicBarrier inFlight = new CyclicBarrier(THREADS);
+        final List<Future<?>> checks = new ArrayList<>();
+        final ExecutorService requests = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int t = 0; t < THREADS; ++t) {
+                checks.add(requests.submit(() -> {
+                    for (int i = 0; i < 50; ++i) {
+                        final String authorization = digest.getHeaderValue(url, "GET");
+                        final String rspauth = rspauth(authorization, url.getFile());
+                        inFlight.await();
+                        digest.checkResponse("rspauth=\"" + rspauth + "\"", "GET", url, authorization);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> check: checks) {
+                check.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            requests.shutdownNow();
+        }
+    }
+
+    @Test
+    public void preemptive_basic_saves_the_challenge() throws Exception {
+        final AtomicInteger requests = new AtomicInteger();
+        server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/", (exchange) -> {
+            final byte[] body = "hello".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        }).setAuthenticator(new BasicAuthenticator("test") {
+            @Override
+            public Result authenticate(com.sun.net.httpserver.HttpExchange exchange) {
+                requests.incrementAndGet();
+                return super.authenticate(exchange);
+            }
+
+            @Override
+            public boolean checkCredentials(String user, String password) {
+                return "user".equals(user) && "password".equals(password);
+            }
+        });
+        server.start();
+
+        //
+        // per connection authenticators are not available in the forked
+        // stack (no access to the JDK authenticator keys)
+        //
+        Authenticator.setDefault(new Authenticator() {
+            @Override
+            protected PasswordAuthentication getPasswordAuthentication() {
+                return PW;
+            }
+        });
+
+        //
+        // not preemptive: a new path gets a 401 first
+        //
+        AuthCacheValue.setAuthCache(new AuthCacheImpl());
+        then(get("/a/index.html")).isEqualTo("hello");
+        then(requests.get()).isEqualTo(2);
+        then(get("/a/other.html")).isEqualTo("hello");
+        then(requests.get()).isEqualTo(3);
+        then(get("/b/index.html")).isEqualTo("hello");
+        then(requests.get()).isEqualTo(5);
+
+        //
+        // preemptive: credentials are sent to any path once known
+        //
+        requests.set(0);
+        AuthCacheValue.setAuthCache(new AuthCacheImpl().preemptive(true));
+        then(get("/a/index.html")).isEqualTo("hello");
+        then(requests.get()).isEqualTo(2);
+        then(get("/b/index.html")).isEqualTo("hello");
+        then(get("/c/d/index.html")).isEqualTo("hello");
+        then(requests.get()).isEqualTo(4);
+    }
+
+    // --------------------------------------------------------- private methods
+
+    /**
+     * The rspauth a server would return for the given digest authorization
+     * (RFC 2617, qop=auth, MD5)
+     */
+    private static String rspauth(final String authorization, final String uri) throws Exception {
+        final HeaderParser p = new HeaderParser(authorization);
+        final String ha1 = md5(PW.getUserName() + ":test:" + new String(PW.getPassword()));
+        final String ha2 = md5(":" + uri);
+        return md5(
+            ha1 + ":" + p.findValue("nonce") + ":" + p.findValue("nc") + ":"
+            + p.findValue("cnonce") + ":auth:" + ha2
+        );
+    }
+
+    private static String md5(final String s) throws Exception {
+        final byte[] digest = MessageDigest.getInstance("MD5").digest(s.getBytes(StandardCharsets.ISO_8859_1));
+        final StringBuilder hex = new StringBuilder();
+        for (byte b: digest) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    private BasicAuthentication basic(final String url) throws Exception {
+        return new BasicAuthentication(false, new URL(url), "test", PW, "test");
+    }
+
+    private String get(final String path) throws Exception {
+        final HttpURLConnection c = new HttpURLConnection(
+            new URL("http://localhost:" + server.getAddress().getPort() + path), new Handler()
+        );
+        try (InputStream in = c.getInputStream()) {
+            return new String(in.readAllBytes());
+        }
+    }
+}
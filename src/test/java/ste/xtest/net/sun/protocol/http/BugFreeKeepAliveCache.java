@@ -0,0 +1,235 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.protocol.http;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeKeepAliveCache {
+
+    private static final String URL1 = "http://somewhere.com/index.html";
+    private static final String URL2 = "http://somewhere.com:8080/index.html";
+
+    @After
+    public void after() {
+        System.clearProperty("http.maxConnections");
+    }
+
+    @Test
+    public void max_connections_from_system_property() {
+        then(KeepAliveCache.getMaxConnections()).isEqualTo(5);
+        then(new KeepAliveCache().maxConnections()).isEqualTo(5);
+
+        System.setProperty("http.maxConnections", "20");
+        then(KeepAliveCache.getMaxConnections()).isEqualTo(20);
+        then(new KeepAliveCache().maxConnections()).isEqualTo(20);
+
+        System.setProperty("http.maxConnections", "0");
+        then(KeepAliveCache.getMaxConnections()).isEqualTo(5);
+
+        final KeepAliveCache C = new KeepAliveCache();
+        C.maxConnections(2);
+        then(C.maxConnections()).isEqualTo(2);
+        thenThrownBy(() -> C.maxConnections(0))
+            .isInstanceOf(IllegalArgumentException.class)
+            .hasMessage("maxConnections must be greater than 0");
+    }
+
+    @Test
+    public void put_and_get_per_route() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(2, 60000);
+        final TestClient H1 = new TestClient(), H2 = new TestClient(), H3 = new TestClient();
+
+        then(C.get(new URL(URL1), null)).isNull();
+        then(C.misses()).isEqualTo(1);
+
+        C.put(new URL(URL1), null, H1);
+        C.put(new URL(URL1), null, H2);
+        C.put(new URL(URL2), null, H3);
+        then(C.size()).isEqualTo(3);
+        then(C.sweeping()).isTrue();
+
+        //
+        // most recently used first
+        //
+        then(C.get(new URL(URL1), null)).isSameAs(H2);
+        then(C.get(new URL(URL1), null)).isSameAs(H1);
+        then(C.get(new URL(URL1), null)).isNull();
+        then(C.get(new URL(URL2), null)).isSameAs(H3);
+        then(C.hits()).isEqualTo(3);
+        then(C.misses()).isEqualTo(2);
+        then(C.evictions()).isZero();
+
+        //
+        // additional key
+        //
+        final Object KEY = new Object();
+        C.put(new URL(URL1), KEY, H1);
+        then(C.get(new URL(URL1), null)).isNull();
+        then(C.get(new URL(URL1), KEY)).isSameAs(H1);
+
+        //
+        // remove
+        //
+        H1.url = new URL(URL1);
+        C.put(new URL(URL1), null, H1);
+        C.remove(H1, null);
+        then(C.get(new URL(URL1), null)).isNull();
+        then(H1.closed).isFalse();
+    }
+
+    @Test
+    public void per_route_limit_is_honoured() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(2, 60000);
+        final TestClient H1 = new TestClient(), H2 = new TestClient(), H3 = new TestClient();
+
+        C.put(new URL(URL1), null, H1);
+        C.put(new URL(URL1), null, H2);
+        C.put(new URL(URL1), null, H3);
+
+        then(C.size()).isEqualTo(2);
+        then(H3.closed).isTrue();
+        then(H1.closed || H2.closed).isFalse();
+        then(C.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void idle_connections_are_swept() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(5, 60000);
+        final TestClient H1 = new TestClient(), H2 = new TestClient(1);
+
+        C.put(new URL(URL1), null, H1);  // LIFETIME
+        C.put(new URL(URL2), null, H2);  // 1 second
+
+        final long now = System.currentTimeMillis();
+        C.sweep(now);
+        then(C.size()).isEqualTo(2);
+
+        C.sweep(now + 1500);
+        then(C.size()).isEqualTo(1);
+        then(H2.closed).isTrue();
+        then(C.evictions()).isEqualTo(1);
+        then(C.sweeping()).isTrue();
+
+        C.sweep(now + KeepAliveCache.LIFETIME + 1000);
+        then(C.size()).isZero();
+        then(H1.closed).isTrue();
+        then(C.sweeping()).isFalse();
+
+        //
+        // the sweeper starts again with new connections
+        //
+        C.put(new URL(URL1), null, new TestClient());
+        then(C.sweeping()).isTrue();
+    }
+
+    @Test
+    public void the_sweeper_runs_in_background() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(5, 50);
+        final TestClient H = new TestClient(1);
+
+        C.put(new URL(URL1), null, H);
+        final long start = System.currentTimeMillis();
+        while (!H.closed && (System.currentTimeMillis() - start < 5000)) {
+            Thread.sleep(50);
+        }
+        then(H.closed).isTrue();
+        then(C.size()).isZero();
+    }
+
+    @Test
+    public void expired_connections_are_not_returned() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(5, 60000);
+        final TestClient H = new TestClient(1);
+
+        C.put(new URL(URL1), null, H);
+        Thread.sleep(1100);
+
+        then(C.get(new URL(URL1), null)).isNull();
+        then(H.closed).isTrue();
+        then(C.evictions()).isEqualTo(1);
+    }
+
+    @Test
+    public void concurrent_access() throws Exception {
+        final KeepAliveCache C = new KeepAliveCache(1000, 60000);
+        final int THREADS = 8, LOOPS = 2000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> results = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                final URL url = new URL("http://host" + (t % 2) + ".com/");
+                results.add(executor.submit(() -> {
+                    start.await();
+                    for (int i = 0; i < LOOPS; ++i) {
+                        HttpClient h = C.get(url, null);
+                        C.put(url, null, (h == null) ? new TestClient() : h);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> r: results) {
+                r.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        then(C.hits() + C.misses()).isEqualTo(THREADS * LOOPS);
+        then(C.size()).isEqualTo((int)C.misses());  // each miss added a new connection
+        then(C.evictions()).isZero();
+    }
+
+    // ------------------------------------------------------------- TestClient
+
+    private static class TestClient extends HttpClient {
+        volatile boolean closed = false;
+
+        TestClient() {
+            this(0);
+        }
+
+        TestClient(final int keepAliveTimeout) {
+            this.keepAliveTimeout = keepAliveTimeout;
+        }
+
+        @Override
+        public void closeServer() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.www;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import static org.assertj.core.api.BDDAssertions.then;
+import static org.assertj.core.api.BDDAssertions.thenThrownBy;
+import org.junit.Test;
+import ste.xtest.net.sun.protocol.http.HttpClient;
+
+/**
+ *
+ */
+public class BugFreeChunkedInputStream {
+
+    @Test
+    public void bulk_read_across_chunks() throws Exception {
+        final byte[] data = data(100_000);
+        for (int chunk: new int[] {16, 1024, 4096, 70_000}) {
+            for (int size: new int[] {1, 7, 4096, 200_000}) {
+                final TestClient hc = new TestClient();
+                final ChunkedInputStream in = new ChunkedInputStream(
+                    new ByteArrayInputStream(chunked(data, chunk)), hc, new MessageHeader()
+                );
+                then(readAll(in, size)).as("chunk %d buffer %d", chunk, size).isEqualTo(data);
+                then(hc.finished).isTrue();
+                then(hc.closed).isFalse();
+            }
+        }
+    }
+
+    @Test
+    public void mixed_single_and_bulk_reads() throws Exception {
+        final byte[] data = data(10_000);
+        final ChunkedInputStream in = new ChunkedInputStream(
+            new ByteArrayInputStream(chunked(data, 333)), new TestClient(), new MessageHeader()
+        );
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[100];
+        int n = 0;
+        while (true) {
+            if (((n++) % 3) == 0) {
+                final int b = in.read();
+                if (b < 0) {
+                    break;
+                }
+                out.write(b);
+            } else {
+                final int r = in.read(buf, 0, buf.length);
+                if (r < 0) {
+                    break;
+                }
+                out.write(buf, 0, r);
+            }
+        }
+        then(out.toByteArray()).isEqualTo(data);
+    }
+
+    @Test
+    public void bulk_read_from_a_trickling_stream() throws Exception {
+        final byte[] data = data(5_000);
+        final ChunkedInputStream in = new ChunkedInputStream(
+            new Trickle(new ByteArrayInputStream(chunked(data, 100))), new TestClient(), new MessageHeader()
+        );
+        then(readAll(in, 1024)).isEqualTo(data);
+    }
+
+    @Test
+    public void bulk_read_reads_the_payload_straight_into_the_buffer() throws Exception {
+        final byte[] data = data(64 * 1024);
+        final Counting raw = new Counting(new ByteArrayInputStream(chunked(data, data.length)));
+        final ChunkedInputStream in = new ChunkedInputStream(raw, new TestClient(), new MessageHeader());
+
+        final byte[] buf = new byte[data.length];
+        int n = 0;
+        while (n < buf.length) {
+            n += in.read(buf, n, buf.length - n);
+        }
+        then(buf).isEqualTo(data);
+        //
+        // one read for the header (with the first bytes of the payload) and
+        // one for the rest of the payload
+        //
+        then(raw.reads).isLessThanOrEqualTo(2);
+        then(in.read(buf, 0, buf.length)).isEqualTo(-1);
+    }
+
+    @Test
+    public void trailers_are_added_to_the_responses() throws Exception {
+        final MessageHeader responses = new MessageHeader();
+        final ChunkedInputStream in = new ChunkedInputStream(
+            new ByteArrayInputStream(
+                "5\r\nhello\r\n0\r\nX-Checksum: abc\r\nX-Other: def\r\n\r\n".getBytes(StandardCharsets.US_ASCII)
+            ),
+            new TestClient(), responses
+        );
+        then(readAll(in, 64)).isEqualTo("hello".getBytes(StandardCharsets.US_ASCII));
+        then(responses.findValue("X-Checksum")).isEqualTo("abc");
+        then(responses.findValue("X-Other")).isEqualTo("def");
+    }
+
+    @Test
+    public void bad_chunks() throws Exception {
+        thenThrownBy(() ->
+            readAll(new ChunkedInputStream(
+                new ByteArrayInputStream("5\r\nhelloXX0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)),
+                new TestClient(), new MessageHeader()
+            ), 64)
+        ).isInstanceOf(IOException.class).hasMessage("missing CR");
+
+        thenThrownBy(() ->
+            readAll(new ChunkedInputStream(
+                new ByteArrayInputStream("a\r\nhello".getBytes(StandardCharsets.US_ASCII)),
+                new TestClient(), new MessageHeader()
+            ), 64)
+        ).isInstanceOf(IOException.class).hasMessage("Premature EOF");
+    }
+
+    // --------------------------------------------------------- static methods
+
+    static byte[] data(final int size) {
+        final byte[] data = new byte[size];
+        new Random(size).nextBytes(data);
+        return data;
+    }
+
+    static byte[] chunked(final byte[] data, final int chunk) {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; i += chunk) {
+            final int len = Math.min(chunk, data.length - i);
+            out.writeBytes((Integer.toHexString(len) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data, i, len);
+            out.writeBytes("\r\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        out.writeBytes("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        return out.toByteArray();
+    }
+
+    static byte[] readAll(final InputStream in, final int size) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[size];
+        int n;
+        while ((n = in.read(buf, 0, size)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    // ------------------------------------------------------------ TestClient
+
+    private static class TestClient extends HttpClient {
+        boolean finished = false, closed = false;
+
+        @Override
+        public void finished() {
+            finished = true;
+        }
+
+        @Override
+        public void closeServer() {
+            closed = true;
+        }
+    }
+
+    // ----------------------------------------------------------------- Trickle
+
+    /**
+     * Gives at most 3 bytes per read and nothing is ever available
+     */
+    private static class Trickle extends FilterInputStream {
+        Trickle(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(3, len));
+        }
+
+        @Override
+        public int available() {
+            return 0;
+        }
+    }
+
+    // ---------------------------------------------------------------- Counting
+
+    private static class Counting extends FilterInputStream {
+        int reads = 0;
+
+        Counting(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            ++reads;
+            return super.read(b, off, len);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.www;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+import static ste.xtest.net.sun.www.BugFreeChunkedInputStream.chunked;
+import static ste.xtest.net.sun.www.BugFreeChunkedInputStream.data;
+
+/**
+ *
+ */
+public class BugFreeChunkedOutputStream {
+
+    @Test
+    public void bulk_and_single_writes_encode_the_same() throws Exception {
+        final byte[] data = data(50_000);
+        for (int chunk: new int[] {64, 1024, 4096}) {
+            final ByteArrayOutputStream single = new ByteArrayOutputStream();
+            try (ChunkedOutputStream out = new ChunkedOutputStream(new PrintStream(single), chunk)) {
+                for (byte b: data) {
+                    out.write(b);
+                }
+            }
+
+            for (int size: new int[] {1, 100, 3000, 4096, 50_000}) {
+                final ByteArrayOutputStream bulk = new ByteArrayOutputStream();
+                try (ChunkedOutputStream out = new ChunkedOutputStream(new PrintStream(bulk), chunk)) {
+                    for (int i = 0; i < data.length; i += size) {
+                        out.write(data, i, Math.min(size, data.length - i));
+                    }
+                }
+                then(bulk.toByteArray()).as("chunk %d write %d", chunk, size).isEqualTo(single.toByteArray());
+            }
+        }
+    }
+
+    @Test
+    public void gathering_write_produces_full_chunks() throws Exception {
+        final byte[] data = data(10_000);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ChunkedOutputStream out = new ChunkedOutputStream(new PrintStream(bytes), 1024);
+
+        out.write(data, 0, 10);    // buffered
+        out.write(data, 10, data.length - 10);
+        out.close();
+
+        //
+        // 1024 bytes chunks are 3 bytes of header, 1017 of data and 2 of
+        // footer; the last CRLF after the empty chunk is written by the
+        // connection
+        //
+        final byte[] expected = chunked(data, 1017);
+        then(bytes.toByteArray()).isEqualTo(Arrays.copyOf(expected, expected.length - 2));
+    }
+}
@@ -0,0 +1,243 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.www;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ *
+ */
+public class BugFreeHttpCapture {
+
+    private static final String REQUEST1 =
+        "GET /index.html?a=1&b=two HTTP/1.1\r\nHost: somewhere.com\r\nAccept: */*\r\n\r\n";
+    private static final String RESPONSE1 =
+        "HTTP/1.1 200 OK\r\nContent-Type: text/html\r\nContent-Length: 5\r\n\r\nhello";
+    private static final String REQUEST2 =
+        "POST /form HTTP/1.1\r\nHost: somewhere.com\r\nContent-Length: 3\r\n\r\nx=1";
+    private static final String RESPONSE2 =
+        "HTTP/1.1 302 Found\r\nLocation: /done\r\nContent-Length: 0\r\n\r\n";
+
+    @Rule
+    public final TemporaryFolder TMP = new TemporaryFolder();
+
+    @Test
+    public void capture_text() throws Exception {
+        final File file = new File(TMP.getRoot(), "capture.txt");
+        final HttpCapture capture = new HttpCapture(file, new URL("http://somewhere.com/index.html"));
+
+        exchange(capture, REQUEST1, RESPONSE1);
+        HttpCapture.drain();
+
+        then(Files.readString(file.toPath(), StandardCharsets.ISO_8859_1)).isEqualTo(
+            "URL: http://somewhere.com/index.html\n"
+            + "\n------>\n" + REQUEST1
+            + "\n<------\n" + RESPONSE1
+        );
+    }
+
+    @Test
+    public void capture_har() throws Exception {
+        final File file = new File(TMP.getRoot(), "capture.har");
+        final HttpCapture capture = new HttpCapture(file, new URL("http://somewhere.com:8080/index.html"));
+
+        exchange(capture, REQUEST1, RESPONSE1);
+        exchange(capture, REQUEST2, RESPONSE2);
+        HttpCapture.drain();
+
+        final JSONObject log = new JSONObject(Files.readString(file.toPath())).getJSONObject("log");
+        then(log.getString("version")).isEqualTo("1.2");
+
+        final JSONArray entries = log.getJSONArray("entries");
+        then(entries.length()).isEqualTo(2);
+
+        JSONObject entry = entries.getJSONObject(0);
+        JSONObject request = entry.getJSONObject("request");
+        then(request.getString("method")).isEqualTo("GET");
+        then(request.getString("url")).isEqualTo("http://somewhere.com:8080/index.html?a=1&b=two");
+        then(request.getString("httpVersion")).isEqualTo("HTTP/1.1");
+        then(request.getJSONArray("headers").length()).isEqualTo(2);
+        then(request.getJSONArray("queryString").getJSONObject(1).getString("value")).isEqualTo("two");
+        then(request.getInt("headersSize")).isEqualTo(REQUEST1.length());
+        then(request.getInt("bodySize")).isZero();
+
+        JSONObject response = entry.getJSONObject("response");
+        then(response.getInt("status")).isEqualTo(200);
+        then(response.getString("statusText")).isEqualTo("OK");
+        then(response.getJSONObject("content").getString("mimeType")).isEqualTo("text/html");
+        then(response.getJSONObject("content").getInt("size")).isEqualTo(5);
+        then(response.getInt("bodySize")).isEqualTo(5);
+
+        final JSONObject timings = entry.getJSONObject("timings");
+        then(timings.getDouble("send")).isGreaterThanOrEqualTo(0);
+        then(timings.getDouble("wait")).isGreaterThanOrEqualTo(0);
+        then(timings.getDouble("receive")).isGreaterThanOrEqualTo(0);
+        then(entry.getDouble("time")).isGreaterThanOrEqualTo(
+            timings.getDouble("send") + timings.getDouble("wait") + timings.getDouble("receive") - 0.001
+        );
+
+        entry = entries.getJSONObject(1);
+        request = entry.getJSONObject("request");
+        then(request.getString("method")).isEqualTo("POST");
+        then(request.getInt("bodySize")).isEqualTo(3);
+        response = entry.getJSONObject("response");
+        then(response.getInt("status")).isEqualTo(302);
+        then(response.getString("redirectURL")).isEqualTo("/done");
+    }
+
+    @Test
+    public void har_file_stays_valid_across_captures() throws Exception {
+        final File file = new File(TMP.getRoot(), "capture.har");
+
+        exchange(new HttpCapture(file, new URL("http://somewhere.com/index.html")), REQUEST1, RESPONSE1);
+        HttpCapture.drain();
+        then(new JSONObject(Files.readString(file.toPath())).getJSONObject("log").getJSONArray("entries").length()).isEqualTo(1);
+
+        exchange(new HttpCapture(file, new URL("http://somewhere.com/index.html")), REQUEST2, RESPONSE2);
+        HttpCapture.drain();
+        then(new JSONObject(Files.readString(file.toPath())).getJSONObject("log").getJSONArray("entries").length()).isEqualTo(2);
+    }
+
+    @Test
+    public void streams_capture_buffers() throws Exception {
+        final File file = new File(TMP.getRoot(), "capture.txt");
+        final HttpCapture capture = new HttpCapture(file, new URL("http://somewhere.com/index.html"));
+
+        final ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        try (HttpCaptureOutputStream out = new HttpCaptureOutputStream(sink, capture)) {
+            final byte[] request = ("xx" + REQUEST1 + "yy").getBytes(StandardCharsets.ISO_8859_1);
+            out.write(request, 2, REQUEST1.length());
+        }
+        then(sink.toString(StandardCharsets.ISO_8859_1)).isEqualTo(REQUEST1);
+
+        final byte[] buf = new byte[16];
+        final StringBuilder read = new StringBuilder();
+        try (HttpCaptureInputStream in = new HttpCaptureInputStream(
+            new ByteArrayInputStream(RESPONSE1.getBytes(StandardCharsets.ISO_8859_1)), capture
+        )) {
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                read.append(new String(buf, 0, n, StandardCharsets.ISO_8859_1));
+            }
+            then(in.read()).isEqualTo(-1);
+        }
+        then(read.toString()).isEqualTo(RESPONSE1);
+
+        HttpCapture.drain();
+        then(Files.readString(file.toPath(), StandardCharsets.ISO_8859_1)).isEqualTo(
+            "URL: http://somewhere.com/index.html\n"
+            + "\n------>\n" + REQUEST1
+            + "\n<------\n" + RESPONSE1
+        );
+    }
+
+    @Test
+    public void har_entry_is_written_when_the_input_is_closed() throws Exception {
+        final File file = new File(TMP.getRoot(), "closed.har");
+        final HttpCapture capture = new HttpCapture(file, new URL("http://somewhere.com/index.html"));
+
+        try (HttpCaptureOutputStream out = new HttpCaptureOutputStream(new ByteArrayOutputStream(), capture)) {
+            out.write(REQUEST1.getBytes(StandardCharsets.ISO_8859_1));
+        }
+        final HttpCaptureInputStream in = new HttpCaptureInputStream(
+            new ByteArrayInputStream(RESPONSE1.getBytes(StandardCharsets.ISO_8859_1)), capture
+        );
+        in.readAllBytes();
+        in.close();
+
+        //
+        // no drain(), the writer thread gets there on its own
+        //
+        final long timeout = System.currentTimeMillis() + 5000;
+        while (!(file.exists() && Files.readString(file.toPath()).endsWith("]}}"))
+               && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+        }
+        then(file).exists();
+
+        final JSONArray entries = new JSONObject(Files.readString(file.toPath())).getJSONObject("log").getJSONArray("entries");
+        then(entries.length()).isEqualTo(1);
+        then(entries.getJSONObject(0).getJSONObject("response").getInt("status")).isEqualTo(200);
+    }
+
+    @Test
+    public void capture_from_parallel_connections() throws Exception {
+        final int N = 8, M = 200;
+        final List<File> files = new ArrayList<>();
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < N; ++i) {
+            final File file = new File(TMP.getRoot(), "capture" + i + ".txt");
+            final HttpCapture capture = new HttpCapture(file, new URL("http://somewhere.com/" + i));
+            files.add(file);
+            threads.add(new Thread(() -> {
+                try {
+                    for (int j = 0; j < M; ++j) {
+                        capture.sent(j % 10 + '0');
+                    }
+                } catch (Exception x) {
+                    throw new RuntimeException(x);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread t: threads) {
+            t.join();
+        }
+        HttpCapture.drain();
+
+        final StringBuilder expected = new StringBuilder();
+        for (int j = 0; j < M; ++j) {
+            expected.append(j % 10);
+        }
+        for (int i = 0; i < N; ++i) {
+            then(Files.readString(files.get(i).toPath(), StandardCharsets.ISO_8859_1)).isEqualTo(
+                "URL: http://somewhere.com/" + i + "\n\n------>\n" + expected
+            );
+        }
+    }
+
+    // --------------------------------------------------------- private methods
+
+    private void exchange(final HttpCapture capture, final String request, final String response)
+    throws Exception {
+        final byte[] req = request.getBytes(StandardCharsets.ISO_8859_1);
+        capture.sent(req, 0, 10);
+        capture.sent(req, 10, req.length - 10);
+        final byte[] res = response.getBytes(StandardCharsets.ISO_8859_1);
+        for (int i = 0; i < res.length; i += 7) {
+            capture.received(res, i, Math.min(7, res.length - i));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * xTest
+ * Copyright (C) 2025 Stefano Fornari
+ *
+ * This program is free software; you can redistribute it and/or modify it under
+ * the terms of the GNU Affero General Public License version 3 as published by
+ * the Free Software Foundation with the addition of the following permission
+ * added to Section 15 as permitted in Section 7(a): FOR ANY PART OF THE COVERED
+ * WORK IN WHICH THE COPYRIGHT IS OWNED BY Stefano Fornari, Stefano Fornari
+ * DISCLAIMS THE WARRANTY OF NON INFRINGEMENT OF THIRD PARTY RIGHTS.
+ *
+ * This program is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS
+ * FOR A PARTICULAR PURPOSE. See the GNU General Public License for more
+ * details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program; if not, see http://www.gnu.org/licenses or write to
+ * the Free Software Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston,
+ * MA 02110-1301 USA.
+ */
+package ste.xtest.net.sun.www;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import static org.assertj.core.api.BDDAssertions.then;
+import org.junit.Test;
+
+/**
+ *
+ */
+public class BugFreeMessageHeader {
+
+    @Test
+    public void find_values_ignoring_case() throws Exception {
+        final MessageHeader h = new MessageHeader(new ByteArrayInputStream((
+            "HTTP/1.1 200 OK\r\n"
+            + "Content-Type: text/plain\r\n"
+            + "Set-Cookie: a=1\r\n"
+            + "set-cookie: b=2\r\n"
+            + "SET-COOKIE: c=3\r\n"
+            + "\r\n"
+        ).getBytes(StandardCharsets.ISO_8859_1)));
+
+        then(h.findValue(null)).isEqualTo("HTTP/1.1 200 OK");
+        then(h.findValue("content-type")).isEqualTo("text/plain");
+        then(h.findValue("Set-Cookie")).isEqualTo("c=3");  // the last one
+        then(h.findValue("none")).isNull();
+        then(h.getKey("set-COOKIE")).isEqualTo(4);
+        then(h.getKey("none")).isEqualTo(-1);
+        then(h.getKey(1)).isEqualTo("Content-Type");
+        then(h.getValue(2)).isEqualTo("a=1");
+        then(h.getValue(5)).isNull();
+
+        final List<String> values = new ArrayList<>();
+        for (Iterator<String> i = h.multiValueIterator("set-cookie"); i.hasNext();) {
+            values.add(i.next());
+        }
+        then(values).containsExactly("a=1", "b=2", "c=3");
+        then(h.snapshot().findValues("SET-cookie")).containsExactly("a=1", "b=2", "c=3");
+        then(h.findNextValue("set-cookie", h.findValue("set-cookie"))).isEqualTo("b=2");
+    }
+
+    @Test
+    public void index_follows_changes() {
+        final MessageHeader h = new MessageHeader();
+
+        h.add("Accept", "a");
+        h.add("Host", "somewhere.com");
+        h.add("accept", "b");
+        then(h.snapshot().findValues("ACCEPT")).containsExactly("a", "b");
+
+        h.prepend("Accept", "z");
+        then(h.snapshot().findValues("accept")).containsExactly("z", "a", "b");
+        then(h.getKey("host")).isEqualTo(2);
+
+        h.set("ACCEPT", "c");  // the last one
+        then(h.snapshot().findValues("accept")).containsExactly("z", "a", "c");
+
+        h.set(1, "User-Agent", "xtest");
+        then(h.snapshot().findValues("accept")).containsExactly("z", "c");
+        then(h.findValue("user-agent")).isEqualTo("xtest");
+
+        h.remove("accept");
+        then(h.snapshot().findValues("accept")).isEmpty();
+        then(h.snapshot().size()).isEqualTo(2);
+        then(h.getKey(0)).isEqualTo("User-Agent");
+        then(h.getKey("host")).isEqualTo(1);
+
+        h.setIfNotSet("host", "elsewhere.com");
+        h.setIfNotSet("Accept", "*/*");
+        then(h.findValue("host")).isEqualTo("somewhere.com");
+        then(h.findValue("accept")).isEqualTo("*/*");
+        then(h.getHeaderNamesInList()).isEqualTo("User-Agent,Host,Accept");
+
+        h.add(null, "status");
+        then(h.findValue(null)).isEqualTo("status");
+        h.remove(null);
+        then(h.findValue(null)).isNull();
+
+        h.reset();
+        then(h.findValue("host")).isNull();
+        then(h.snapshot().size()).isZero();
+    }
+
+    @Test
+    public void filter_ntlm_responses() {
+        final MessageHeader h = new MessageHeader();
+        h.add("WWW-Authenticate", "Negotiate");
+        h.add("WWW-Authenticate", "NTLM abcdef");
+        h.add("WWW-Authenticate", "Kerberos");
+        h.add("Server", "test");
+
+        then(h.filterNTLMResponses("www-authenticate")).isTrue();
+        then(h.snapshot().findValues("WWW-Authenticate")).containsExactly("NTLM abcdef");
+        then(h.getKey("server")).isEqualTo(1);
+    }
+
+    @Test
+    public void snapshot_is_shared_and_immutable() {
+        final MessageHeader h = new MessageHeader();
+        h.add("Accept", "a");
+
+        final MessageHeader.Snapshot s = h.snapshot();
+        then(h.snapshot()).isSameAs(s);
+        then(h.getHeaders()).isSameAs(h.getHeaders());
+        then(h.getHeaders().get("Accept")).containsExactly("a");
+
+        h.add("Accept", "b");
+        then(h.snapshot()).isNotSameAs(s);
+        then(s.findValues("accept")).containsExactly("a");
+        then(h.getHeaders().get("Accept")).containsExactly("b", "a");
+        then(h.getHeaders(new String[] {"accept"})).isEmpty();
+    }
+
+    @Test
+    public void read_while_writing() throws Exception {
+        final MessageHeader h = new MessageHeader();
+        final int N = 2000;
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+
+        final Thread reader = new Thread(() -> {
+            try {
+                int last = -1;
+                while (last < N - 1) {
+                    final MessageHeader.Snapshot s = h.snapshot();
+                    final String v = s.findValue("x-counter");
+                    if (v != null) {
+                        final int i = Integer.parseInt(v);
+                        if (i < last) {
+                            throw new IllegalStateException(i + " after " + last);
+                        }
+                        last = i;
+                        then(s.findValues("X-Counter")).hasSize(i + 1);
+                    }
+                }
+            } catch (Throwable x) {
+                error.set(x);
+            }
+        });
+        reader.start();
+        for (int i = 0; i < N; ++i) {
+            h.add("X-Counter", String.valueOf(i));
+        }
+        reader.join(10000);
+
+        then(error.get()).isNull();
+        then(reader.isAlive()).isFalse();
+    }
+}